@@ -100,8 +100,7 @@ function HomeScreen() {
 
     // clean all devices from DB
     function _cleanAllDevicesFromDB() {
-        SpecialBle.cleanDevicesDB();
-        _getAllDevicesFromDB();
+        SpecialBle.cleanDevicesDB().then(() => _getAllDevicesFromDB());
     }
 
     // add list of public_keys
@@ -138,7 +137,7 @@ function HomeScreen() {
 
       // clean all devices from DB
     function _wipe() {
-        SpecialBle.deleteDatabase();
+        SpecialBle.deleteDatabase().then(() => _getAllDevicesFromDB());
     }
 
     // get match results
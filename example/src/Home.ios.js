@@ -82,8 +82,7 @@ function HomeScreen() {
 
     // clean all devices from DB
     function _cleanAllDevicesFromDB() {
-        SpecialBle.cleanDevicesDB();
-        _getAllDevicesFromDB();
+        SpecialBle.cleanDevicesDB().then(() => _getAllDevicesFromDB());
     }
 
    // add list of public_keys
@@ -107,8 +106,7 @@ function HomeScreen() {
 
     // clean all scans from DB
     function _cleanAllScansFromDB() {
-        SpecialBle.cleanScansDB();
-        _getAllDevicesFromDB();
+        SpecialBle.cleanScansDB().then(() => _getAllDevicesFromDB());
     }
     
     // add demo device
@@ -132,7 +130,7 @@ function HomeScreen() {
 
     // clean all devices from DB
     function _wipe() {
-        SpecialBle.deleteDatabase();
+        SpecialBle.deleteDatabase().then(() => _getAllDevicesFromDB());
     }
 
     // match
@@ -52,8 +52,7 @@ function ResultsScreen({navigation}) {
 
     // clean all devices from DB
     function _cleanAllDevicesFromDB() {
-        SpecialBle.cleanDevicesDB();
-        _getAllDevicesFromDB();
+        SpecialBle.cleanDevicesDB().then(() => _getAllDevicesFromDB());
     }
 
     // exports and shares all devices to csv
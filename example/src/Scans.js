@@ -43,8 +43,7 @@ function ResultsScreen({route, navigation}) {
 
     // clean all scans from DB
     function _cleanAllScansFromDB() {
-        SpecialBle.cleanScansDB();
-        _getContactsScans();
+        SpecialBle.cleanScansDB().then(() => _getContactsScans());
     }
 
     // exports and shares all scans to csv
@@ -0,0 +1,21 @@
+package com.wix.crypto;
+
+/**
+ * Contacts read one after the other, e.g. from the contacts database.
+ *
+ * Keeps the matching code free of the Android Cursor, see {@link ContactMatcher}.
+ */
+public interface ContactCursor {
+
+    /**
+     * @return - false when there are no more contacts.
+     */
+    boolean moveToNext();
+
+    /**
+     * @return - the contact the cursor is on.
+     */
+    Contact getContact();
+
+    void close();
+}
@@ -0,0 +1,221 @@
+package com.wix.crypto;
+
+import com.wix.crypto.match.EphemeralIdFilter;
+import com.wix.crypto.match.EphemeralIdMatcher;
+import com.wix.crypto.match.EphemeralIdTable;
+import com.wix.crypto.match.InfectedKeyIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Matches contacts against the infected keys, see {@link User#findCryptoMatches(InfectedKeyIndex, boolean)}.
+ *
+ * Only depends on the matching index and a {@link ContactCursor}, so it runs on a plain JVM as well.
+ */
+public class ContactMatcher {
+
+    private static final int MAX_MATCH_PARALLELISM = 8;
+    private static final int MIN_CONTACTS_PER_TASK = 64;
+    private static ForkJoinPool sMatchPool;
+
+    private ContactMatcher() {}
+
+    /**
+     * Check for matching with the infected user.
+     *
+     * @param index - matching index of the infected keys, see {@link InfectedKeyIndex#build(Map)}.
+     * @param cursor - contacts to check, ordered by time in parallel mode, closed when done.
+     * @param parallel - check the contacts in epoch slices on the match pool.
+     * @return -  List of matches with the infected user.
+     */
+    public static List<MatchResponse> findCryptoMatches(InfectedKeyIndex index, ContactCursor cursor, boolean parallel) {
+
+        if(index.isEmpty())
+        {
+            cursor.close();
+            return null;
+        }
+
+        return ExposureWindowBuilder.build(collectMatches(index, cursor, parallel), index.getStartDay());
+    }
+
+    /**
+     * Check the contacts of a cursor against the infected keys and close the cursor.
+     *
+     * @param cursor - contacts to check, ordered by time in parallel mode.
+     * @param parallel - check the contacts in epoch slices on the match pool.
+     */
+    public static List<Match> collectMatches(InfectedKeyIndex index, ContactCursor cursor, boolean parallel) {
+
+        List<Match> matches = new ArrayList<>();
+        List<Contact> contacts = new ArrayList<>();
+        EphemeralIdMatcher matcher = parallel ? null : new EphemeralIdMatcher(index);
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                if(parallel)
+                    contacts.add(cursor.getContact());
+                else
+                    matchContact(matcher, cursor.getContact(), matches);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        if(parallel && !contacts.isEmpty())
+        {
+            matches = getMatchPool().invoke(new MatchSliceTask(newMatcherPerThread(index), contacts, getEpochSlices(contacts), 0, -1));
+        }
+        return matches;
+    }
+
+    /**
+     * Split contacts sorted by time into epoch slices.
+     *
+     * @return - start offset of every slice, followed by contacts.size().
+     */
+    private static int[] getEpochSlices(List<Contact> contacts) {
+
+        List<Integer> starts = new ArrayList<>();
+        int currentEpoch = Constants.None;
+        for(int i = 0; i < contacts.size(); i ++) {
+
+            int epoch = contacts.get(i).getTimestamp() / Time.EPOCH;
+            if(epoch != currentEpoch) {
+                starts.add(i);
+                currentEpoch = epoch;
+            }
+        }
+
+        int[] slices = new int[starts.size() + 1];
+        for(int i = 0; i < starts.size(); i ++) {
+            slices[i] = starts.get(i);
+        }
+        slices[starts.size()] = contacts.size();
+        return slices;
+    }
+
+    /**
+     * @return - one matcher per pool thread for a run, a matcher keeps a cipher per key it checked.
+     */
+    private static ThreadLocal<EphemeralIdMatcher> newMatcherPerThread(final InfectedKeyIndex index) {
+
+        return new ThreadLocal<EphemeralIdMatcher>() {
+            @Override
+            protected EphemeralIdMatcher initialValue() {
+                return new EphemeralIdMatcher(index);
+            }
+        };
+    }
+
+    private static synchronized ForkJoinPool getMatchPool() {
+
+        if(sMatchPool == null) {
+            sMatchPool = new ForkJoinPool(Math.min(Runtime.getRuntime().availableProcessors(), MAX_MATCH_PARALLELISM));
+        }
+        return sMatchPool;
+    }
+
+    /**
+     * Matches a range of epoch slices, splitting it in halves until it is small enough.
+     */
+    private static class MatchSliceTask extends RecursiveTask<List<Match>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ThreadLocal<EphemeralIdMatcher> mMatcher;
+        private final List<Contact> mContacts;
+        private final int[] mSlices;
+        private final int mFirstSlice;
+        private final int mLastSlice;
+
+        /**
+         * @param firstSlice - first slice to match.
+         * @param lastSlice - slice after the last slice to match, -1 for all the slices.
+         */
+        MatchSliceTask(ThreadLocal<EphemeralIdMatcher> matcher, List<Contact> contacts, int[] slices, int firstSlice, int lastSlice) {
+            mMatcher = matcher;
+            mContacts = contacts;
+            mSlices = slices;
+            mFirstSlice = firstSlice;
+            mLastSlice = lastSlice == Constants.None ? slices.length - 1 : lastSlice;
+        }
+
+        @Override
+        protected List<Match> compute() {
+
+            if(mLastSlice - mFirstSlice <= 1 || mSlices[mLastSlice] - mSlices[mFirstSlice] <= MIN_CONTACTS_PER_TASK)
+            {
+                List<Match> matches = new ArrayList<>();
+                EphemeralIdMatcher matcher = mMatcher.get();
+                for(int i = mSlices[mFirstSlice]; i < mSlices[mLastSlice]; i ++) {
+                    matchContact(matcher, mContacts.get(i), matches);
+                }
+                return matches;
+            }
+
+            int middle = (mFirstSlice + mLastSlice) / 2;
+            MatchSliceTask later = new MatchSliceTask(mMatcher, mContacts, mSlices, middle, mLastSlice);
+            later.fork();
+
+            List<Match> matches = new MatchSliceTask(mMatcher, mContacts, mSlices, mFirstSlice, middle).compute();
+            matches.addAll(later.join());
+            return matches;
+        }
+    }
+
+    /**
+     * Check a contact against the infected keys of every unit in its jitter window.
+     */
+    private static void matchContact(EphemeralIdMatcher matcher, Contact contact, List<Match> matches) {
+
+        InfectedKeyIndex index = matcher.getIndex();
+        EphemeralIdFilter filter = index.getFilter();
+        EphemeralIdTable joinTable = index.getJoinTable();
+        byte[] ephId = contact.getEphemeral_id();
+
+        for(int time = contact.getTimestamp() - Time.JITTER_THRESHOLD; time <= contact.getTimestamp() + Time.JITTER_THRESHOLD; time += Time.UNIT)
+        {
+            // no key of this unit can have produced the id, skip the crypto
+            if(filter != null && !filter.mightContain(time / Time.UNIT, ephId))
+                continue;
+
+            int absoluteEpoch = time / Time.EPOCH;
+            int unit = (time % Time.EPOCH) / Time.UNIT;
+            int start = index.getBucketStart(absoluteEpoch);
+            int end = index.getBucketEnd(absoluteEpoch);
+
+            if(joinTable != null)
+            {
+                // only the keys whose mask prefix fits the id, the bounds check keeps retained views honest
+                for(int position = joinTable.first(time / Time.UNIT, ephId); position != Constants.None; position = joinTable.next(position, time / Time.UNIT, ephId))
+                {
+                    int slot = joinTable.getSlot(position);
+                    if(slot >= start && slot < end)
+                        matchSlot(matcher, contact, ephId, time, unit, slot, matches);
+                }
+                continue;
+            }
+
+            for (int slot = start; slot < end; slot ++) {
+                matchSlot(matcher, contact, ephId, time, unit, slot, matches);
+            }
+        }
+    }
+
+    private static void matchSlot(EphemeralIdMatcher matcher, Contact contact, byte[] ephId, int time, int unit, int slot, List<Match> matches) {
+
+        if(matcher.match(slot, unit, ephId) == EphemeralIdMatcher.MATCH)
+        {
+            matches.add(new Match(contact, matcher.getGeohash(slot, unit, ephId), matcher.getUserRand(slot, unit, ephId),
+                    new Time(time, Constants.None), unit, matcher.getIndex().getEpochKey(slot)));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.wix.crypto;
 
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -12,31 +13,96 @@ import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Created by hagai on 11/05/2020.
+ *
+ * Cipher and Mac instances are looked up once per thread and re-keyed on every call,
+ * the JCA provider lookup costs much more than a single AES block.
  */
 public class Crypto {
 
+    private static final int BLOCK_LEN = Constants.MESSAGE_LEN;
+
+    private static final ThreadLocal<Cipher> sAesCipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/ECB/NoPadding");
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    };
+
+    private static final ThreadLocal<Mac> sHmac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    };
+
     public static byte[] HMAC(byte[] key, byte[] message) {
 
         byte[] res = null;
         try {
 
-            Mac mac = Mac.getInstance("HmacSHA256");
+            Mac mac = sHmac.get();
             SecretKeySpec secretKeySpec = new SecretKeySpec(key, "HmacSHA256");
             mac.init(secretKeySpec);
             res = mac.doFinal(message);
 
-        } catch (NoSuchAlgorithmException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
         } catch (InvalidKeyException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+        }
 
         return res;
 
     }
 
+    private static final ThreadLocal<byte[]> sHmacOutput = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[32];
+        }
+    };
+
+    /**
+     * HMAC of a message slice with a key slice, truncated into a caller owned buffer.
+     *
+     * @param output - receives the first outputLen bytes of the HMAC.
+     * @return - false when the HMAC failed.
+     */
+    public static boolean HMAC(byte[] key, int keyOffset, int keyLen, byte[] message, int messageOffset, int messageLen,
+                               byte[] output, int outputOffset, int outputLen) {
+
+        try {
+            Mac mac = sHmac.get();
+            byte[] result = sHmacOutput.get();
+            mac.init(new SecretKeySpec(key, keyOffset, keyLen, "HmacSHA256"));
+            mac.update(message, messageOffset, messageLen);
+            mac.doFinal(result, 0);
+            System.arraycopy(result, 0, output, outputOffset, outputLen);
+            return true;
+
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+        }
+        return false;
+    }
+
     public static byte[] AES(byte[] key, byte[] message) {
 
         byte[] ans = null;
@@ -44,13 +110,10 @@ public class Crypto {
         SecretKeySpec skeySpec = new SecretKeySpec(key, "AES");
 
         try {
-            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            Cipher cipher = sAesCipher.get();
             cipher.init(Cipher.ENCRYPT_MODE, skeySpec);
             ans = cipher.doFinal(message);
 
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
         } catch (InvalidKeyException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -67,4 +130,40 @@ public class Crypto {
         }
         return ans;
     }
-}
\ No newline at end of file
+
+    /**
+     * Encrypts consecutive 16 byte blocks under one key in a single pass.
+     *
+     * @param key - AES key.
+     * @param input - plain blocks.
+     * @param inputOffset - offset of the first block in input.
+     * @param numBlocks - number of blocks to encrypt.
+     * @param output - receives the encrypted blocks, may be input itself.
+     * @param outputOffset - offset of the first block in output.
+     * @return - false when the encryption failed.
+     */
+    public static boolean AES(byte[] key, byte[] input, int inputOffset, int numBlocks, byte[] output, int outputOffset) {
+        return AES(key, 0, input, inputOffset, numBlocks, output, outputOffset);
+    }
+
+    /**
+     * Same as {@link #AES(byte[], byte[], int, int, byte[], int)} with the KEY_LEN key read at keyOffset.
+     */
+    public static boolean AES(byte[] key, int keyOffset, byte[] input, int inputOffset, int numBlocks, byte[] output, int outputOffset) {
+
+        try {
+            Cipher cipher = sAesCipher.get();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, keyOffset, Constants.KEY_LEN, "AES"));
+            cipher.doFinal(input, inputOffset, numBlocks * BLOCK_LEN, output, outputOffset);
+            return true;
+
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+        }
+        return false;
+    }
+}
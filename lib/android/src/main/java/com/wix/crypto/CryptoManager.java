@@ -3,9 +3,23 @@ package com.wix.crypto;
 import android.content.Context;
 import android.util.Log;
 
+import com.wix.crypto.match.EphemeralIdFilter;
+import com.wix.crypto.match.InfectedKeyFile;
+import com.wix.crypto.match.InfectedKeyIndex;
+import com.wix.crypto.match.InfectedKeyMap;
+import com.wix.crypto.match.InfectedKeySet;
+import com.wix.crypto.match.InfectedKeyStore;
+import com.wix.specialble.config.Config;
+import com.wix.specialble.util.ParseUtils;
+
+import java.io.File;
+import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by hagai on 12/05/2020.
@@ -13,18 +27,43 @@ import java.util.Map;
 public class CryptoManager
 {
 
+    private static final String TAG = CryptoManager.class.getSimpleName();
+
+    private static final String INFECTED_KEYS_DIR = "infected_keys";
+
     private static CryptoManager sManagerInstance;
     private Context mCtx;
 
+    private String mInfectedIndexSource;
+    private InfectedKeyIndex mInfectedIndex;
+    private int mInfectedIndexFilterBits;
+    private boolean mInfectedIndexHashJoin;
+
+    private EphemeralIdScheduler mEphemeralIdScheduler;
+
+    private final InfectedKeyStore mInfectedKeyStore;
+    private Server mServer;
+
+    private final ExecutorService mMatchExecutor = Executors.newSingleThreadExecutor();
+    private final Map<Integer, MatchJob> mMatchJobs = new HashMap<>();
+
     private CryptoManager(Context ctx)
     {
         mCtx = ctx;
+        mInfectedKeyStore = new InfectedKeyStore(new File(ctx.getFilesDir(), INFECTED_KEYS_DIR));
+
+        long start = System.currentTimeMillis();
         fetchUserOrCreate();
+        Log.i(TAG, "user ready in " + (System.currentTimeMillis() - start) + " ms, epoch keys loaded: " + mySelf.isEpochKeysLoaded());
     }
 
     public User mySelf;
 
-    public static CryptoManager getInstance(Context ctx) 
+    /**
+     * Only the saved user json is read on the calling thread, the epoch keys of a saved user load
+     * in the background and the user methods that need them wait for them.
+     */
+    public static synchronized CryptoManager getInstance(Context ctx)
     {
         if (sManagerInstance == null)
         {
@@ -63,6 +102,224 @@ public class CryptoManager
         return User.deserialize(mCtx);
     }
 
+    /**
+     * Returns the ephemeral id schedule of the current user, see {@link EphemeralIdScheduler}.
+     */
+    public synchronized EphemeralIdScheduler getEphemeralIdScheduler()
+    {
+        if (mEphemeralIdScheduler == null || mEphemeralIdScheduler.getUser() != mySelf)
+        {
+            if (mEphemeralIdScheduler != null)
+                mEphemeralIdScheduler.shutdown();
+
+            mEphemeralIdScheduler = new EphemeralIdScheduler(mySelf);
+        }
+        return mEphemeralIdScheduler;
+    }
+
+    /**
+     * Deletes the keys of the user in a time period, see {@link User#deleteMyKeys}, and the ids
+     * the advertiser computed ahead from them.
+     */
+    public synchronized void deleteMyKeys(int startTime, int endTime)
+    {
+        mySelf.deleteMyKeys(startTime, endTime);
+        if (mEphemeralIdScheduler != null)
+            mEphemeralIdScheduler.clear();
+    }
+
+    /**
+     * Deletes the keys and contacts of the user before a time, see {@link User#deleteHistory}, and
+     * the ids the advertiser computed ahead.
+     */
+    public synchronized void deleteHistory(int dTime)
+    {
+        mySelf.deleteHistory(dTime);
+        if (mEphemeralIdScheduler != null)
+            mEphemeralIdScheduler.clear();
+    }
+
+    /**
+     * Returns the matching index of an infected key download.
+     * The index is built once per download and reused by the following match runs,
+     * until a different key set arrives.
+     *
+     * @param infectedKeys - infected keys json, as received from the server.
+     */
+    public synchronized InfectedKeyIndex getInfectedKeyIndex(String infectedKeys)
+    {
+        if (isInfectedIndexStale(infectedKeys))
+        {
+            setInfectedIndex(new InfectedKeyMap(ParseUtils.extractInfectedDbFromJson(infectedKeys, mCtx)), infectedKeys);
+        }
+        return mInfectedIndex;
+    }
+
+    /**
+     * Returns the matching index of a binary infected key file, see {@link InfectedKeyFile}.
+     * The file is mapped, not parsed, and the index is rebuilt only when the file changes.
+     *
+     * @param infectedKeyFile - infected key file, e.g. written by {@link ParseUtils#infectedJsonToFile}.
+     */
+    public synchronized InfectedKeyIndex getInfectedKeyIndex(File infectedKeyFile) throws IOException
+    {
+        String source = infectedKeyFile.getAbsolutePath() + ":" + infectedKeyFile.lastModified() + ":" + infectedKeyFile.length();
+        if (isInfectedIndexStale(source))
+        {
+            setInfectedIndex(InfectedKeyFile.open(infectedKeyFile), source);
+        }
+        return mInfectedIndex;
+    }
+
+    /**
+     * Returns the matching index of the infected keys merged from the server deltas,
+     * see {@link #applyInfectedKeyDelta}. The index reads the keys from the store partitions.
+     */
+    public synchronized InfectedKeyIndex getInfectedKeyIndex()
+    {
+        try
+        {
+            mInfectedKeyStore.dropBefore(getFirstInfectedDay());
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "could not drop expired infected keys", e);
+        }
+
+        String source = "store:" + mInfectedKeyStore.getVersion();
+        if (isInfectedIndexStale(source))
+        {
+            setInfectedIndex(mInfectedKeyStore.snapshot(), source);
+        }
+        return mInfectedIndex;
+    }
+
+    public InfectedKeyStore getInfectedKeyStore()
+    {
+        return mInfectedKeyStore;
+    }
+
+    /**
+     * Merges a key delta into the infected key store and drops the days older than the key window.
+     *
+     * @return - false when the delta does not follow the last applied one, the store is unchanged
+     * and the next download should start after {@link InfectedKeyStore#getSequence()}.
+     */
+    public boolean applyInfectedKeyDelta(KeyDelta delta) throws IOException
+    {
+        boolean applied = mInfectedKeyStore.apply(delta, getFirstInfectedDay());
+        if (!applied)
+        {
+            Log.i(TAG, "key delta after " + delta.getAfterSequence() + " ignored, store is at " + mInfectedKeyStore.getSequence());
+        }
+        return applied;
+    }
+
+    /**
+     * @return - first day of the infected key window, today is its last day.
+     */
+    private int getFirstInfectedDay()
+    {
+        return (int) (System.currentTimeMillis() / 1000) / Time.DAY - Constants.NUM_OF_DAYS;
+    }
+
+    private boolean isInfectedIndexStale(String source)
+    {
+        return mInfectedIndex == null
+                || mInfectedIndexFilterBits != Config.getInstance(mCtx).getMatchFilterBitsPerEntry()
+                || mInfectedIndexHashJoin != Config.getInstance(mCtx).getMatchHashJoin()
+                || (source == null ? mInfectedIndexSource != null : !source.equals(mInfectedIndexSource));
+    }
+
+    private void setInfectedIndex(InfectedKeySet keys, String source)
+    {
+        int filterBitsPerEntry = Config.getInstance(mCtx).getMatchFilterBitsPerEntry();
+        boolean hashJoin = Config.getInstance(mCtx).getMatchHashJoin();
+
+        mInfectedIndex = InfectedKeyIndex.build(keys, filterBitsPerEntry, hashJoin);
+        mInfectedIndexSource = source;
+        mInfectedIndexFilterBits = filterBitsPerEntry;
+        mInfectedIndexHashJoin = hashJoin;
+
+        EphemeralIdFilter filter = mInfectedIndex.getFilter();
+        if (filter != null)
+        {
+            Log.i(TAG, "match prefilter: " + filter.getNumEntries() + " entries, " + filter.getSizeInBytes()
+                    + " bytes, " + filter.getNumHashes() + " hashes, false positive rate " + filter.getFalsePositiveRate());
+        }
+        if (mInfectedIndex.getJoinTable() != null)
+        {
+            Log.i(TAG, "match join table: " + mInfectedIndex.getJoinTable().getSizeInBytes() + " bytes");
+        }
+    }
+
+    /**
+     * Starts a background match run, see {@link MatchJob}.
+     * Jobs run one after the other on the match thread.
+     *
+     * @param infectedKeys - infected keys json, as received from the server.
+     * @param listener - receives the progress and results of the job, on the match thread.
+     */
+    public MatchJob startMatchJob(String infectedKeys, MatchJob.Listener listener)
+    {
+        return startMatchJob(new MatchJob(this, infectedKeys, null, false, listener));
+    }
+
+    /**
+     * Starts a background match run over a binary infected key file, see {@link MatchJob}.
+     *
+     * @param infectedKeyFile - infected key file, see {@link InfectedKeyFile}.
+     * @param listener - receives the progress and results of the job, on the match thread.
+     */
+    public MatchJob startMatchJob(File infectedKeyFile, MatchJob.Listener listener)
+    {
+        return startMatchJob(new MatchJob(this, null, infectedKeyFile, false, listener));
+    }
+
+    /**
+     * Starts a background match run over the infected key store, see {@link MatchJob}.
+     *
+     * @param listener - receives the progress and results of the job, on the match thread.
+     */
+    public MatchJob startMatchJob(MatchJob.Listener listener)
+    {
+        return startMatchJob(new MatchJob(this, null, null, true, listener));
+    }
+
+    private MatchJob startMatchJob(MatchJob job)
+    {
+        synchronized (mMatchJobs)
+        {
+            mMatchJobs.put(job.getId(), job);
+        }
+        mMatchExecutor.execute(job);
+        return job;
+    }
+
+    /**
+     * @return - false when no such job is queued or running.
+     */
+    public boolean cancelMatchJob(int jobId)
+    {
+        synchronized (mMatchJobs)
+        {
+            MatchJob job = mMatchJobs.get(jobId);
+            if (job == null)
+                return false;
+
+            job.cancel();
+            return true;
+        }
+    }
+
+    void onMatchJobDone(MatchJob job)
+    {
+        synchronized (mMatchJobs)
+        {
+            mMatchJobs.remove(job.getId());
+        }
+    }
+
     public Map<Integer, Map<Integer, ArrayList<byte[]>>> fetchInfectionDataByConsent()
     {
         Server server = new Server();
@@ -70,4 +327,21 @@ public class CryptoManager
         server.receive_user_key(mySelf.getKeysForServer());
         return server.send_keys();
     }
+
+    /**
+     * Same as {@link #fetchInfectionDataByConsent()}, against a reference server kept for the
+     * lifetime of the manager, and only for the keys published after a sequence.
+     *
+     * @param afterSequence - sequence of the last applied delta, 0 for all the keys.
+     */
+    public synchronized KeyDelta fetchInfectionDataByConsent(long afterSequence)
+    {
+        if (mServer == null)
+        {
+            mServer = new Server();
+        }
+
+        mServer.receive_user_key(mySelf.getKeysForServer());
+        return mServer.send_keys(afterSequence);
+    }
 }
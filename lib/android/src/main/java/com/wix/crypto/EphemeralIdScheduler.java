@@ -0,0 +1,176 @@
+package com.wix.crypto;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.wix.crypto.Constants.NUM_OF_DAYS;
+import static com.wix.crypto.Constants.SECONDS_IN_DAY;
+
+/**
+ * Ephemeral ids of the coming units, computed ahead of time for the advertiser.
+ *
+ * The ids of the next capacity units are kept in a ring buffer indexed by absolute unit, so the
+ * id of the current unit is a lookup. When less than half of the ring is ahead of the current
+ * unit, it is refilled on the scheduler thread, which also makes sure the epoch keys of the days
+ * the ring reaches into exist. Epoch and day boundaries are thus crossed long before advertising
+ * gets there.
+ *
+ * An id depends on the location, so the ring is dropped when the geohash changes and the id of
+ * a unit that is not ready yet is computed on the calling thread.
+ */
+public class EphemeralIdScheduler {
+
+    private static final String TAG = EphemeralIdScheduler.class.getSimpleName();
+
+    public static final int DEFAULT_CAPACITY = 2 * Time.UNITS_IN_EPOCH;
+
+    private final User mUser;
+    private final int[] mUnits;
+    private final byte[][] mIds;
+    private byte[] mGeoHash;
+    private boolean mRefillPending;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    public EphemeralIdScheduler(User user) {
+        this(user, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - number of units computed ahead.
+     */
+    public EphemeralIdScheduler(User user, int capacity) {
+
+        mUser = user;
+        mUnits = new int[capacity];
+        mIds = new byte[capacity][];
+        clear();
+    }
+
+    public User getUser() { return mUser; }
+
+    /**
+     * @param time - current time.
+     * @param geoHash - current location.
+     * @return - the ephemeral id of the unit of time, see {@link User#generateEphemeralId}.
+     */
+    public byte[] getEphemeralId(int time, byte[] geoHash) {
+
+        int unit = time / Time.UNIT;
+        byte[] ephId = get(unit, geoHash);
+        if (ephId == null) {
+
+            ephId = mUser.generateEphemeralId(time, geoHash);
+            put(unit, geoHash, ephId);
+        }
+
+        prefetch(time, geoHash);
+        return ephId;
+    }
+
+    /**
+     * Refills the ring in the background when less than half of it is ahead of time.
+     */
+    public synchronized void prefetch(int time, byte[] geoHash) {
+
+        final int unit = time / Time.UNIT;
+        if (mRefillPending || !Arrays.equals(mGeoHash, geoHash) || getUnitsAhead(unit) >= mUnits.length / 2)
+            return;
+
+        mRefillPending = true;
+        final byte[] refillGeoHash = mGeoHash;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                refill(unit, refillGeoHash);
+            }
+        });
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private void refill(int firstUnit, byte[] geoHash) {
+
+        try
+        {
+            // create the keys of the days the ring reaches into, expiring history from now on
+            int lastTime = (firstUnit + mUnits.length - 1) * Time.UNIT;
+            if (mUser.getEpochKey(new Time(lastTime, Constants.None)) == null)
+                mUser.updateKeyDatabase(firstUnit * Time.UNIT - NUM_OF_DAYS * SECONDS_IN_DAY, lastTime);
+
+            for (int unit = firstUnit; unit < firstUnit + mUnits.length; unit ++) {
+
+                synchronized (this)
+                {
+                    // the location changed, the next prefetch starts over
+                    if (!Arrays.equals(mGeoHash, geoHash))
+                        return;
+
+                    if (mUnits[unit % mUnits.length] == unit)
+                        continue;
+                }
+                put(unit, geoHash, mUser.generateEphemeralId(unit * Time.UNIT, geoHash));
+            }
+        }
+        catch (RuntimeException e)
+        {
+            Log.e(TAG, "refill failed", e);
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                mRefillPending = false;
+            }
+        }
+    }
+
+    private synchronized byte[] get(int unit, byte[] geoHash) {
+
+        if (!Arrays.equals(mGeoHash, geoHash)) {
+
+            // the location changed or the ids were dropped, the ids of the old one are useless
+            clear();
+            mGeoHash = Arrays.copyOf(geoHash, geoHash.length);
+            return null;
+        }
+
+        int slot = unit % mUnits.length;
+        return mUnits[slot] == unit ? mIds[slot] : null;
+    }
+
+    private synchronized void put(int unit, byte[] geoHash, byte[] ephId) {
+
+        if (!Arrays.equals(mGeoHash, geoHash))
+            return;
+
+        int slot = unit % mUnits.length;
+        mUnits[slot] = unit;
+        mIds[slot] = ephId;
+    }
+
+    private int getUnitsAhead(int unit) {
+
+        int ahead = 0;
+        while (ahead < mUnits.length && mUnits[(unit + ahead) % mUnits.length] == unit + ahead) {
+            ahead ++;
+        }
+        return ahead;
+    }
+
+    /**
+     * Drops the computed ids, e.g. when the keys they were derived from are deleted. A refill in
+     * progress stops, the next ids are computed from the keys that are left.
+     */
+    public synchronized void clear() {
+
+        Arrays.fill(mUnits, Constants.None);
+        Arrays.fill(mIds, null);
+        mGeoHash = null;
+    }
+}
@@ -0,0 +1,230 @@
+package com.wix.crypto;
+
+import com.wix.crypto.utilities.Hex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the matches of a match run into contact time ranges.
+ *
+ * Two matches pair up when their contacts were seen between MIN_TIME_FOR_MATCH and
+ * MAX_TIME_FOR_MATCH apart and either share the infected epoch key ("High") or the earlier one
+ * was made with a key of the epoch before the later contact ("Low"). Each later match (anchor)
+ * opens a range with its latest partner or extends the last range, and the range then reaches
+ * back to its earliest partner.
+ *
+ * Matches are grouped by epoch key and by key epoch, each group sorted by contact time, so the
+ * partners of an anchor are found with two binary searches instead of a scan over all matches.
+ * A match key always belongs to its own epoch bucket, which answers the previous epoch lookup.
+ *
+ * The matches are taken in contact time order. The double loop this replaced took them in infected
+ * time order, the two give the same ranges while the infected times follow the contact times, e.g.
+ * for an infected user whose clock is off by a constant.
+ */
+public class ExposureWindowBuilder {
+
+    static final int MIN_TIME_FOR_MATCH = 600;
+    static final int MAX_TIME_FOR_MATCH = 1200;
+
+    private static final String HIGH = "High";
+    private static final String LOW = "Low";
+
+    private final Match[] mMatches;
+    private final int[] mTimestamps;
+    private final int mStartDay;
+
+    private final Map<ByteBuffer, int[]> mByKey = new HashMap<>();
+    private final Map<Integer, int[]> mByEpoch = new HashMap<>();
+
+    private ExposureWindowBuilder(List<Match> matches, int startDay) {
+
+        mMatches = matches.toArray(new Match[matches.size()]);
+        Arrays.sort(mMatches, new Comparator<Match>() {
+            @Override
+            public int compare(Match o1, Match o2) {
+
+                int byTime = o1.getContact().getTimestamp() - o2.getContact().getTimestamp();
+                return byTime != 0 ? byTime : o1.getInfectedTime() - o2.getInfectedTime();
+            }
+        });
+
+        mTimestamps = new int[mMatches.length];
+        Map<ByteBuffer, List<Integer>> byKey = new HashMap<>();
+        Map<Integer, List<Integer>> byEpoch = new HashMap<>();
+        for (int i = 0; i < mMatches.length; i ++) {
+
+            mTimestamps[i] = mMatches[i].getContact().getTimestamp();
+            add(byKey, ByteBuffer.wrap(mMatches[i].getmEpochKey()), i);
+            add(byEpoch, mMatches[i].getInfectedTime() / Time.EPOCH, i);
+        }
+        for (Map.Entry<ByteBuffer, List<Integer>> group : byKey.entrySet()) {
+            mByKey.put(group.getKey(), toArray(group.getValue()));
+        }
+        for (Map.Entry<Integer, List<Integer>> group : byEpoch.entrySet()) {
+            mByEpoch.put(group.getKey(), toArray(group.getValue()));
+        }
+        mStartDay = startDay;
+    }
+
+    /**
+     * @param matches - matches of a match run, in any order.
+     * @param startDay - first day of the infected keys, contacts before it only pair on the same key.
+     * @return - contact time ranges with the infected users, latest first.
+     */
+    public static List<MatchResponse> build(List<Match> matches, int startDay) {
+        return new ExposureWindowBuilder(matches, startDay).build();
+    }
+
+    private List<MatchResponse> build() {
+
+        List<MatchResponse> timeRangeMatch = new ArrayList<>();
+
+        for (int anchor = mMatches.length - 1; anchor >= 1; anchor --) {
+
+            int from = mTimestamps[anchor] - MAX_TIME_FOR_MATCH;
+            int to = mTimestamps[anchor] - MIN_TIME_FOR_MATCH;
+
+            int[] sameKey = mByKey.get(ByteBuffer.wrap(mMatches[anchor].getmEpochKey()));
+            int earliest = first(sameKey, from, to);
+            int latest = last(sameKey, from, to);
+
+            Time contactTime = new Time(mTimestamps[anchor], Constants.None);
+            int previousEpoch = mTimestamps[anchor] / Time.EPOCH - 1;
+            if (contactTime.getDay() >= mStartDay && previousEpoch >= 0) {
+
+                int[] previousKeys = mByEpoch.get(previousEpoch);
+                int earliestLow = first(previousKeys, from, to);
+                int latestLow = last(previousKeys, from, to);
+
+                if (earliestLow != Constants.None && (earliest == Constants.None || mTimestamps[earliestLow] < mTimestamps[earliest]))
+                    earliest = earliestLow;
+                if (latestLow != Constants.None && (latest == Constants.None || mTimestamps[latestLow] > mTimestamps[latest]))
+                    latest = latestLow;
+            }
+
+            if (latest == Constants.None)
+                continue;
+
+            createMatchResponse(mMatches[anchor], mMatches[latest], level(anchor, latest), timeRangeMatch);
+            if (earliest != latest)
+                createMatchResponse(mMatches[anchor], mMatches[earliest], level(anchor, earliest), timeRangeMatch);
+        }
+        return timeRangeMatch;
+    }
+
+    private String level(int anchor, int partner) {
+        return Arrays.equals(mMatches[anchor].getmEpochKey(), mMatches[partner].getmEpochKey()) ? HIGH : LOW;
+    }
+
+    /**
+     * @return - position of the earliest match of the group seen in [from, to], or -1.
+     */
+    private int first(int[] group, int from, int to) {
+
+        if (group == null)
+            return Constants.None;
+
+        int low = 0;
+        int high = group.length;
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+            if (mTimestamps[group[middle]] < from)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low < group.length && mTimestamps[group[low]] <= to ? group[low] : Constants.None;
+    }
+
+    /**
+     * @return - position of the latest match of the group seen in [from, to], or -1.
+     */
+    private int last(int[] group, int from, int to) {
+
+        if (group == null)
+            return Constants.None;
+
+        int low = 0;
+        int high = group.length;
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+            if (mTimestamps[group[middle]] <= to)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low > 0 && mTimestamps[group[low - 1]] >= from ? group[low - 1] : Constants.None;
+    }
+
+    private static void createMatchResponse(Match anchor, Match compareable, String contactIntegrityLevel, List<MatchResponse> responseMatches) {
+
+        if(responseMatches.isEmpty())
+        {
+            List<String> verifiedEphemerals  = new ArrayList<>();
+            verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
+            verifiedEphemerals.add(Hex.toHexString(anchor.getContact().getEphemeral_id()));
+
+            MatchResponse matchResponse = new MatchResponse(compareable.getContact().getTimestamp(),
+                    anchor.getContact().getTimestamp(), verifiedEphemerals,
+                    anchor.getContact().getLat(), anchor.getContact().getLon(),
+                    contactIntegrityLevel);
+
+            responseMatches.add(matchResponse);
+        }
+        else
+        {
+            MatchResponse lastSavedMatch = responseMatches.remove(responseMatches.size() - 1);
+            if(lastSavedMatch.getStartContactTimestamp() - compareable.getContact().getTimestamp() <= MAX_TIME_FOR_MATCH) {
+
+                List<String> verifiedEphemerals = new ArrayList<>();
+                verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
+                verifiedEphemerals.add(lastSavedMatch.getVerifiedEphemerals().get(1));
+                MatchResponse extendedMatch = new MatchResponse(compareable.getContact().getTimestamp(), lastSavedMatch.getEndContactTimestamp(),
+                                                                verifiedEphemerals, lastSavedMatch.getLat(), lastSavedMatch.getLon(),
+                                                                lastSavedMatch.getContactIntegrityLevel());
+
+                responseMatches.add(extendedMatch);
+            }
+            else {
+                responseMatches.add(lastSavedMatch);
+                List<String> verifiedEphemerals  = new ArrayList<>();
+                verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
+                verifiedEphemerals.add(Hex.toHexString(anchor.getContact().getEphemeral_id()));
+
+                MatchResponse matchResponse = new MatchResponse(compareable.getContact().getTimestamp(),
+                        anchor.getContact().getTimestamp(), verifiedEphemerals,
+                        anchor.getContact().getLat(), anchor.getContact().getLon(),
+                        contactIntegrityLevel);
+
+                responseMatches.add(matchResponse);
+            }
+        }
+    }
+
+    private static <K> void add(Map<K, List<Integer>> groups, K key, int position) {
+
+        List<Integer> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(key, group);
+        }
+        group.add(position);
+    }
+
+    private static int[] toArray(List<Integer> positions) {
+
+        int[] result = new int[positions.size()];
+        for (int i = 0; i < result.length; i ++) {
+            result[i] = positions.get(i);
+        }
+        return result;
+    }
+}
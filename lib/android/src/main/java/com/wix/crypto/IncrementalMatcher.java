@@ -0,0 +1,111 @@
+package com.wix.crypto;
+
+import com.wix.crypto.match.InfectedKeyIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the state of the previous match run so that the next one only does the new work.
+ *
+ * Between two runs the matcher remembers the highest contact id it has seen, a fingerprint of
+ * every infected epoch bucket and the raw matches it found. A new run checks the contacts stored
+ * since then against all the infected keys, and the older contacts only against the epochs whose
+ * keys changed. The time window pass is cheap and is run again over all the kept matches.
+ */
+public class IncrementalMatcher {
+
+    private final User mUser;
+
+    private int mLastContactId = Constants.None;
+    private Map<Integer, Integer> mBucketFingerprints = new HashMap<>();
+    private List<Match> mMatches = new ArrayList<>();
+
+    IncrementalMatcher(User user) {
+        mUser = user;
+    }
+
+    /**
+     * Check for matching with the infected user, reusing the work of the previous run.
+     *
+     * @param index - matching index of the infected keys, see {@link InfectedKeyIndex#build(Map)}.
+     * @return -  List of matches with the infected user.
+     */
+    public synchronized List<MatchResponse> findCryptoMatches(InfectedKeyIndex index) {
+
+        if(index.isEmpty())
+        {
+            reset();
+            return null;
+        }
+
+        // epochs whose keys were added, changed or removed since the previous run
+        Map<Integer, Integer> fingerprints = new HashMap<>();
+        Set<Integer> changedEpochs = new HashSet<>();
+        for(int epoch = index.getFirstEpoch(); epoch < index.getEndEpoch(); epoch ++)
+        {
+            if(index.getBucketEnd(epoch) == index.getBucketStart(epoch))
+                continue;
+
+            int fingerprint = index.getBucketFingerprint(epoch);
+            fingerprints.put(epoch, fingerprint);
+
+            Integer previous = mBucketFingerprints.get(epoch);
+            if(previous == null || previous != fingerprint)
+                changedEpochs.add(epoch);
+        }
+        for(Integer epoch : mBucketFingerprints.keySet())
+        {
+            if(!fingerprints.containsKey(epoch))
+                changedEpochs.add(epoch);
+        }
+
+        int historyStart = index.getStartDay() * Time.DAY - Time.JITTER_THRESHOLD;
+        Iterator<Match> it = mMatches.iterator();
+        while(it.hasNext())
+        {
+            Match match = it.next();
+            if(changedEpochs.contains(match.getInfectedTime() / Time.EPOCH) || match.getContact().getTimestamp() < historyStart)
+                it.remove();
+        }
+
+        if(mLastContactId != Constants.None && !changedEpochs.isEmpty())
+        {
+            int from = Integer.MAX_VALUE;
+            int to = Integer.MIN_VALUE;
+            for(Integer epoch : changedEpochs)
+            {
+                from = Math.min(from, epoch * Time.EPOCH - Time.JITTER_THRESHOLD);
+                to = Math.max(to, (epoch + 1) * Time.EPOCH + Time.JITTER_THRESHOLD);
+            }
+
+            mMatches.addAll(mUser.collectMatches(index.retainEpochs(changedEpochs),
+                    mUser.dbClient.getCursorInRange(mLastContactId, from, to), true));
+        }
+
+        // read the high water mark first, contacts stored while this run is going are left for the next one
+        int lastContactId = mUser.dbClient.getMaxContactId();
+        mMatches.addAll(mUser.collectMatches(index, mUser.dbClient.getCursorAfter(mLastContactId, lastContactId), true));
+
+        mLastContactId = Math.max(mLastContactId, lastContactId);
+        mBucketFingerprints = fingerprints;
+
+        return mUser.buildMatchResponses(new ArrayList<>(mMatches), index);
+    }
+
+    /**
+     * Forget the previous runs, the next run checks all the contacts again.
+     * Needed whenever contacts are removed from the database.
+     */
+    public synchronized void reset() {
+
+        mLastContactId = Constants.None;
+        mBucketFingerprints = new HashMap<>();
+        mMatches = new ArrayList<>();
+    }
+}
@@ -0,0 +1,45 @@
+package com.wix.crypto;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Infected keys published after a sequence number, see {@link Server#send_keys(long)}.
+ *
+ * A client that applied every delta up to the after sequence holds all the published keys once it
+ * applies this one, and asks for the next delta after its sequence.
+ */
+public class KeyDelta {
+
+    private final long mAfterSequence;
+    private final long mSequence;
+    private final Map<Integer, Map<Integer, ArrayList<byte[]>>> mKeys;
+
+    /**
+     * @param afterSequence - sequence the delta starts after, 0 for all the keys.
+     * @param sequence - sequence of the last publish the delta includes.
+     * @param keys - the keys published in between, by day and epoch.
+     */
+    public KeyDelta(long afterSequence, long sequence, Map<Integer, Map<Integer, ArrayList<byte[]>>> keys) {
+        mAfterSequence = afterSequence;
+        mSequence = sequence;
+        mKeys = keys;
+    }
+
+    public long getAfterSequence() { return mAfterSequence; }
+
+    public long getSequence() { return mSequence; }
+
+    public Map<Integer, Map<Integer, ArrayList<byte[]>>> getKeys() { return mKeys; }
+
+    public int getKeyCount() {
+
+        int count = 0;
+        for (Map<Integer, ArrayList<byte[]>> day : mKeys.values()) {
+            for (ArrayList<byte[]> epoch : day.values()) {
+                count += epoch.size();
+            }
+        }
+        return count;
+    }
+}
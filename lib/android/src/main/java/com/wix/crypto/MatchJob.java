@@ -0,0 +1,176 @@
+package com.wix.crypto;
+
+import android.util.Log;
+
+import com.wix.crypto.match.InfectedKeyIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background match run that reports its progress and streams its results day by day.
+ *
+ * Contacts are matched one epoch at a time, in time order, so the job can be cancelled between
+ * epochs. When a day is done, the time ranges that later contacts can no longer change are sent
+ * as a batch: a range can only be extended by an anchor less than 2 * MAX_TIME_FOR_MATCH after its
+ * newest contact, so everything older than that is final.
+ */
+public class MatchJob implements Runnable {
+
+    private static final String TAG = MatchJob.class.getSimpleName();
+
+    private static final AtomicInteger sNextId = new AtomicInteger(1);
+
+    public interface Listener {
+
+        /**
+         * Sent after every epoch with contacts.
+         *
+         * @param etaMillis - estimated time left, from the average time per contact so far.
+         */
+        void onProgress(MatchJob job, int scannedContacts, int totalContacts, int matches, long etaMillis);
+
+        /**
+         * @param day - last day matched, the batch holds the final ranges that ended before it was done.
+         */
+        void onBatch(MatchJob job, int day, List<MatchResponse> responses);
+
+        void onCompleted(MatchJob job, int totalResponses, boolean cancelled);
+
+        void onError(MatchJob job, Exception e);
+    }
+
+    private final int mId;
+    private final CryptoManager mManager;
+    private final String mInfectedKeys;
+    private final File mInfectedKeyFile;
+    private final boolean mInfectedKeyStore;
+    private final Listener mListener;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param infectedKeys - infected keys json, used when there is no key file.
+     * @param infectedKeyFile - binary infected key file, or null.
+     * @param infectedKeyStore - true to match against the infected key store of the manager.
+     */
+    MatchJob(CryptoManager manager, String infectedKeys, File infectedKeyFile, boolean infectedKeyStore, Listener listener) {
+        mId = sNextId.getAndIncrement();
+        mManager = manager;
+        mInfectedKeys = infectedKeys;
+        mInfectedKeyFile = infectedKeyFile;
+        mInfectedKeyStore = infectedKeyStore;
+        mListener = listener;
+    }
+
+    public int getId() { return mId; }
+
+    /**
+     * Stops the job after the epoch it is matching, the batches already sent stay valid.
+     */
+    public void cancel() { mCancelled = true; }
+
+    public boolean isCancelled() { return mCancelled; }
+
+    @Override
+    public void run() {
+
+        try
+        {
+            match();
+        }
+        catch (Exception e)
+        {
+            Log.e(TAG, "match job " + mId + " failed", e);
+            mListener.onError(this, e);
+        }
+        finally
+        {
+            mManager.onMatchJobDone(this);
+        }
+    }
+
+    private void match() throws IOException {
+
+        User user = mManager.mySelf;
+        InfectedKeyIndex index;
+        if (mInfectedKeyStore)
+            index = mManager.getInfectedKeyIndex();
+        else if (mInfectedKeyFile != null)
+            index = mManager.getInfectedKeyIndex(mInfectedKeyFile);
+        else
+            index = mManager.getInfectedKeyIndex(mInfectedKeys);
+
+        if(index.isEmpty() || mCancelled)
+        {
+            mListener.onCompleted(this, 0, mCancelled);
+            return;
+        }
+
+        // contacts further than the jitter from every infected epoch cannot match
+        int from = index.getFirstEpoch() * Time.EPOCH - Time.JITTER_THRESHOLD;
+        int to = index.getEndEpoch() * Time.EPOCH + Time.JITTER_THRESHOLD;
+        int maxId = user.dbClient.getMaxContactId();
+        int totalContacts = user.dbClient.countContactsInRange(maxId, from, to);
+
+        List<Match> matches = new ArrayList<>();
+        int sentResponses = 0;
+        int scannedContacts = 0;
+        long startTime = System.currentTimeMillis();
+
+        for(int day = from / Time.DAY; day <= (to - 1) / Time.DAY; day ++)
+        {
+            for(int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++)
+            {
+                if(mCancelled)
+                {
+                    mListener.onCompleted(this, sentResponses, true);
+                    return;
+                }
+
+                int epochStart = Math.max(from, day * Time.DAY + epoch * Time.EPOCH);
+                int epochEnd = Math.min(to, day * Time.DAY + (epoch + 1) * Time.EPOCH);
+                if(epochStart >= epochEnd)
+                    continue;
+
+                int epochContacts = user.dbClient.countContactsInRange(maxId, epochStart, epochEnd);
+                if(epochContacts == 0)
+                    continue;
+
+                matches.addAll(user.collectMatches(index, user.dbClient.getCursorInRange(maxId, epochStart, epochEnd), true));
+                scannedContacts += epochContacts;
+
+                long elapsed = System.currentTimeMillis() - startTime;
+                long eta = elapsed * Math.max(0, totalContacts - scannedContacts) / scannedContacts;
+                mListener.onProgress(this, scannedContacts, totalContacts, matches.size(), eta);
+            }
+
+            int dayEnd = Math.min(to, (day + 1) * Time.DAY);
+            boolean lastDay = dayEnd >= to;
+            List<MatchResponse> responses = user.buildMatchResponses(new ArrayList<>(matches), index);
+
+            // ranges come latest first, collect the final ones that were not sent yet from the oldest
+            List<MatchResponse> batch = new ArrayList<>();
+            for(int i = responses.size() - 1 - sentResponses; i >= 0; i --)
+            {
+                MatchResponse response = responses.get(i);
+                if(!lastDay && response.getEndContactTimestamp() >= dayEnd - 2 * ExposureWindowBuilder.MAX_TIME_FOR_MATCH)
+                    break;
+
+                batch.add(response);
+            }
+
+            if(!batch.isEmpty())
+            {
+                Collections.reverse(batch);
+                sentResponses += batch.size();
+                mListener.onBatch(this, day, batch);
+            }
+        }
+
+        mListener.onCompleted(this, sentResponses, false);
+    }
+}
@@ -1,29 +1,45 @@
 package com.wix.crypto;
 
-import com.wix.crypto.custom.Pair;
 import com.wix.crypto.custom.Triplet;
 import com.wix.crypto.key.UserKey;
 import com.wix.crypto.utilities.BytesUtils;
 import com.wix.crypto.utilities.DerivationUtils;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by hagai on 13/05/2020.
+ *
+ * Received keys are appended to their (day, epoch) bucket. A bucket is shuffled once, when it is
+ * published, and send_keys hands out the last published snapshot, which later uploads never change.
+ * verify_contact looks the proof up in a per bucket index of the verification key prefixes.
+ *
+ * Every publish gets the next sequence number, and the keys a bucket received since its last
+ * publish are shuffled and added after its published keys, tagged with that number. A client that
+ * remembers the sequence of its last download only gets the keys published after it, see
+ * {@link #send_keys(long)}. A key uploaded again is ignored.
  */
 public class Server {
 
     public static int USER_RAND_LEN = 4;
-    private Map<Integer, Map<Integer, ArrayList<Pair<byte[],byte[]>>>> epochs;
+
+    private final Map<Integer, Map<Integer, Bucket>> epochs;
+    private Map<Integer, Map<Integer, ArrayList<byte[]>>> mSnapshot;
+    private final Set<Bucket> mDirtyBuckets = new HashSet<>();
+    private long mSequence;
 
 
     public Server()
     {
         this.epochs = new HashMap<>();
+        this.mSnapshot = Collections.emptyMap();
     }
 
     public void receive_user_commit()
@@ -31,7 +47,7 @@ public class Server {
 
     }
 
-    public void receive_user_key(UserKey user_key)
+    public synchronized void receive_user_key(UserKey user_key)
     {
         byte[] key_com_master = DerivationUtils.getMasterKeyCommitment(user_key.getKeyId(), user_key.getUserId());
         //TODO:: delete user_key.K_ID, user_key.ID
@@ -39,66 +55,192 @@ public class Server {
         // del user_key.K_ID, user_key.ID
 
         byte[] key_master_verification = user_key.getKeyMasterVerification();
-        byte[] key_com_daily = new byte[]{};
+
+        // the daily keys are shared by the 24 epochs of a day
+        Map<Integer, byte[]> daily_commit_keys = new HashMap<>();
+        Map<Integer, byte[]> daily_verification_keys = new HashMap<>();
 
         for (int i = 0; i < user_key.getPreEpoch().size(); i++)
         {
             Triplet<Integer, Integer, byte[]> currentEpoch = user_key.getPreEpoch().get(i);
-            if (!this.epochs.containsKey(currentEpoch.getFirst()))
-                this.epochs.put(currentEpoch.getFirst(), new HashMap<Integer, ArrayList<Pair<byte[], byte[]>>>()) ;
-            if (!this.epochs.get(currentEpoch.getFirst()).containsKey(currentEpoch.getSecond()))
-                this.epochs.get(currentEpoch.getFirst()).put(currentEpoch.getSecond(),new ArrayList<Pair<byte[], byte[]>>());
-
-            byte[] daily_commit_key = DerivationUtils.getKeyCommitmentForDayI(key_com_master, BytesUtils.numToBytes(currentEpoch.getFirst(), 4));
+            int day = currentEpoch.getFirst();
+            int epoch = currentEpoch.getSecond();
 
+            byte[] daily_commit_key = daily_commit_keys.get(day);
+            if (daily_commit_key == null)
+            {
+                daily_commit_key = DerivationUtils.getKeyCommitmentForDayI(key_com_master, BytesUtils.numToBytes(day, 4));
+                daily_commit_keys.put(day, daily_commit_key);
+                daily_verification_keys.put(day, DerivationUtils.getKeyVerificationForDayI(key_master_verification, day));
+            }
 
-            byte[] epoch_key = DerivationUtils.getKeyEpoch(currentEpoch.getThird(), daily_commit_key, BytesUtils.numToBytes(currentEpoch.getFirst(), 4), BytesUtils.numToBytes(currentEpoch.getSecond(), 1));
-            byte[] daily_verification_key = DerivationUtils.getKeyVerificationForDayI(key_master_verification, currentEpoch.getFirst());
+            byte[] epoch_key = DerivationUtils.getKeyEpoch(currentEpoch.getThird(), daily_commit_key, BytesUtils.numToBytes(day, 4), BytesUtils.numToBytes(epoch, 1));
             byte[] padding = new byte[]{0,0,0,0,0,0,0,0,0,0,0};
-            byte[] epoch_ver = Crypto.AES(daily_verification_key, BytesUtils.byteConcatenation(BytesUtils.numToBytes(currentEpoch.getFirst(), 4), BytesUtils.byteConcatenation(BytesUtils.numToBytes(currentEpoch.getSecond(), 1), padding)));
-            this.epochs.get(currentEpoch.getFirst()).get(currentEpoch.getSecond()).add(new Pair<>(epoch_key,epoch_ver));
-            Collections.shuffle(this.epochs.get(currentEpoch.getFirst()).get(currentEpoch.getSecond()));
+            byte[] epoch_ver = Crypto.AES(daily_verification_keys.get(day), BytesUtils.byteConcatenation(BytesUtils.numToBytes(day, 4), BytesUtils.byteConcatenation(BytesUtils.numToBytes(epoch, 1), padding)));
+
+            Bucket bucket = getBucket(day, epoch);
+            if (bucket.add(epoch_key, epoch_ver))
+                mDirtyBuckets.add(bucket);
+        }
+    }
+
+    /**
+     * Shuffles the keys received since the last publish, tags them with the next sequence and makes
+     * them visible to send_keys. The snapshot holds copies of the published lists, made once per
+     * publish for the changed buckets, so its callers can not change the batches the deltas are
+     * cut from.
+     */
+    public synchronized void publish()
+    {
+        if (mDirtyBuckets.isEmpty())
+            return;
+
+        mSequence ++;
+        for (Bucket bucket : mDirtyBuckets)
+        {
+            bucket.publish(mSequence);
+        }
+        mDirtyBuckets.clear();
 
-            // randomize the order
-//            this.epochs.get(currentEpoch.getFirst()).put(currentEpoch.getSecond(),this.epochs.get(currentEpoch.getFirst()).get(currentEpoch.getSecond()));
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> snapshot = new HashMap<>();
+        for (Map.Entry<Integer, Map<Integer, Bucket>> day : this.epochs.entrySet())
+        {
+            Map<Integer, ArrayList<byte[]>> dayKeys = new HashMap<>();
+            for (Map.Entry<Integer, Bucket> epoch : day.getValue().entrySet())
+            {
+                dayKeys.put(epoch.getKey(), epoch.getValue().mSnapshot);
+            }
+            snapshot.put(day.getKey(), Collections.unmodifiableMap(dayKeys));
         }
+        mSnapshot = Collections.unmodifiableMap(snapshot);
     }
 
-    public Map<Integer, Map<Integer, ArrayList<byte[]>>> send_keys()
+    /**
+     * @return - the published keys by day and epoch, publishing the pending uploads first.
+     * The snapshot is shared by every caller until the next publish.
+     */
+    public synchronized Map<Integer, Map<Integer, ArrayList<byte[]>>> send_keys()
     {
         //#TODO some kind of delete - old - keys mechanism
-        Map<Integer, Map<Integer, ArrayList<byte[]>>> epochsNew = new HashMap<>();
-        for (Integer day : this.epochs.keySet())
+        publish();
+        return mSnapshot;
+    }
+
+    /**
+     * @param afterSequence - sequence of the client's last download, 0 for all the keys.
+     * @return - the keys published after the sequence, publishing the pending uploads first.
+     */
+    public synchronized KeyDelta send_keys(long afterSequence)
+    {
+        publish();
+
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> keys = new HashMap<>();
+        for (Map.Entry<Integer, Map<Integer, Bucket>> day : this.epochs.entrySet())
         {
-            epochsNew.put(day, new HashMap<Integer, ArrayList< byte[]>>());
-            for (Integer epoch : this.epochs.get(day).keySet())
+            for (Map.Entry<Integer, Bucket> epoch : day.getValue().entrySet())
             {
-                epochsNew.get(day).put(epoch, new ArrayList< byte[]>());
-                for (Pair<byte[],byte[]> pair: this.epochs.get(day).get(epoch))
+                ArrayList<byte[]> epochKeys = epoch.getValue().getKeysAfter(afterSequence);
+                if (epochKeys.isEmpty())
+                    continue;
+
+                Map<Integer, ArrayList<byte[]>> dayKeys = keys.get(day.getKey());
+                if (dayKeys == null)
                 {
-                    epochsNew.get(day).get(epoch).add(pair.getFirst());
+                    dayKeys = new HashMap<>();
+                    keys.put(day.getKey(), dayKeys);
                 }
+                dayKeys.put(epoch.getKey(), epochKeys);
             }
         }
+        return new KeyDelta(afterSequence, Math.max(afterSequence, mSequence), keys);
+    }
 
-        return epochsNew;
+    /**
+     * @return - sequence of the last publish, 0 before the first one.
+     */
+    public synchronized long getSequence()
+    {
+        return mSequence;
     }
 
-    public boolean verify_contact(int day, int epoch, byte[] proof)
+    public synchronized boolean verify_contact(int day, int epoch, byte[] proof)
     {
-        if(this.epochs.get(day) != null && this.epochs.get(day).get(epoch) != null)
+        Map<Integer, Bucket> dayBuckets = this.epochs.get(day);
+        Bucket bucket = dayBuckets != null ? dayBuckets.get(epoch) : null;
+
+        return bucket != null && proof != null && proof.length == USER_RAND_LEN
+                && bucket.mVerificationPrefixes.contains(ByteBuffer.wrap(proof));
+    }
+
+    private Bucket getBucket(int day, int epoch)
+    {
+        Map<Integer, Bucket> dayBuckets = this.epochs.get(day);
+        if (dayBuckets == null)
         {
-            ArrayList<Pair<byte[], byte[]>> pairs = this.epochs.get(day).get(epoch);
-            for (int i = 0; i < pairs.size(); i++) {
-                Pair<byte[], byte[]> currPair = pairs.get(i);
-                byte[] part = new byte[USER_RAND_LEN];
-                System.arraycopy(currPair.getSecond(), 0, part, 0, USER_RAND_LEN);
-
-                if (Arrays.equals(part, proof)) {
-                    return true;
-                }
+            dayBuckets = new HashMap<>();
+            this.epochs.put(day, dayBuckets);
+        }
+
+        Bucket bucket = dayBuckets.get(epoch);
+        if (bucket == null)
+        {
+            bucket = new Bucket();
+            dayBuckets.put(epoch, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Epoch keys of one (day, epoch): the published ones, in batches of increasing sequence, and
+     * the ones received since the last publish.
+     */
+    private static class Bucket
+    {
+        private final ArrayList<byte[]> mPending = new ArrayList<>();
+        private final Set<ByteBuffer> mKnownKeys = new HashSet<>();
+        private final Set<ByteBuffer> mVerificationPrefixes = new HashSet<>();
+        private final ArrayList<byte[]> mPublished = new ArrayList<>();
+        private ArrayList<byte[]> mSnapshot = new ArrayList<>();
+        private final ArrayList<Long> mBatchSequences = new ArrayList<>();
+        private final ArrayList<Integer> mBatchStarts = new ArrayList<>();
+
+        /**
+         * @return - false when the key was already received.
+         */
+        boolean add(byte[] epochKey, byte[] epochVer)
+        {
+            if (!mKnownKeys.add(ByteBuffer.wrap(epochKey)))
+                return false;
+
+            mPending.add(epochKey);
+            mVerificationPrefixes.add(ByteBuffer.wrap(Arrays.copyOf(epochVer, USER_RAND_LEN)));
+            return true;
+        }
+
+        void publish(long sequence)
+        {
+            // randomize the order of the new keys, the published ones keep theirs
+            Collections.shuffle(mPending);
+
+            mBatchSequences.add(sequence);
+            mBatchStarts.add(mPublished.size());
+            mPublished.addAll(mPending);
+            mPending.clear();
+
+            // the list of the snapshot, the lists of the previous snapshots are left as they were
+            mSnapshot = new ArrayList<>(mPublished);
+        }
+
+        ArrayList<byte[]> getKeysAfter(long sequence)
+        {
+            int batch = mBatchSequences.size();
+            while (batch > 0 && mBatchSequences.get(batch - 1) > sequence)
+            {
+                batch --;
             }
+
+            int start = batch < mBatchStarts.size() ? mBatchStarts.get(batch) : mPublished.size();
+            return new ArrayList<>(mPublished.subList(start, mPublished.size()));
         }
-        return false;
     }
 }
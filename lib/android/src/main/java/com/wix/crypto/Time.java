@@ -4,7 +4,6 @@ import androidx.annotation.Nullable;
 import com.google.gson.annotations.SerializedName;
 import org.json.JSONException;
 import org.json.JSONObject;
-import java.util.Objects;
 
 /**
  * Created by hagai on 11/05/2020.
@@ -87,10 +86,19 @@ public class Time implements Comparable<Time> {
         return this.mDay + " " + this.mEpoch + " " + getUnits();
     }
 
+    /**
+     * @return - day * EPOCHS_IN_DAY + epoch, the number of epochs since the unix epoch.
+     */
+    public int getAbsoluteEpoch()
+    {
+        return mDay * EPOCHS_IN_DAY + mEpoch;
+    }
+
     @Override
     public int hashCode()
     {
-        return Objects.hash(mDay, mEpoch);
+        // Objects.hash boxes both fields into a new array on every lookup
+        return getAbsoluteEpoch();
     }
 
     @Override
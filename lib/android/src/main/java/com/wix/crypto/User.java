@@ -3,31 +3,35 @@ package com.wix.crypto;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.google.gson.annotations.SerializedName;
-import com.wix.crypto.custom.Pair;
 import com.wix.crypto.custom.Triplet;
 import com.wix.crypto.key.DayKey;
+import com.wix.crypto.key.DayKeyStore;
 import com.wix.crypto.key.EpochKey;
+import com.wix.crypto.key.EpochKeyProvider;
+import com.wix.crypto.key.EpochKeyStore;
 import com.wix.crypto.key.UserKey;
-import com.wix.crypto.utilities.BytesUtils;
+import com.wix.crypto.match.InfectedKeyIndex;
 import com.wix.crypto.utilities.DerivationUtils;
 import com.wix.crypto.utilities.Hex;
 import com.wix.specialble.db.DBClient;
+import com.wix.specialble.scheduler.TaskScheduler;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static android.content.Context.MODE_PRIVATE;
 import static com.wix.crypto.Constants.NUM_OF_DAYS;
@@ -40,10 +44,11 @@ public class User {
 
     public static final String USER_PREFS = "user_prefs";
     public static final String PREFS_KEY = "user_data";
+    public static final String EPOCH_KEYS_FILE = "epoch_keys.bin";
+    public static final String DAY_KEYS_FILE = "day_keys.bin";
     private static final String TAG = "User";
 
-    private static final int MIN_TIME_FOR_MATCH = 600;
-    private static final int MAX_TIME_FOR_MATCH = 1200;
+    private static ExecutorService sKeyLoader;
 
     @SerializedName("UserId")
     private byte[] mUserId;
@@ -53,8 +58,6 @@ public class User {
     private byte[] mKeyMasterCommitment;
     @SerializedName("KeyMasterVerification")
     private byte[] mKeyMasterVerification;
-    @SerializedName("EpochKeys")
-    private Map<Time, EpochKey> mEpochKeys;
     @SerializedName("CurrentDay")
     private int mCurrentDay;
     @SerializedName("CurrentDayMasterKey")
@@ -66,6 +69,9 @@ public class User {
 
     DBClient dbClient;
     SharedPreferences prefs;
+    private transient EpochKeyProvider mEpochKeys;
+    private transient volatile Future<?> mEpochKeysLoading;
+    private transient IncrementalMatcher mIncrementalMatcher;
 
     public User() {}
 
@@ -76,12 +82,13 @@ public class User {
         mKeyId = DerivationUtils.getKeyId(masterKey);
         mKeyMasterCommitment = DerivationUtils.getMasterKeyCommitment(mKeyId, userId);
         mKeyMasterVerification = DerivationUtils.getKeyMasterVerification(masterKey);
-        mEpochKeys = new HashMap<>();
 //        mContacts = new ArrayList<>();
         Time t = new Time(initTime, Constants.None); //TODO: check if correct way
         mCurrentDay = t.getDay();
         mCurrentDayMasterKey = DerivationUtils.getNextDayMasterKey(masterKey, true);
 
+        // keys left by a previous user must not be mixed with the new ones
+        mEpochKeys.clear();
         generateEpochKeys(mCurrentDay);
         serialize();
     }
@@ -90,9 +97,15 @@ public class User {
     {
         prefs = ctx.getSharedPreferences(USER_PREFS, MODE_PRIVATE);
         dbClient = DBClient.getInstance(ctx);
+        mEpochKeys = new EpochKeyProvider(new DayKeyStore(new File(ctx.getFilesDir(), DAY_KEYS_FILE)),
+                new EpochKeyStore(new File(ctx.getFilesDir(), EPOCH_KEYS_FILE)));
     }
 
 
+    /**
+     * Reads the saved user. Only the user json is read here, the epoch keys are loaded on the key
+     * loader thread and the methods that need them wait for it, see {@link #awaitEpochKeys()}.
+     */
     public static User deserialize(Context ctx)
     {
         SharedPreferences prefs = ctx.getSharedPreferences(USER_PREFS, MODE_PRIVATE);
@@ -101,31 +114,28 @@ public class User {
 
         if(userData != null)
         {
-            User u = new User();
+            final User u = new User();
             try
             {
                 u.setContext(ctx);
 
-                JSONObject jo = new JSONObject(userData);
-                u.mUserId =  Hex.fromHexString(jo.getString("mUserId"));
-
-                u.mKeyId =  Hex.fromHexString(jo.getString("mKeyId"));
-                u.mKeyMasterCommitment =  Hex.fromHexString(jo.getString("mKeyMasterCommitment"));
-                u.mKeyMasterVerification =  Hex.fromHexString(jo.getString("mKeyMasterVerification"));
+                UserHeader header = UserHeader.parse(userData);
+                u.mUserId = header.getUserId();
 
-                u.mEpochKeys = new HashMap<>();
+                u.mKeyId = header.getKeyId();
+                u.mKeyMasterCommitment = header.getKeyMasterCommitment();
+                u.mKeyMasterVerification = header.getKeyMasterVerification();
 
-                JSONArray epochKeysMap = jo.getJSONArray("mEpochKeys");
+                u.mCurrentDay = header.getCurrentDay();
+                u.mCurrentDayMasterKey = header.getCurrentDayMasterKey();
 
-                for (int i =0; i < epochKeysMap.length(); i++)
-                {
-                    JSONObject curEpoch = epochKeysMap.getJSONObject(i);
-                    Time t = Time.fromJson(curEpoch.getJSONObject("Time"));
-                    EpochKey k = EpochKey.fromJson(curEpoch.getJSONObject("EpochKey"));
-                    u.mEpochKeys.put(t, k);
-                }
-                u.mCurrentDay = jo.getInt("mCurrentDay");
-                u.mCurrentDayMasterKey =  Hex.fromHexString(jo.getString("mCurrentDayMasterKey"));
+                final JSONArray legacyEpochKeys = header.getLegacyEpochKeys();
+                u.mEpochKeysLoading = getKeyLoader().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        u.loadEpochKeys(legacyEpochKeys);
+                    }
+                });
             }
             catch (JSONException e)
             {
@@ -138,35 +148,101 @@ public class User {
         return null;
     }
 
-    public void serialize()
+    /**
+     * @param legacyEpochKeys - keys saved by an older version inside the user json, or null.
+     */
+    private void loadEpochKeys(JSONArray legacyEpochKeys)
     {
-        JSONObject jo = new JSONObject();
         try
         {
-            jo.put("mUserId", Hex.toHexString(mUserId));
-            jo.put("mKeyId", Hex.toHexString(mKeyId));
+            mEpochKeys.load();
 
-            jo.put("mKeyMasterCommitment", Hex.toHexString(mKeyMasterCommitment));
+            if(legacyEpochKeys != null)
+            {
+                // move them to the key store
+                mEpochKeys.importLegacyKeys(UserHeader.parseLegacyEpochKeys(legacyEpochKeys));
+                serialize();
+            }
+        }
+        catch (JSONException e)
+        {
+            e.printStackTrace();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
 
-            jo.put("mKeyMasterVerification", Hex.toHexString(mKeyMasterVerification));
+    /**
+     * Waits until the epoch keys of a saved user are loaded, returns right away once they are.
+     */
+    public void awaitEpochKeys()
+    {
+        Future<?> loading = mEpochKeysLoading;
+        if(loading == null)
+            return;
 
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                loading.get();
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                // the keys are needed anyway, keep waiting and restore the flag after
+                interrupted = true;
+            }
+            catch (ExecutionException e)
+            {
+                e.printStackTrace();
+                break;
+            }
+        }
+        mEpochKeysLoading = null;
 
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
 
-            JSONArray epochKeysMap = new JSONArray();
+    public boolean isEpochKeysLoaded()
+    {
+        Future<?> loading = mEpochKeysLoading;
+        return loading == null || loading.isDone();
+    }
 
-            for (Time t : mEpochKeys.keySet())
-            {
+    private EpochKeyProvider getEpochKeyProvider()
+    {
+        awaitEpochKeys();
+        return mEpochKeys;
+    }
 
-                JSONObject curEpoch = new JSONObject();
-                curEpoch.put("Time", t.toJson());
-                curEpoch.put("EpochKey", mEpochKeys.get(t).toJson());
+    private static synchronized ExecutorService getKeyLoader() {
 
-                epochKeysMap.put(curEpoch);
+        if(sKeyLoader == null) {
+            sKeyLoader = Executors.newSingleThreadExecutor();
+        }
+        return sKeyLoader;
+    }
 
-            }
+    /**
+     * Saves the user data. The epoch keys are not part of it, they are kept in the epoch key store
+     * and written there as they change.
+     */
+    public void serialize()
+    {
+        JSONObject jo = new JSONObject();
+        try
+        {
+            jo.put("mUserId", Hex.toHexString(mUserId));
+            jo.put("mKeyId", Hex.toHexString(mKeyId));
 
-            jo.put("mEpochKeys", epochKeysMap);
+            jo.put("mKeyMasterCommitment", Hex.toHexString(mKeyMasterCommitment));
 
+            jo.put("mKeyMasterVerification", Hex.toHexString(mKeyMasterVerification));
 
             jo.put("mCurrentDay", mCurrentDay);
             jo.put("mCurrentDayMasterKey", Hex.toHexString(mCurrentDayMasterKey));
@@ -201,7 +277,6 @@ public class User {
 
         generateEpochKeys(future.getDay());
         deleteHistory(past.getTime());
-        serialize();
     }
 
     /**
@@ -217,28 +292,20 @@ public class User {
     {
 
         assert geoHash.length == Constants.GEOHASH_LEN;
-        Time t = new Time(time, Constants.None); // TODO: check if correct
+        int absoluteEpoch = time / Time.EPOCH;
 
-        EpochKey epochKey = null;
-        if(!mEpochKeys.containsKey(t) && mEpochKeys.get(t) == null)// "Epoch key is not present";
+        // the keys of the epoch straight from the key table, see EpochKey#toBytes
+        byte[] keys = new byte[EpochKey.BYTES];
+        EpochKeyProvider epochKeys = getEpochKeyProvider();
+        if(!epochKeys.copy(absoluteEpoch, keys, 0))
         {
             this.updateKeyDatabase(time - NUM_OF_DAYS * SECONDS_IN_DAY, time);
-        }
-
-        epochKey = mEpochKeys.get(t);
-        int tUnitS = t.getUnits();
-
-        byte[] mask = Crypto.AES(epochKey.getEpochEncKey(), BytesUtils.numToBytes(tUnitS, Constants.MESSAGE_LEN));
-        byte[] userRand = Arrays.copyOf(epochKey.getEpochVerKey(), Constants.USER_RAND_LEN);
 
-        byte[] zeroBytesThree = new byte[] {0x00, 0x00, 0x00};
-        byte[] zeroBytesFour = new byte[]  {0x00, 0x00, 0x00, 0x00};
-
-        byte[] plain = BytesUtils.byteConcatenation(BytesUtils.byteConcatenation(zeroBytesThree, geoHash),BytesUtils.byteConcatenation(userRand, zeroBytesFour));
-
-        byte[] cIJS = BytesUtils.xor(plain, mask);
+            if(!epochKeys.copy(absoluteEpoch, keys, 0))
+                throw new IllegalStateException("Epoch key is not present");
+        }
 
-        return BytesUtils.byteConcatenation(Arrays.copyOf(cIJS, 12),Arrays.copyOf(Crypto.AES(epochKey.getEpocMacKey(),cIJS),4));
+        return EpochKey.generateEphemeralId(keys, 0, time, geoHash);
     }
 
     /**
@@ -251,229 +318,125 @@ public class User {
         if(infectedKeyDatabase.isEmpty())
             return null;
 
-        List<Match> matches = new ArrayList<>();
-
-
-        List<Integer> daysList = new ArrayList<>();
-        daysList.addAll(infectedKeyDatabase.keySet());
-        Collections.sort(daysList);
-        int startDay = daysList.get(0);
-
-
-        // Make sure the contacts are sorted so as to make the sliding window work properly
-//        Collections.sort(mContacts, new Comparator<Contact>() {
-//
-//            @Override
-//            public int compare(Contact o1, Contact o2) {
-//
-//                return o1.getTimestamp() - o2.getTimestamp(); // TODO: check if correct comparisson
-//            }
-//        });
-
-        // domain is a time up to units (actually a string "day-epoch-unit")
-        // and its range is a list of (mask, epochMAC)
-        Map<String, ArrayList<Triplet<byte[], byte[], byte[]>>> mapUnitKeys = new HashMap<>();
-
-        int earlierTime = Constants.None;
-
-        Cursor c = dbClient.getCursorAll();
-        while (c.moveToNext())
-        {
-            Contact contact = new Contact
-            (
-                    c.getBlob(c.getColumnIndex("ephemeral_id")),
-                    c.getBlob(c.getColumnIndex("rssi")),
-                    c.getInt(c.getColumnIndex("timestamp")),
-                    c.getBlob(c.getColumnIndex("geohash")),
-                    c.getDouble(c.getColumnIndex("lat")),
-                    c.getDouble(c.getColumnIndex("lon"))
-            );
-
-            int time = contact.getTimestamp() - Time.JITTER_THRESHOLD;
-
-            // Remove all entries unit_keys[t] for t < time (will save memory usage)
-            // For it to work we need self.contact to be ordered by contact.time
-
-            if(earlierTime != Constants.None) {
-
-                while(earlierTime < time) {
-
-                    String timeDictKey = new Time(earlierTime, Constants.None).getStrWithUnits();
-                    if(mapUnitKeys.containsKey(timeDictKey)) {
-
-                        mapUnitKeys.remove(timeDictKey);
-                    }
-                    earlierTime += Time.UNIT;
-
-                }
-            }
-            else {
-                earlierTime = time;
-            }
+        return findCryptoMatches(InfectedKeyIndex.build(infectedKeyDatabase));
+    }
 
-            while(time <= contact.getTimestamp() + Time.JITTER_THRESHOLD)
-            {
+    /**
+     * Check for matching with the infected user.
+     * @param index - matching index of the infected keys, see {@link InfectedKeyIndex#build(Map)}.
+     * @return -  List of matches with the infected user.
+     */
+    public List<MatchResponse> findCryptoMatches(InfectedKeyIndex index) {
+        return findCryptoMatches(index, false);
+    }
 
-                Time t = new Time(time, Constants.None);
-                String timeKey = t.getStrWithUnits();
-                int unit = t.getUnits();
-                time += Time.UNIT;
+    /**
+     * Check for matching with the infected user.
+     *
+     * In parallel mode the contacts are loaded up front, split into epoch slices and checked on
+     * the match pool. Each slice only depends on the infected keys of its jitter window, so the
+     * slices are independent and their matches are merged before the time window pass.
+     *
+     * @param index - matching index of the infected keys, see {@link InfectedKeyIndex#build(Map)}.
+     * @param parallel - check the contact slices on the match pool.
+     * @return -  List of matches with the infected user.
+     */
+    public List<MatchResponse> findCryptoMatches(InfectedKeyIndex index, boolean parallel) {
 
-                if(!mapUnitKeys.containsKey(timeKey)) {
+        if(index.isEmpty())
+            return null;
 
-                    mapUnitKeys.put(timeKey, new ArrayList<Triplet<byte[], byte[], byte[]>>());
-                    if(infectedKeyDatabase.get(t.getDay()) != null && infectedKeyDatabase.get(t.getDay()).get(t.getEpoch()) != null )
-                    {
-                        for (int i = 0; i < infectedKeyDatabase.get(t.getDay()).get(t.getEpoch()).size(); i++) {
-                            byte[] epochKey = infectedKeyDatabase.get(t.getDay()).get(t.getEpoch()).get(i);
+        Cursor c = parallel ? dbClient.getCursorAllByTime() : dbClient.getCursorAll();
+        List<Match> matches = collectMatches(index, c, parallel);
 
-                            Pair<byte[], byte[]> epochEncAndMac = DerivationUtils.getEpochKeys(epochKey, t.getDay(), t.getEpoch());
-                            byte[] mask = Crypto.AES(epochEncAndMac.getFirst(), BytesUtils.numToBytes(unit, Constants.MESSAGE_LEN));
-                            mapUnitKeys.get(timeKey).add(new Triplet<>(mask, epochEncAndMac.getSecond(), epochKey));
-                        }
-                    }
-                }
+        return buildMatchResponses(matches, index);
+    }
 
-                for ( Triplet<byte[], byte[], byte[]> entry : mapUnitKeys.get(timeKey)) {
-                    Triplet<Boolean, byte[],byte[]> match = isMatch(entry.getFirst(), entry.getSecond(),contact);
-                    if(match.getFirst())
-                    {
-                        matches.add(new Match(contact,match.getSecond(),match.getThird(),t,unit, entry.getThird()));
-                    }
-                }
-            }
-        }
+    /**
+     * @return - matcher that keeps the work of previous match runs, see {@link IncrementalMatcher}.
+     */
+    public synchronized IncrementalMatcher getIncrementalMatcher() {
 
-        Collections.sort(matches, new Comparator<Match>() {
-            @Override
-            public int compare(Match o1, Match o2) {
-                return o1.getInfectedTime() - o2.getInfectedTime();
-            }
-        });
+        if(mIncrementalMatcher == null)
+            mIncrementalMatcher = new IncrementalMatcher(this);
 
-        List<MatchResponse> timeRangeMatch = new ArrayList<>();
+        return mIncrementalMatcher;
+    }
 
-        for(int i = matches.size() - 1; i >= 1; i --) {
+    /**
+     * Check the contacts of a cursor against the infected keys and close the cursor,
+     * see {@link ContactMatcher#collectMatches}.
+     *
+     * @param cursor - contacts to check, ordered by time in parallel mode.
+     * @param parallel - check the contacts in epoch slices on the match pool.
+     */
+    List<Match> collectMatches(InfectedKeyIndex index, Cursor cursor, boolean parallel) {
+        return ContactMatcher.collectMatches(index, new DbContactCursor(cursor), parallel);
+    }
 
-            for(int j = i - 1; j >= 0; j --) {
+    /**
+     * Pair up the matches of contacts seen close enough apart into contact time ranges,
+     * see {@link ExposureWindowBuilder}.
+     */
+    List<MatchResponse> buildMatchResponses(List<Match> matches, InfectedKeyIndex index) {
+        return ExposureWindowBuilder.build(matches, index.getStartDay());
+    }
 
-                long matchesTimeDifference = matches.get(i).getContact().getTimestamp() - matches.get(j).getContact().getTimestamp();
+    /**
+     * Contacts of a contacts table cursor.
+     */
+    private static class DbContactCursor implements ContactCursor {
 
-                if(matchesTimeDifference > MAX_TIME_FOR_MATCH) { break; }
+        private final Cursor mCursor;
 
-                if(matchesTimeDifference >= MIN_TIME_FOR_MATCH)
-                {
-                    if(Arrays.equals(matches.get(i).getmEpochKey(), matches.get(j).getmEpochKey()) )
-                    {
-                        String contactIntegrityLevel = "High";
-                        createMatchResponse(matches.get(i), matches.get(j), contactIntegrityLevel, timeRangeMatch);
-                    }
-                    else
-                    {
-                        int currentContactTimestamp = matches.get(i).getContact().getTimestamp();
-                        Time contactTime = new Time(currentContactTimestamp, Constants.None);
-                        int contactDay = contactTime.getDay() - startDay;
-                        int contactHour = contactTime.getEpoch();
-
-                        if ( contactDay < 0 ) { continue; }
-                        else { contactDay = contactTime.getDay(); }
-
-                        if(contactHour == 0) {
-                            contactHour = 23;
-                            contactDay -=1 ;
-
-                            if ( contactDay < 0 ) { continue; }
-                        }
-                        else { contactHour -= 1; }
-
-                        Time newTime = new Time(contactDay, contactHour);
-
-                        if(infectedKeyDatabase.get(newTime.getDay()) != null && infectedKeyDatabase.get(newTime.getDay()).get(newTime.getEpoch()) != null )
-                        {
-                            ArrayList<byte[]> epochKeys = infectedKeyDatabase.get(newTime.getDay()).get(newTime.getEpoch());
-
-                            if(epochKeys.contains(matches.get(j).getmEpochKey()))
-                            {
-                                //found...
-                                String contactIntegrityLevel = "Low";
-                                createMatchResponse(matches.get(i), matches.get(j), contactIntegrityLevel, timeRangeMatch);
-                            }
-                        }
-                    }
-                }
-            }
+        DbContactCursor(Cursor cursor) {
+            mCursor = cursor;
         }
-        return timeRangeMatch;
-    }
-
-    private void createMatchResponse(Match anchor, Match compareable, String contactIntegrityLevel, List<MatchResponse> responseMatches) {
 
-        if(responseMatches.isEmpty())
-        {
-            List<String> verifiedEphemerals  = new ArrayList<>();
-            verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
-            verifiedEphemerals.add(Hex.toHexString(anchor.getContact().getEphemeral_id()));
+        @Override
+        public boolean moveToNext() { return mCursor.moveToNext(); }
 
-            MatchResponse matchResponse = new MatchResponse(compareable.getContact().getTimestamp(),
-                    anchor.getContact().getTimestamp(), verifiedEphemerals,
-                    anchor.getContact().getLat(), anchor.getContact().getLon(),
-                    contactIntegrityLevel);
+        @Override
+        public Contact getContact() {
 
-            responseMatches.add(matchResponse);
+            Contact contact = new Contact
+            (
+                    mCursor.getBlob(mCursor.getColumnIndex("ephemeral_id")),
+                    mCursor.getBlob(mCursor.getColumnIndex("rssi")),
+                    mCursor.getInt(mCursor.getColumnIndex("timestamp")),
+                    mCursor.getBlob(mCursor.getColumnIndex("geohash")),
+                    mCursor.getDouble(mCursor.getColumnIndex("lat")),
+                    mCursor.getDouble(mCursor.getColumnIndex("lon"))
+            );
+            contact.setId(mCursor.getInt(mCursor.getColumnIndex("id")));
+            return contact;
         }
-        else
-        {
-            MatchResponse lastSavedMatch = responseMatches.remove(responseMatches.size() - 1);
-            if(lastSavedMatch.getStartContactTimestamp() - compareable.getContact().getTimestamp() <= MAX_TIME_FOR_MATCH) {
-
-                List<String> verifiedEphemerals = new ArrayList<>();
-                verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
-                verifiedEphemerals.add(lastSavedMatch.getVerifiedEphemerals().get(1));
-                MatchResponse extendedMatch = new MatchResponse(compareable.getContact().getTimestamp(), lastSavedMatch.getEndContactTimestamp(),
-                                                                verifiedEphemerals, lastSavedMatch.getLat(), lastSavedMatch.getLon(),
-                                                                lastSavedMatch.getContactIntegrityLevel());
 
-                responseMatches.add(extendedMatch);
-            }
-            else {
-                responseMatches.add(lastSavedMatch);
-                List<String> verifiedEphemerals  = new ArrayList<>();
-                verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
-                verifiedEphemerals.add(Hex.toHexString(anchor.getContact().getEphemeral_id()));
-
-                MatchResponse matchResponse = new MatchResponse(compareable.getContact().getTimestamp(),
-                        anchor.getContact().getTimestamp(), verifiedEphemerals,
-                        anchor.getContact().getLat(), anchor.getContact().getLon(),
-                        contactIntegrityLevel);
-
-                responseMatches.add(matchResponse);
-            }
-        }
+        @Override
+        public void close() { mCursor.close(); }
     }
+
     /**
      * Delete my keys in a time period.
      * @param startTime - start time of period to delete.
      * @param endTime - end time of period to delete.
      *
-     * Note: only deleting key and not contacts.
+     * Note: only deleting key and not contacts. {@link CryptoManager#deleteMyKeys} also drops the
+     * ephemeral ids computed ahead from them.
      */
     public void deleteMyKeys(int startTime, int endTime) {
 
         Time start = new Time(startTime,Constants.None); //TODO: check if correct
         Time end = new Time(endTime, Constants.None); //TODO: check if correct
 
-        List<Time> epochKeysToDelete = new ArrayList<>();
-        for(Time t : mEpochKeys.keySet()) {
-            if(t.largerEqualThan(start) && end.largerEqualThan(t)) {
-                epochKeysToDelete.add(t);
-            }
+        try
+        {
+            getEpochKeyProvider().delete(start, end);
         }
-
-        for(Time t : epochKeysToDelete) {
-
-            mEpochKeys.remove(t);
+        catch (IOException e)
+        {
+            e.printStackTrace();
         }
-        serialize();
     }
 
     /**
@@ -486,15 +449,13 @@ public class User {
 
         List<Triplet<Integer, Integer, byte[]>> epochs = new ArrayList<>();
 
-        for(Time t : mEpochKeys.keySet()) {
-            Triplet<Integer, Integer, byte[]> triplet = new Triplet<Integer,Integer,byte[]>(t.getDay(), t.getEpoch(), mEpochKeys.get(t).getPreKey());
+        Map<Time, EpochKey> epochKeys = getEpochKeyProvider().getAll();
+        for(Time t : epochKeys.keySet()) {
+            Triplet<Integer, Integer, byte[]> triplet = new Triplet<Integer,Integer,byte[]>(t.getDay(), t.getEpoch(), epochKeys.get(t).getPreKey());
             epochs.add(triplet);
         }
 
-        UserKey keys = new UserKey(mUserId, mKeyId, epochs, mKeyMasterVerification);
-        serialize();
-
-        return keys;
+        return new UserKey(mUserId, mKeyId, epochs, mKeyMasterVerification);
     }
 
     /**
@@ -521,6 +482,16 @@ public class User {
         return true;
     }
 
+    /**
+     * stores a batch of contacts in the local contact DB with one insert.
+     *
+     * @param contacts - the contacts, in the order they were received.
+     */
+    public void storeContacts(Contact... contacts) {
+
+        dbClient.storeContacts(contacts);
+    }
+
     /**
      * deletes a contact from local contact DB.
      *
@@ -542,6 +513,7 @@ public class User {
 //        mContacts = contacts;
 
         dbClient.delete(contact);
+        getIncrementalMatcher().reset();
 
     }
 
@@ -556,22 +528,22 @@ public class User {
     public void deleteHistory(final int dTime)
     {
         Time t = new Time(dTime, Constants.None);
-        Map<Time, EpochKey> dictEpochKeys = new HashMap<>();
-
-        for(Map.Entry<Time, EpochKey> entry : mEpochKeys.entrySet()) {
 
-            if( entry.getKey().compareTo(t) >= 0) {
-                dictEpochKeys.put(entry.getKey(), entry.getValue());
-            }
+        try
+        {
+            getEpochKeyProvider().deleteBefore(t);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
         }
-        mEpochKeys = dictEpochKeys;
-        serialize();
 
-        AsyncTask.execute(new Runnable() {
+        TaskScheduler.getInstance().getMaintenanceLane().execute(new Runnable() {
             @Override
             public void run() {
 
                 dbClient.deleteContactHistory(dTime);
+                getIncrementalMatcher().reset();
             }
         });
     }
@@ -581,7 +553,7 @@ public class User {
      *
      * @param targetDay - day to update.
      */
-    private void generateEpochKeys(int targetDay) {
+    private synchronized void generateEpochKeys(int targetDay) {
 
         Log.e("hagai", "generateEpochKeys: ");
 
@@ -589,7 +561,7 @@ public class User {
         for(int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
 
             Time t = new Time(targetDay, epoch);
-            if(!mEpochKeys.containsKey(t)){
+            if(!getEpochKeyProvider().contains(t)){
                 keysPresent = false;
                 break;
             }
@@ -598,56 +570,41 @@ public class User {
         if(keysPresent)
             return;
 
-        assert mCurrentDay <= targetDay : "Cannot retrieve keys from the past";
-        while (mCurrentDay <= targetDay) {
-
-            DayKey currentDayKey = new DayKey(mCurrentDay, mCurrentDayMasterKey, mKeyMasterVerification, mKeyMasterCommitment);
-
-            for(int i = 0; i < Time.EPOCHS_IN_DAY; i ++) { // iterate over the epochs of each day
+        // keys of days the chain already passed can not be derived again, e.g. after deleteMyKeys
+        if(targetDay < mCurrentDay)
+            return;
 
-                mEpochKeys.put(new Time(mCurrentDay, i), new EpochKey(mCurrentDay, i, currentDayKey));
-            }
+        // only the day keys, the epoch keys are derived from them when they are used
+        int numDays = targetDay - mCurrentDay + 1;
+        byte[] dayKeys = new byte[numDays * DayKey.BYTES];
+        byte[] nextDayMasterKey = DerivationUtils.getDayKeys(mCurrentDay, numDays, mCurrentDayMasterKey,
+                mKeyMasterVerification, mKeyMasterCommitment, dayKeys, 0);
 
-            mCurrentDay ++;
-            mCurrentDayMasterKey = DerivationUtils.getNextDayMasterKey(mCurrentDayMasterKey, false);
+        if(nextDayMasterKey == null)
+        {
+            Log.e(TAG, "generateEpochKeys: day key derivation failed");
+            return;
         }
-        serialize();
-    }
-
-    private Triplet<Boolean, byte[], byte[]> isMatch (byte[] mask, byte[] epochMac, Contact contact) {
-
-        try {
-            byte[] ephId = contact.getEphemeral_id();
-            byte[] plain = BytesUtils.xor(mask, ephId);
-            byte[] zeros = Arrays.copyOf(plain, 3);
-            byte[] ephidGeohash = Arrays.copyOfRange(plain, 3, 3 + Constants.GEOHASH_LEN);
-            byte[] ephIdUserRand = Arrays.copyOfRange(plain, 3 + Constants.GEOHASH_LEN, 3 + Constants.GEOHASH_LEN + Constants.USER_RAND_LEN);
-
-            // First three bytes of plaintext are zero
-            for (byte b : zeros) {
 
-                if (b != 0x00) {
-
-                    return new Triplet<>(false, new byte[]{0x00}, new byte[]{0x00});
-                }
-            }
-
-            // The application check the part of EphID which corresponds to the MAC (Matched Occured)
-
-            byte[] x = BytesUtils.byteConcatenation(Arrays.copyOf(ephId, ephId.length - 4), Arrays.copyOfRange(mask, mask.length - 4, mask.length));
-            byte[] y = Arrays.copyOfRange(ephId, ephId.length - 4, ephId.length);
-
-            if (Arrays.equals(y, Arrays.copyOf(Crypto.AES(epochMac, x), 4))) {
-                return new Triplet<>(true, ephidGeohash, ephIdUserRand);
-            }
+        List<DayKey> newDayKeys = new ArrayList<>();
+        for(int i = 0; i < numDays; i ++) {
+            newDayKeys.add(DayKey.fromBytes(mCurrentDay + i, dayKeys, i * DayKey.BYTES));
+        }
 
-            return new Triplet<>(false, new byte[]{0x00}, new byte[]{0x00});
+        // the keys go first, the chain only moves past days whose keys are stored
+        try
+        {
+            getEpochKeyProvider().addDays(newDayKeys);
         }
-        catch (Exception ex)
+        catch (IOException e)
         {
-            ex.printStackTrace();
-            return new Triplet<>(false, new byte[]{0x00}, new byte[]{0x00});
+            e.printStackTrace();
+            return;
         }
+
+        mCurrentDay += numDays;
+        mCurrentDayMasterKey = nextDayMasterKey;
+        serialize();
     }
 
     public byte[] getUserId() { return mUserId; }
@@ -658,7 +615,15 @@ public class User {
 
     public byte[] getKeyMasterVerification() { return mKeyMasterVerification; }
 
-    public Map<Time, EpochKey> getEpochKeys() { return mEpochKeys; }
+    /**
+     * @return - the key of an epoch, or null when the user has no key for it.
+     */
+    public EpochKey getEpochKey(Time time) { return getEpochKeyProvider().get(time); }
+
+    /**
+     * Derives every epoch key the user has, prefer {@link #getEpochKey(Time)}.
+     */
+    public Map<Time, EpochKey> getEpochKeys() { return getEpochKeyProvider().getAll(); }
 
     public List<Contact> getContacts() { return dbClient.getAllContacts(); }
 
@@ -0,0 +1,78 @@
+package com.wix.crypto;
+
+import com.wix.crypto.key.EpochKey;
+import com.wix.crypto.utilities.Hex;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The saved user json, as read by {@link User#deserialize} on the thread that starts the app.
+ *
+ * Only the ids and the current day are decoded. The epoch keys an older version saved in the json
+ * are kept as they are, {@link #parseLegacyEpochKeys} decodes them on the key loader thread.
+ */
+public class UserHeader {
+
+    private final byte[] mUserId;
+    private final byte[] mKeyId;
+    private final byte[] mKeyMasterCommitment;
+    private final byte[] mKeyMasterVerification;
+    private final int mCurrentDay;
+    private final byte[] mCurrentDayMasterKey;
+    private final JSONArray mLegacyEpochKeys;
+
+    private UserHeader(JSONObject jo) throws JSONException {
+
+        mUserId = Hex.fromHexString(jo.getString("mUserId"));
+        mKeyId = Hex.fromHexString(jo.getString("mKeyId"));
+        mKeyMasterCommitment = Hex.fromHexString(jo.getString("mKeyMasterCommitment"));
+        mKeyMasterVerification = Hex.fromHexString(jo.getString("mKeyMasterVerification"));
+        mCurrentDay = jo.getInt("mCurrentDay");
+        mCurrentDayMasterKey = Hex.fromHexString(jo.getString("mCurrentDayMasterKey"));
+        mLegacyEpochKeys = jo.optJSONArray("mEpochKeys");
+    }
+
+    /**
+     * @param userData - the saved user json.
+     */
+    public static UserHeader parse(String userData) throws JSONException {
+        return new UserHeader(new JSONObject(userData));
+    }
+
+    /**
+     * @param legacyEpochKeys - the keys of {@link #getLegacyEpochKeys}.
+     * @return - the keys by time.
+     */
+    public static Map<Time, EpochKey> parseLegacyEpochKeys(JSONArray legacyEpochKeys) throws JSONException {
+
+        Map<Time, EpochKey> epochKeys = new HashMap<>();
+        for (int i = 0; i < legacyEpochKeys.length(); i ++) {
+
+            JSONObject curEpoch = legacyEpochKeys.getJSONObject(i);
+            epochKeys.put(Time.fromJson(curEpoch.getJSONObject("Time")), EpochKey.fromJson(curEpoch.getJSONObject("EpochKey")));
+        }
+        return epochKeys;
+    }
+
+    public byte[] getUserId() { return mUserId; }
+
+    public byte[] getKeyId() { return mKeyId; }
+
+    public byte[] getKeyMasterCommitment() { return mKeyMasterCommitment; }
+
+    public byte[] getKeyMasterVerification() { return mKeyMasterVerification; }
+
+    public int getCurrentDay() { return mCurrentDay; }
+
+    public byte[] getCurrentDayMasterKey() { return mCurrentDayMasterKey; }
+
+    /**
+     * @return - the epoch keys saved by an older version, or null.
+     */
+    public JSONArray getLegacyEpochKeys() { return mLegacyEpochKeys; }
+}
@@ -1,13 +1,23 @@
 package com.wix.crypto.key;
 
+import com.wix.crypto.Constants;
+import com.wix.crypto.Time;
 import com.wix.crypto.utilities.BytesUtils;
 import com.wix.crypto.utilities.DerivationUtils;
 
+import java.util.Arrays;
+
 /**
  * Created by hagai on 11/05/2020.
  */
 public class DayKey {
 
+    /**
+     * Length of the binary form written by {@link #toBytes}, the day is not part of it.
+     */
+    public static final int BYTES = DerivationUtils.DAY_KEYS_LEN;
+
+    private int mDay;
     private byte[] mDayKey;
     private byte[] mDayVerificationKey;
     private byte[] mDayCommitmentKey;
@@ -22,11 +32,53 @@ public class DayKey {
      */
     public DayKey(int day, byte[] masterKey, byte[] masterVerification, byte[] masterCommitment) {
 
+        mDay = day;
         mDayKey = DerivationUtils.getKeyForDayI(masterKey);
         mDayVerificationKey = DerivationUtils.getKeyVerificationForDayI(masterVerification, day);
         mDayCommitmentKey = DerivationUtils.getKeyCommitmentForDayI(masterCommitment, BytesUtils.numToBytes(day, 4));
     }
 
+    private DayKey() {}
+
+    /**
+     * Writes the day, verification and commitment keys back to back, BYTES bytes in all.
+     */
+    public void toBytes(byte[] dst, int offset) {
+
+        System.arraycopy(mDayKey, 0, dst, offset, Constants.KEY_LEN);
+        System.arraycopy(mDayVerificationKey, 0, dst, offset + Constants.KEY_LEN, Constants.KEY_LEN);
+        System.arraycopy(mDayCommitmentKey, 0, dst, offset + 2 * Constants.KEY_LEN, Constants.KEY_LEN);
+    }
+
+    public static DayKey fromBytes(int day, byte[] src, int offset) {
+
+        DayKey dayKey = new DayKey();
+        dayKey.mDay = day;
+        dayKey.mDayKey = Arrays.copyOfRange(src, offset, offset + Constants.KEY_LEN);
+        dayKey.mDayVerificationKey = Arrays.copyOfRange(src, offset + Constants.KEY_LEN, offset + 2 * Constants.KEY_LEN);
+        dayKey.mDayCommitmentKey = Arrays.copyOfRange(src, offset + 2 * Constants.KEY_LEN, offset + 3 * Constants.KEY_LEN);
+        return dayKey;
+    }
+
+    /**
+     * Derives the keys of all the epochs of the day in one pass, see {@link DerivationUtils#getEpochKeysOfDay}.
+     *
+     * @return - the epoch keys, by epoch.
+     */
+    public EpochKey[] getEpochKeys() {
+
+        byte[] keys = new byte[Time.EPOCHS_IN_DAY * EpochKey.BYTES];
+        DerivationUtils.getEpochKeysOfDay(mDay, mDayKey, mDayVerificationKey, mDayCommitmentKey, keys, 0);
+
+        EpochKey[] epochKeys = new EpochKey[Time.EPOCHS_IN_DAY];
+        for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+            epochKeys[epoch] = EpochKey.fromBytes(keys, epoch * EpochKey.BYTES);
+        }
+        return epochKeys;
+    }
+
+    public int getDay() { return mDay; }
+
     public byte[] getDayKey() { return mDayKey; }
 
     public byte[] getDayCommitKey() { return mDayCommitmentKey; }
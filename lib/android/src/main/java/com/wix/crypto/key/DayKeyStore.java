@@ -0,0 +1,122 @@
+package com.wix.crypto.key;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary store of the user's day keys, one fixed width record per day.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   header   magic "DKEY" | version                             (2 ints)
+ *   records  day | deleted epochs | day key | ver key | com key  (2 ints and DayKey.BYTES bytes per record)
+ * </pre>
+ * The deleted epochs are a bit mask, bit i set when the key of epoch i was deleted. Records are kept
+ * in day order: new days are appended, a mask is updated in place and dropping old days rewrites
+ * the records that are left, see {@link RecordFile}.
+ */
+public class DayKeyStore {
+
+    public static final int MAGIC = 0x444b4559;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_LEN = RecordFile.HEADER_LEN;
+    private static final int RECORD_LEN = 2 * 4 + DayKey.BYTES;
+
+    private final RecordFile mFile;
+
+    public DayKeyStore(File file) {
+        mFile = new RecordFile(file, MAGIC, VERSION, RECORD_LEN, "day key store");
+    }
+
+    /**
+     * Reads the stored days.
+     *
+     * @param dayKeys - filled with the key of every stored day.
+     * @param deletedEpochs - filled with the deleted epochs mask of the days that have one.
+     * @throws IOException - when the file can not be read or is not a day key store.
+     */
+    public synchronized void load(Map<Integer, DayKey> dayKeys, Map<Integer, Integer> deletedEpochs) throws IOException {
+
+        byte[] data = mFile.read();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (int offset = HEADER_LEN; offset + RECORD_LEN <= data.length; offset += RECORD_LEN) {
+
+            int day = buffer.getInt(offset);
+            dayKeys.put(day, DayKey.fromBytes(day, data, offset + 8));
+            if (buffer.getInt(offset + 4) != 0)
+                deletedEpochs.put(day, buffer.getInt(offset + 4));
+        }
+    }
+
+    /**
+     * Appends days after the stored ones, in day order.
+     */
+    public synchronized void append(List<DayKey> dayKeys) throws IOException {
+
+        if (dayKeys.isEmpty())
+            return;
+
+        byte[] records = new byte[dayKeys.size() * RECORD_LEN];
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        for (int i = 0; i < dayKeys.size(); i ++) {
+
+            buffer.putInt(i * RECORD_LEN, dayKeys.get(i).getDay());
+            dayKeys.get(i).toBytes(records, i * RECORD_LEN + 8);
+        }
+        mFile.append(records);
+    }
+
+    /**
+     * Overwrites the deleted epochs mask of a stored day, nothing else is written.
+     *
+     * @return - false when the day is not stored.
+     */
+    public synchronized boolean setDeletedEpochs(int day, int deletedEpochs) throws IOException {
+
+        RandomAccessFile raf = mFile.openForUpdate();
+        if (raf == null)
+            return false;
+
+        try {
+            long records = (mFile.getRecordsEnd(raf.length()) - HEADER_LEN) / RECORD_LEN;
+
+            // the days are consecutive, so the record is found from the first day
+            long position = day - (long) raf.readInt();
+            if (position < 0 || position >= records)
+                return false;
+
+            raf.seek(HEADER_LEN + position * RECORD_LEN);
+            if (raf.readInt() != day)
+                return false;
+
+            raf.writeInt(deletedEpochs);
+            raf.getFD().sync();
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Drops the days earlier than a day. Nothing is written when there are none.
+     */
+    public synchronized void truncateBefore(int day) throws IOException {
+
+        byte[] data = mFile.read();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int offset = HEADER_LEN;
+        while (offset + RECORD_LEN <= data.length && buffer.getInt(offset) < day) {
+            offset += RECORD_LEN;
+        }
+        mFile.truncate(data, offset);
+    }
+
+    public synchronized void delete() {
+        mFile.delete();
+    }
+}
@@ -1,7 +1,9 @@
 package com.wix.crypto.key;
 
 import com.google.gson.annotations.SerializedName;
+import com.wix.crypto.Constants;
 import com.wix.crypto.Crypto;
+import com.wix.crypto.Time;
 import com.wix.crypto.utilities.Hex;
 import com.wix.crypto.utilities.BytesUtils;
 import com.wix.crypto.utilities.DerivationUtils;
@@ -9,11 +11,27 @@ import com.wix.crypto.utilities.DerivationUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Arrays;
+
 /**
  * Created by hagai on 11/05/2020.
  */
 public class EpochKey {
 
+    /**
+     * Length of the binary form written by {@link #toBytes}.
+     */
+    public static final int BYTES = DerivationUtils.EPOCH_KEYS_LEN;
+
+    /**
+     * Offsets of the keys in the binary form.
+     */
+    public static final int PRE_KEY_OFFSET = 0;
+    public static final int EPOCH_KEY_OFFSET = Constants.KEY_LEN;
+    public static final int ENC_KEY_OFFSET = 2 * Constants.KEY_LEN;
+    public static final int MAC_KEY_OFFSET = 3 * Constants.KEY_LEN;
+    public static final int VER_KEY_OFFSET = 4 * Constants.KEY_LEN;
+
     @SerializedName("PreKey")
     private byte[] mPreKey;
     @SerializedName("EpochKey")
@@ -45,11 +63,12 @@ public class EpochKey {
 
         mEpochKey = DerivationUtils.getKeyEpoch(mPreKey, mDayKey.getDayCommitKey(), BytesUtils.numToBytes(day, 4), BytesUtils.numToBytes(epochIndex, 1));
 
-        byte[] epochEncMessage = BytesUtils.byteConcatenation(timePrefix, zeroByteEleven);
-        mEpochEnc = Crypto.AES(mEpochKey, epochEncMessage);
-
-        byte[] epochMACmessage = BytesUtils.byteConcatenation(timePrefix, zeroByteTen);
-        mEpochMac = Crypto.AES(mEpochKey, epochMACmessage);
+        // enc and mac keys are both derived from the epoch key, encrypt their two blocks in one go
+        byte[] epochEncAndMacMessage = BytesUtils.byteConcatenation(BytesUtils.byteConcatenation(timePrefix, zeroByteEleven),
+                BytesUtils.byteConcatenation(timePrefix, zeroByteTen));
+        byte[] epochEncAndMac = Crypto.AES(mEpochKey, epochEncAndMacMessage);
+        mEpochEnc = Arrays.copyOf(epochEncAndMac, Constants.KEY_LEN);
+        mEpochMac = Arrays.copyOfRange(epochEncAndMac, Constants.KEY_LEN, 2 * Constants.KEY_LEN);
 
         byte[] epochVerMessage = BytesUtils.byteConcatenation(timePrefix, zeroByteEleven);
         mEpochVer = Crypto.AES(mDayKey.getDayVerificationKey(), epochVerMessage);
@@ -89,8 +108,63 @@ public class EpochKey {
         );
     }
 
+    /**
+     * Writes the keys back to back, pre, epoch, enc, mac and ver, BYTES bytes in all.
+     */
+    public void toBytes(byte[] dst, int offset)
+    {
+        System.arraycopy(mPreKey, 0, dst, offset, Constants.KEY_LEN);
+        System.arraycopy(mEpochKey, 0, dst, offset + Constants.KEY_LEN, Constants.KEY_LEN);
+        System.arraycopy(mEpochEnc, 0, dst, offset + 2 * Constants.KEY_LEN, Constants.KEY_LEN);
+        System.arraycopy(mEpochMac, 0, dst, offset + 3 * Constants.KEY_LEN, Constants.KEY_LEN);
+        System.arraycopy(mEpochVer, 0, dst, offset + 4 * Constants.KEY_LEN, Constants.KEY_LEN);
+    }
+
+    public static EpochKey fromBytes(byte[] src, int offset)
+    {
+        return new EpochKey
+        (
+                Arrays.copyOfRange(src, offset, offset + Constants.KEY_LEN),
+                Arrays.copyOfRange(src, offset + Constants.KEY_LEN, offset + 2 * Constants.KEY_LEN),
+                Arrays.copyOfRange(src, offset + 2 * Constants.KEY_LEN, offset + 3 * Constants.KEY_LEN),
+                Arrays.copyOfRange(src, offset + 3 * Constants.KEY_LEN, offset + 4 * Constants.KEY_LEN),
+                Arrays.copyOfRange(src, offset + 4 * Constants.KEY_LEN, offset + 5 * Constants.KEY_LEN)
+        );
+    }
 
 
+    /**
+     * Generates the ephemeral id of a unit of time from the keys of its epoch.
+     *
+     * @param keys - the keys of the epoch, laid out as {@link #toBytes}.
+     * @param offset - offset of the keys.
+     * @param time - time in the epoch.
+     * @param geoHash - location.
+     */
+    public static byte[] generateEphemeralId(byte[] keys, int offset, int time, byte[] geoHash)
+    {
+        int unit = (time % Time.EPOCH) / Time.UNIT;
+
+        // the unit as a little endian block
+        byte[] block = new byte[Constants.MESSAGE_LEN];
+        byte[] mask = new byte[Constants.MESSAGE_LEN];
+        block[0] = (byte) unit;
+        Crypto.AES(keys, offset + ENC_KEY_OFFSET, block, 0, 1, mask, 0);
+
+        // 000 || geohash || user rand || 0000, masked in place into cIJS
+        block[0] = 0;
+        System.arraycopy(geoHash, 0, block, 3, Constants.GEOHASH_LEN);
+        System.arraycopy(keys, offset + VER_KEY_OFFSET, block, 3 + Constants.GEOHASH_LEN, Constants.USER_RAND_LEN);
+        for(int i = 0; i < Constants.MESSAGE_LEN; i ++) {
+            block[i] ^= mask[i];
+        }
+
+        byte[] ephId = new byte[Constants.MESSAGE_LEN];
+        System.arraycopy(block, 0, ephId, 0, 12);
+        Crypto.AES(keys, offset + MAC_KEY_OFFSET, block, 0, 1, mask, 0);
+        System.arraycopy(mask, 0, ephId, 12, 4);
+        return ephId;
+    }
 
     public byte[] getPreKey() { return mPreKey; }
 
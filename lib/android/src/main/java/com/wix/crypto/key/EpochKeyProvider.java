@@ -0,0 +1,260 @@
+package com.wix.crypto.key;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Time;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The user's epoch keys, derived when they are first used.
+ *
+ * Only the day keys are kept, an epoch key costs a few AES blocks and an HMAC to derive from its
+ * day key and stays in an {@link EpochKeyTable} once derived, until its day expires. Advertising
+ * only ever needs the key of the current epoch, so day rollover and startup no longer derive and
+ * hold every epoch key of the past days.
+ *
+ * Epoch keys saved by older versions, before the day keys were kept, are still served from the
+ * epoch key store until they expire.
+ */
+public class EpochKeyProvider {
+
+    private static final int TABLE_CAPACITY = (Constants.NUM_OF_DAYS + 2) * Time.EPOCHS_IN_DAY;
+    private static final int ALL_EPOCHS = (1 << Time.EPOCHS_IN_DAY) - 1;
+
+    private final DayKeyStore mDayKeyStore;
+    private final EpochKeyStore mLegacyKeyStore;
+
+    private final TreeMap<Integer, DayKey> mDayKeys = new TreeMap<>();
+    private final Map<Integer, Integer> mDeletedEpochs = new HashMap<>();
+    private final EpochKeyTable mLegacyKeys = new EpochKeyTable(TABLE_CAPACITY);
+    private final EpochKeyTable mDerivedKeys = new EpochKeyTable(TABLE_CAPACITY);
+
+    public EpochKeyProvider(DayKeyStore dayKeyStore, EpochKeyStore legacyKeyStore) {
+        mDayKeyStore = dayKeyStore;
+        mLegacyKeyStore = legacyKeyStore;
+    }
+
+    /**
+     * Reads the stored day keys and the epoch keys left by older versions.
+     */
+    public synchronized void load() throws IOException {
+
+        clearMemory();
+        mDayKeyStore.load(mDayKeys, mDeletedEpochs);
+        putLegacyKeys(mLegacyKeyStore.load());
+    }
+
+    /**
+     * Moves epoch keys saved by an older version to the epoch key store.
+     */
+    public synchronized void importLegacyKeys(Map<Time, EpochKey> epochKeys) throws IOException {
+
+        mLegacyKeyStore.write(epochKeys);
+        putLegacyKeys(epochKeys);
+    }
+
+    /**
+     * @return - the key of an epoch, or null when the user has no key for it.
+     */
+    public synchronized EpochKey get(Time time) {
+
+        EpochKeyTable table = getTable(time.getAbsoluteEpoch());
+        return table != null ? table.get(time.getAbsoluteEpoch()) : null;
+    }
+
+    /**
+     * Copies the keys of an epoch without creating an EpochKey, laid out as {@link EpochKey#toBytes}.
+     *
+     * @param absoluteEpoch - see {@link Time#getAbsoluteEpoch()}.
+     * @return - false when the user has no key for the epoch.
+     */
+    public synchronized boolean copy(int absoluteEpoch, byte[] dst, int dstOffset) {
+
+        EpochKeyTable table = getTable(absoluteEpoch);
+        return table != null && table.copy(absoluteEpoch, dst, dstOffset);
+    }
+
+    public synchronized boolean contains(Time time) {
+        return contains(time.getAbsoluteEpoch());
+    }
+
+    /**
+     * @param absoluteEpoch - see {@link Time#getAbsoluteEpoch()}.
+     */
+    public synchronized boolean contains(int absoluteEpoch) {
+        return mLegacyKeys.contains(absoluteEpoch) || (mDayKeys.containsKey(absoluteEpoch / Time.EPOCHS_IN_DAY) && !isDeleted(absoluteEpoch));
+    }
+
+    /**
+     * @return - the epochs the user has keys for, in time order.
+     */
+    public synchronized List<Time> getTimes() {
+
+        List<Time> times = new ArrayList<>(mLegacyKeys.toMap().keySet());
+        for (int day : mDayKeys.keySet()) {
+
+            for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+
+                int absoluteEpoch = day * Time.EPOCHS_IN_DAY + epoch;
+                if (!isDeleted(absoluteEpoch) && !mLegacyKeys.contains(absoluteEpoch))
+                    times.add(new Time(day, epoch));
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Derives all the keys the user has, a day at a time, without going through the cache.
+     *
+     * @return - the keys, in time order.
+     */
+    public synchronized Map<Time, EpochKey> getAll() {
+
+        Map<Time, EpochKey> epochKeys = mLegacyKeys.toMap();
+        for (DayKey dayKey : mDayKeys.values()) {
+
+            EpochKey[] dayEpochKeys = dayKey.getEpochKeys();
+            for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+
+                int absoluteEpoch = dayKey.getDay() * Time.EPOCHS_IN_DAY + epoch;
+                if (!isDeleted(absoluteEpoch) && !mLegacyKeys.contains(absoluteEpoch))
+                    epochKeys.put(new Time(dayKey.getDay(), epoch), dayEpochKeys[epoch]);
+            }
+        }
+        return epochKeys;
+    }
+
+    /**
+     * Stores the keys of new days, later than all the stored days, and adds them. Nothing is added
+     * when they could not be stored.
+     */
+    public synchronized void addDays(List<DayKey> dayKeys) throws IOException {
+
+        mDayKeyStore.append(dayKeys);
+        for (DayKey dayKey : dayKeys) {
+            mDayKeys.put(dayKey.getDay(), dayKey);
+        }
+    }
+
+    /**
+     * Deletes the keys earlier than a time.
+     */
+    public synchronized void deleteBefore(Time time) throws IOException {
+
+        if (mLegacyKeys.hasEpochsBefore(time.getAbsoluteEpoch())) {
+
+            mLegacyKeys.removeBefore(time.getAbsoluteEpoch());
+            mLegacyKeyStore.truncateBefore(time);
+        }
+        mDerivedKeys.removeBefore(time.getAbsoluteEpoch());
+
+        if (!mDayKeys.isEmpty() && mDayKeys.firstKey() < time.getDay()) {
+
+            for (int day : mDayKeys.headMap(time.getDay()).keySet()) {
+                mDeletedEpochs.remove(day);
+            }
+            mDayKeys.headMap(time.getDay()).clear();
+            mDayKeyStore.truncateBefore(time.getDay());
+        }
+
+        // epochs of the first day that are already gone only need their mask bits
+        if (mDayKeys.containsKey(time.getDay()))
+            setDeletedEpochs(time.getDay(), getDeletedEpochs(time.getDay()) | ((1 << time.getEpoch()) - 1));
+    }
+
+    /**
+     * Deletes the keys of the epochs from start to end, both included.
+     */
+    public synchronized void delete(Time start, Time end) throws IOException {
+
+        boolean legacyDeleted = false;
+        for (int absoluteEpoch = start.getAbsoluteEpoch(); absoluteEpoch <= end.getAbsoluteEpoch(); absoluteEpoch ++) {
+
+            if (mLegacyKeys.contains(absoluteEpoch)) {
+                mLegacyKeys.remove(absoluteEpoch);
+                legacyDeleted = true;
+            }
+            mDerivedKeys.remove(absoluteEpoch);
+        }
+
+        if (legacyDeleted)
+            mLegacyKeyStore.write(mLegacyKeys.toMap());
+
+        for (int day : mDayKeys.subMap(start.getDay(), true, end.getDay(), true).keySet()) {
+
+            int firstEpoch = day == start.getDay() ? start.getEpoch() : 0;
+            int lastEpoch = day == end.getDay() ? end.getEpoch() : Time.EPOCHS_IN_DAY - 1;
+            int range = (ALL_EPOCHS >>> (Time.EPOCHS_IN_DAY - 1 - lastEpoch)) & ~((1 << firstEpoch) - 1);
+            setDeletedEpochs(day, getDeletedEpochs(day) | range);
+        }
+    }
+
+    /**
+     * Forgets every key, in memory and on disk.
+     */
+    public synchronized void clear() {
+
+        clearMemory();
+        mDayKeyStore.delete();
+        mLegacyKeyStore.delete();
+    }
+
+    private void clearMemory() {
+
+        mDayKeys.clear();
+        mDeletedEpochs.clear();
+        mLegacyKeys.clear();
+        mDerivedKeys.clear();
+    }
+
+    private void putLegacyKeys(Map<Time, EpochKey> epochKeys) {
+
+        for (Map.Entry<Time, EpochKey> entry : epochKeys.entrySet()) {
+            mLegacyKeys.put(entry.getKey().getAbsoluteEpoch(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return - the table that holds the key of an epoch, deriving it if needed, or null when the user has no such key.
+     */
+    private EpochKeyTable getTable(int absoluteEpoch) {
+
+        if (mLegacyKeys.contains(absoluteEpoch))
+            return mLegacyKeys;
+
+        if (mDerivedKeys.contains(absoluteEpoch))
+            return mDerivedKeys;
+
+        int day = absoluteEpoch / Time.EPOCHS_IN_DAY;
+        DayKey dayKey = mDayKeys.get(day);
+        if (dayKey == null || isDeleted(absoluteEpoch))
+            return null;
+
+        mDerivedKeys.put(absoluteEpoch, new EpochKey(day, absoluteEpoch % Time.EPOCHS_IN_DAY, dayKey));
+        return mDerivedKeys;
+    }
+
+    private boolean isDeleted(int absoluteEpoch) {
+        return (getDeletedEpochs(absoluteEpoch / Time.EPOCHS_IN_DAY) & (1 << (absoluteEpoch % Time.EPOCHS_IN_DAY))) != 0;
+    }
+
+    private int getDeletedEpochs(int day) {
+
+        Integer deleted = mDeletedEpochs.get(day);
+        return deleted != null ? deleted : 0;
+    }
+
+    private void setDeletedEpochs(int day, int deletedEpochs) throws IOException {
+
+        if (deletedEpochs == getDeletedEpochs(day))
+            return;
+
+        mDeletedEpochs.put(day, deletedEpochs);
+        mDayKeyStore.setDeletedEpochs(day, deletedEpochs);
+    }
+}
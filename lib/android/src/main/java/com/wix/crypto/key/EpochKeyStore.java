@@ -0,0 +1,111 @@
+package com.wix.crypto.key;
+
+import com.wix.crypto.Time;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary store of the user's epoch keys, one fixed width record per (day, epoch).
+ *
+ * Layout, big endian:
+ * <pre>
+ *   header   magic "EKEY" | version                        (2 ints)
+ *   records  day | epoch | pre | epoch | enc | mac | ver   (2 ints and EpochKey.BYTES bytes per record)
+ * </pre>
+ * Records are kept in time order. New days are appended at the end of the file, dropping old days
+ * only rewrites the records that are left, see {@link RecordFile}.
+ *
+ * New days only keep their day keys, see {@link DayKeyStore}, this store holds the epoch keys
+ * saved before that until they expire.
+ */
+public class EpochKeyStore {
+
+    public static final int MAGIC = 0x454b4559;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_LEN = RecordFile.HEADER_LEN;
+    private static final int RECORD_LEN = 2 * 4 + EpochKey.BYTES;
+
+    private final RecordFile mFile;
+
+    public EpochKeyStore(File file) {
+        mFile = new RecordFile(file, MAGIC, VERSION, RECORD_LEN, "epoch key store");
+    }
+
+    public boolean exists() { return mFile.exists(); }
+
+    /**
+     * @return - the stored keys, empty when there is no store yet.
+     * @throws IOException - when the file can not be read or is not an epoch key store.
+     */
+    public synchronized Map<Time, EpochKey> load() throws IOException {
+
+        Map<Time, EpochKey> epochKeys = new TreeMap<>();
+        byte[] data = mFile.read();
+        for (int offset = HEADER_LEN; offset + RECORD_LEN <= data.length; offset += RECORD_LEN) {
+            epochKeys.put(readTime(data, offset), EpochKey.fromBytes(data, offset + 8));
+        }
+        return epochKeys;
+    }
+
+    /**
+     * Appends keys after the stored ones, they should all be later than the stored keys.
+     */
+    public synchronized void append(Map<Time, EpochKey> epochKeys) throws IOException {
+
+        if (epochKeys.isEmpty())
+            return;
+
+        mFile.append(toRecords(epochKeys));
+    }
+
+    /**
+     * Drops the keys earlier than a time. Nothing is written when there are none.
+     */
+    public synchronized void truncateBefore(Time time) throws IOException {
+
+        byte[] data = mFile.read();
+        int offset = HEADER_LEN;
+        while (offset + RECORD_LEN <= data.length && readTime(data, offset).compareTo(time) < 0) {
+            offset += RECORD_LEN;
+        }
+        mFile.truncate(data, offset);
+    }
+
+    /**
+     * Replaces the stored keys.
+     */
+    public synchronized void write(Map<Time, EpochKey> epochKeys) throws IOException {
+        mFile.write(toRecords(epochKeys));
+    }
+
+    public synchronized void delete() {
+        mFile.delete();
+    }
+
+    private static byte[] toRecords(Map<Time, EpochKey> epochKeys) {
+
+        Map<Time, EpochKey> sorted = epochKeys instanceof TreeMap ? epochKeys : new TreeMap<>(epochKeys);
+        byte[] records = new byte[sorted.size() * RECORD_LEN];
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        int offset = 0;
+        for (Map.Entry<Time, EpochKey> entry : sorted.entrySet()) {
+
+            buffer.putInt(offset, entry.getKey().getDay());
+            buffer.putInt(offset + 4, entry.getKey().getEpoch());
+            entry.getValue().toBytes(records, offset + 8);
+            offset += RECORD_LEN;
+        }
+        return records;
+    }
+
+    private static Time readTime(byte[] data, int offset) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, 8);
+        return new Time(buffer.getInt(), buffer.getInt());
+    }
+}
@@ -0,0 +1,166 @@
+package com.wix.crypto.key;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Time;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Epoch keys indexed by absolute epoch (day * EPOCHS_IN_DAY + epoch), in a ring buffer.
+ *
+ * The keys of a slot are EpochKey.BYTES contiguous bytes of one array, next to the absolute epoch
+ * that owns the slot, so a lookup is an index computation and a tag check, without boxing or a
+ * Time instance. Dropping the epochs before a given one only moves the start of the table, the
+ * slots they leave are reused by later epochs. The ring grows when the epochs it holds no longer
+ * fit in it.
+ */
+public class EpochKeyTable {
+
+    private static final int EMPTY = Constants.None;
+
+    private byte[] mKeys;
+    private int[] mEpochs;
+    private int mMask;
+    private int mFirstEpoch = Integer.MIN_VALUE;
+
+    /**
+     * @param capacity - number of consecutive epochs the table holds before it grows.
+     */
+    public EpochKeyTable(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(2, capacity) * 2 - 1));
+    }
+
+    public boolean contains(int absoluteEpoch) {
+        return slot(absoluteEpoch) != EMPTY;
+    }
+
+    /**
+     * @return - the key of an epoch, or null when the table does not hold it.
+     */
+    public EpochKey get(int absoluteEpoch) {
+
+        int slot = slot(absoluteEpoch);
+        return slot == EMPTY ? null : EpochKey.fromBytes(mKeys, slot * EpochKey.BYTES);
+    }
+
+    /**
+     * Copies the keys of an epoch, laid out as {@link EpochKey#toBytes}.
+     *
+     * @return - false when the table does not hold the epoch.
+     */
+    public boolean copy(int absoluteEpoch, byte[] dst, int dstOffset) {
+
+        int slot = slot(absoluteEpoch);
+        if (slot == EMPTY)
+            return false;
+
+        System.arraycopy(mKeys, slot * EpochKey.BYTES, dst, dstOffset, EpochKey.BYTES);
+        return true;
+    }
+
+    /**
+     * Stores the key of an epoch, an epoch dropped by {@link #removeBefore} is ignored.
+     */
+    public void put(int absoluteEpoch, EpochKey epochKey) {
+
+        if (absoluteEpoch < mFirstEpoch)
+            return;
+
+        int slot = absoluteEpoch & mMask;
+        if (mEpochs[slot] != EMPTY && mEpochs[slot] != absoluteEpoch && mEpochs[slot] >= mFirstEpoch) {
+            grow(absoluteEpoch);
+            slot = absoluteEpoch & mMask;
+        }
+
+        mEpochs[slot] = absoluteEpoch;
+        epochKey.toBytes(mKeys, slot * EpochKey.BYTES);
+    }
+
+    public void remove(int absoluteEpoch) {
+
+        int slot = slot(absoluteEpoch);
+        if (slot != EMPTY)
+            mEpochs[slot] = EMPTY;
+    }
+
+    /**
+     * Drops the epochs earlier than an epoch.
+     */
+    public void removeBefore(int absoluteEpoch) {
+        mFirstEpoch = Math.max(mFirstEpoch, absoluteEpoch);
+    }
+
+    /**
+     * @return - true when the table holds an epoch earlier than the given one.
+     */
+    public boolean hasEpochsBefore(int absoluteEpoch) {
+
+        for (int epoch : mEpochs) {
+            if (epoch != EMPTY && epoch >= mFirstEpoch && epoch < absoluteEpoch)
+                return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+
+        Arrays.fill(mEpochs, EMPTY);
+        mFirstEpoch = Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return - the keys of the table, in time order.
+     */
+    public Map<Time, EpochKey> toMap() {
+
+        Map<Time, EpochKey> epochKeys = new TreeMap<>();
+        for (int slot = 0; slot < mEpochs.length; slot ++) {
+
+            int epoch = mEpochs[slot];
+            if (epoch != EMPTY && epoch >= mFirstEpoch)
+                epochKeys.put(new Time(epoch / Time.EPOCHS_IN_DAY, epoch % Time.EPOCHS_IN_DAY), EpochKey.fromBytes(mKeys, slot * EpochKey.BYTES));
+        }
+        return epochKeys;
+    }
+
+    private int slot(int absoluteEpoch) {
+
+        int slot = absoluteEpoch & mMask;
+        return absoluteEpoch >= mFirstEpoch && mEpochs[slot] == absoluteEpoch ? slot : EMPTY;
+    }
+
+    private void allocate(int capacity) {
+
+        mKeys = new byte[capacity * EpochKey.BYTES];
+        mEpochs = new int[capacity];
+        mMask = capacity - 1;
+        Arrays.fill(mEpochs, EMPTY);
+    }
+
+    private void grow(int absoluteEpoch) {
+
+        int first = absoluteEpoch;
+        int last = absoluteEpoch;
+        for (int epoch : mEpochs) {
+
+            if (epoch != EMPTY && epoch >= mFirstEpoch) {
+                first = Math.min(first, epoch);
+                last = Math.max(last, epoch);
+            }
+        }
+
+        byte[] keys = mKeys;
+        int[] epochs = mEpochs;
+        allocate(Integer.highestOneBit((last - first + 1) * 2 - 1));
+        for (int slot = 0; slot < epochs.length; slot ++) {
+
+            int epoch = epochs[slot];
+            if (epoch != EMPTY && epoch >= mFirstEpoch) {
+                mEpochs[epoch & mMask] = epoch;
+                System.arraycopy(keys, slot * EpochKey.BYTES, mKeys, (epoch & mMask) * EpochKey.BYTES, EpochKey.BYTES);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.wix.crypto.key;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * A file of fixed width records behind a magic | version header, the format of the key stores.
+ *
+ * Records are appended at the end of the file, anything else that changes them rewrites the file
+ * through a temporary file and a rename. A record cut short by a crash during an append is ignored
+ * and overwritten by the next append. Not thread safe, the stores synchronize their calls.
+ */
+class RecordFile {
+
+    static final int HEADER_LEN = 2 * 4;
+
+    private final File mFile;
+    private final int mMagic;
+    private final int mVersion;
+    private final int mRecordLen;
+    private final String mName;
+
+    /**
+     * @param name - what the file holds, for the error messages.
+     */
+    RecordFile(File file, int magic, int version, int recordLen, String name) {
+        mFile = file;
+        mMagic = magic;
+        mVersion = version;
+        mRecordLen = recordLen;
+        mName = name;
+    }
+
+    boolean exists() { return mFile.exists(); }
+
+    /**
+     * @return - the whole file, header included, only the header when there is no file yet.
+     * @throws IOException - when the file can not be read or its header does not fit.
+     */
+    byte[] read() throws IOException {
+
+        if (!mFile.exists())
+            return header();
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            if (data.length < HEADER_LEN)
+                return header();
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            checkHeader(buffer.getInt(0), buffer.getInt(4));
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return - the end of the last whole record of a file of a given length.
+     */
+    long getRecordsEnd(long length) {
+        return HEADER_LEN + (length - HEADER_LEN) / mRecordLen * mRecordLen;
+    }
+
+    /**
+     * Appends records after the stored ones, over a partial record left by an interrupted append.
+     */
+    void append(byte[] records) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            long length = raf.length();
+            if (length < HEADER_LEN) {
+                raf.setLength(0);
+                raf.write(header());
+                length = HEADER_LEN;
+            } else {
+                checkHeader(raf.readInt(), raf.readInt());
+            }
+
+            raf.seek(getRecordsEnd(length));
+            raf.write(records);
+            raf.setLength(raf.getFilePointer());
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Drops the records before an offset of the data returned by {@link #read()}. Nothing is
+     * written when the offset is the first record.
+     */
+    void truncate(byte[] data, int offset) throws IOException {
+
+        if (offset == HEADER_LEN)
+            return;
+
+        int end = (int) getRecordsEnd(data.length);
+        byte[] kept = new byte[HEADER_LEN + end - offset];
+        System.arraycopy(data, 0, kept, 0, HEADER_LEN);
+        System.arraycopy(data, offset, kept, HEADER_LEN, end - offset);
+        replace(kept);
+    }
+
+    /**
+     * Replaces the stored records.
+     */
+    void write(byte[] records) throws IOException {
+
+        byte[] data = new byte[HEADER_LEN + records.length];
+        System.arraycopy(header(), 0, data, 0, HEADER_LEN);
+        System.arraycopy(records, 0, data, HEADER_LEN, records.length);
+        replace(data);
+    }
+
+    /**
+     * Opens the file to update records in place, positioned after the header.
+     *
+     * @return - null when there is no file or no whole record.
+     */
+    RandomAccessFile openForUpdate() throws IOException {
+
+        if (!mFile.exists())
+            return null;
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            if (raf.length() < HEADER_LEN + mRecordLen) {
+                raf.close();
+                return null;
+            }
+
+            checkHeader(raf.readInt(), raf.readInt());
+            return raf;
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    void delete() {
+
+        if (mFile.exists() && !mFile.delete())
+            mFile.deleteOnExit();
+    }
+
+    private void replace(byte[] data) throws IOException {
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(mFile))
+            throw new IOException("could not replace " + mFile);
+    }
+
+    private byte[] header() {
+        return ByteBuffer.allocate(HEADER_LEN).putInt(mMagic).putInt(mVersion).array();
+    }
+
+    private void checkHeader(int magic, int version) throws IOException {
+
+        if (magic != mMagic)
+            throw new IOException("not a valid " + mName);
+
+        if (version != mVersion)
+            throw new IOException("unsupported " + mName + " version " + version);
+    }
+}
@@ -0,0 +1,124 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Time;
+
+/**
+ * Bloom filter over the ephemeral ids the infected keys of an index could have produced.
+ *
+ * Only the first ZERO_PREFIX_LEN bytes of an ephemeral id are known in advance: they are the
+ * mask bytes over the zero prefix, the rest hides the geohash and user random of the infected
+ * user. So every (absolute unit, mask prefix) pair of the index goes in the filter, and a contact
+ * unit that misses it cannot match any key of that unit and needs no crypto at all.
+ *
+ * The filter never gives false negatives. Its memory is bitsPerEntry bits per key and unit,
+ * its false positive rate follows from it, see {@link #getFalsePositiveRate()}.
+ */
+public class EphemeralIdFilter {
+
+    public static final int DEFAULT_BITS_PER_ENTRY = 10;
+
+    private static final int PREFIX_LEN = 3;
+
+    private final long[] mBits;
+    private final long mNumBits;
+    private final int mNumHashes;
+    private final int mNumEntries;
+
+    private EphemeralIdFilter(int numEntries, int bitsPerEntry) {
+
+        long numBits = Math.max(64L, (long) numEntries * bitsPerEntry);
+        mBits = new long[(int) ((numBits + 63) / 64)];
+        mNumBits = mBits.length * 64L;
+        mNumHashes = Math.max(1, (int) Math.round(bitsPerEntry * Math.log(2)));
+        mNumEntries = numEntries;
+    }
+
+    /**
+     * Builds the filter of the keys of an index.
+     *
+     * @param bitsPerEntry - filter bits per key and unit, higher means less false positives.
+     */
+    static EphemeralIdFilter build(int firstEpoch, int[] bucketStart, int[] bucketEnd, byte[] masks, int maskBlockLen, int bitsPerEntry) {
+
+        int numEntries = 0;
+        for (int bucket = 0; bucket < bucketStart.length; bucket ++) {
+            numEntries += (bucketEnd[bucket] - bucketStart[bucket]) * Time.UNITS_IN_EPOCH;
+        }
+
+        EphemeralIdFilter filter = new EphemeralIdFilter(numEntries, bitsPerEntry);
+        for (int bucket = 0; bucket < bucketStart.length; bucket ++) {
+
+            int firstUnit = (firstEpoch + bucket) * Time.UNITS_IN_EPOCH;
+            for (int slot = bucketStart[bucket]; slot < bucketEnd[bucket]; slot ++) {
+
+                for (int unit = 0; unit < Time.UNITS_IN_EPOCH; unit ++) {
+
+                    int offset = (slot * Time.UNITS_IN_EPOCH + unit) * maskBlockLen;
+                    filter.put(entry(firstUnit + unit, masks[offset], masks[offset + 1], masks[offset + 2]));
+                }
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * @param absoluteUnit - time / UNIT of the unit to check.
+     * @param ephId - contact ephemeral id.
+     * @return - false when no key of that unit can have produced the ephemeral id.
+     */
+    public boolean mightContain(int absoluteUnit, byte[] ephId) {
+
+        if (ephId == null || ephId.length < PREFIX_LEN)
+            return false;
+
+        long hash = mix(entry(absoluteUnit, ephId[0], ephId[1], ephId[2]));
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < mNumHashes; i ++) {
+
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % mNumBits;
+            if ((mBits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public long getSizeInBytes() { return mBits.length * 8L; }
+
+    public int getNumHashes() { return mNumHashes; }
+
+    public int getNumEntries() { return mNumEntries; }
+
+    /**
+     * @return - expected false positive rate for the number of entries in the filter.
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) mNumHashes * mNumEntries / mNumBits), mNumHashes);
+    }
+
+    private void put(long entry) {
+
+        long hash = mix(entry);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < mNumHashes; i ++) {
+
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % mNumBits;
+            mBits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static long entry(int absoluteUnit, byte b0, byte b1, byte b2) {
+        return ((long) absoluteUnit << 24) | ((b0 & 0xff) << 16) | ((b1 & 0xff) << 8) | (b2 & 0xff);
+    }
+
+    // splitmix64 finalizer, spreads the entry bits over both hash halves
+    private static long mix(long z) {
+
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,153 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Constants;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Checks contact ephemeral ids against the infected keys of an {@link InfectedKeyIndex}
+ * without allocating per check.
+ *
+ * An ephemeral id matches a key when the first ZERO_PREFIX_LEN bytes of id XOR mask are zero
+ * and its last MAC_LEN bytes equal the AES of the id head and the mask tail under the epoch
+ * MAC key. The matcher works on its own scratch blocks and keeps one initialized AES cipher per
+ * slot, so it is not thread safe: use one matcher per thread or task.
+ */
+public class EphemeralIdMatcher {
+
+    public static final int NO_MATCH = 0;
+    public static final int MATCH = 1;
+    public static final int ERROR = -1;
+
+    private static final int BLOCK_LEN = Constants.MESSAGE_LEN;
+    private static final int ZERO_PREFIX_LEN = 3;
+    private static final int MAC_LEN = 4;
+
+    private final InfectedKeyIndex mIndex;
+    private final Cipher[] mMacCiphers;
+    private final byte[] mMacInput = new byte[BLOCK_LEN];
+    private final byte[] mMacOutput = new byte[BLOCK_LEN];
+
+    public EphemeralIdMatcher(InfectedKeyIndex index) {
+        mIndex = index;
+        mMacCiphers = new Cipher[index.size()];
+    }
+
+    public InfectedKeyIndex getIndex() { return mIndex; }
+
+    /**
+     * Check an ephemeral id against the key of a slot at a given unit.
+     *
+     * @return - MATCH, NO_MATCH or ERROR when the id is malformed or the cipher failed.
+     */
+    public int match(int slot, int unit, byte[] ephId) {
+
+        if (ephId == null || ephId.length != BLOCK_LEN)
+            return ERROR;
+
+        byte[] masks = mIndex.getMaskData();
+        int maskOffset = mIndex.getMaskOffset(slot, unit);
+
+        // cheap check first, only one in 2^24 ids gets to the cipher
+        for (int i = 0; i < ZERO_PREFIX_LEN; i ++) {
+
+            if ((masks[maskOffset + i] ^ ephId[i]) != 0)
+                return NO_MATCH;
+        }
+
+        Cipher cipher = mMacCiphers[slot];
+        if (cipher == null) {
+
+            cipher = newMacCipher(mIndex.getMacKeyData(), slot * Constants.KEY_LEN);
+            if (cipher == null)
+                return ERROR;
+
+            mMacCiphers[slot] = cipher;
+        }
+        return checkMac(cipher, masks, maskOffset, ephId, mMacInput, mMacOutput);
+    }
+
+    /**
+     * Check an ephemeral id against a single mask and MAC key.
+     * Allocates a cipher, meant for one off checks outside of a match run.
+     */
+    public static int match(byte[] mask, byte[] macKey, byte[] ephId) {
+
+        if (ephId == null || ephId.length != BLOCK_LEN || mask.length != BLOCK_LEN)
+            return ERROR;
+
+        for (int i = 0; i < ZERO_PREFIX_LEN; i ++) {
+
+            if ((mask[i] ^ ephId[i]) != 0)
+                return NO_MATCH;
+        }
+
+        Cipher cipher = newMacCipher(macKey, 0);
+        if (cipher == null)
+            return ERROR;
+
+        return checkMac(cipher, mask, 0, ephId, new byte[BLOCK_LEN], new byte[BLOCK_LEN]);
+    }
+
+    /**
+     * @return - the geohash hidden in a matching ephemeral id.
+     */
+    public byte[] getGeohash(int slot, int unit, byte[] ephId) {
+        return unmask(mIndex.getMaskData(), mIndex.getMaskOffset(slot, unit), ephId, ZERO_PREFIX_LEN, Constants.GEOHASH_LEN);
+    }
+
+    /**
+     * @return - the user random hidden in a matching ephemeral id.
+     */
+    public byte[] getUserRand(int slot, int unit, byte[] ephId) {
+        return unmask(mIndex.getMaskData(), mIndex.getMaskOffset(slot, unit), ephId, ZERO_PREFIX_LEN + Constants.GEOHASH_LEN, Constants.USER_RAND_LEN);
+    }
+
+    /**
+     * @return - bytes [from, from + len) of ephemeral id XOR mask.
+     */
+    public static byte[] unmask(byte[] mask, int maskOffset, byte[] ephId, int from, int len) {
+
+        byte[] result = new byte[len];
+        for (int i = 0; i < len; i ++) {
+            result[i] = (byte) (mask[maskOffset + from + i] ^ ephId[from + i]);
+        }
+        return result;
+    }
+
+    private static int checkMac(Cipher cipher, byte[] mask, int maskOffset, byte[] ephId, byte[] input, byte[] output) {
+
+        int headLen = BLOCK_LEN - MAC_LEN;
+        System.arraycopy(ephId, 0, input, 0, headLen);
+        System.arraycopy(mask, maskOffset + headLen, input, headLen, MAC_LEN);
+
+        try {
+            cipher.doFinal(input, 0, BLOCK_LEN, output, 0);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return ERROR;
+        }
+
+        for (int i = 0; i < MAC_LEN; i ++) {
+
+            if (output[i] != ephId[headLen + i])
+                return NO_MATCH;
+        }
+        return MATCH;
+    }
+
+    private static Cipher newMacCipher(byte[] keyData, int keyOffset) {
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyData, keyOffset, Constants.KEY_LEN, "AES"));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Time;
+
+/**
+ * Open addressing hash table from (absolute unit, ephemeral id prefix) to the index slots whose
+ * key could have produced such an id in that unit.
+ *
+ * Only the first PREFIX_LEN bytes of an infected ephemeral id can be computed by the client, the
+ * rest hides the infected user's geohash and user random. Those bytes are still enough to single
+ * out the candidate keys, so a contact unit costs one table probe instead of a scan over all the
+ * keys of its epoch, and only the candidates go through the MAC check.
+ *
+ * Several slots may share a table key, they are stored as separate entries of the same probe run.
+ */
+public class EphemeralIdTable {
+
+    private static final int PREFIX_LEN = 3;
+    private static final int EMPTY = -1;
+
+    private final long[] mKeys;
+    private final int[] mSlots;
+    private final int mMask;
+
+    private EphemeralIdTable(int numEntries) {
+
+        int capacity = Integer.highestOneBit(Math.max(2, numEntries) * 2 - 1) << 1;
+        mKeys = new long[capacity];
+        mSlots = new int[capacity];
+        mMask = capacity - 1;
+        for (int i = 0; i < capacity; i ++) {
+            mSlots[i] = EMPTY;
+        }
+    }
+
+    static EphemeralIdTable build(int firstEpoch, int[] bucketStart, int[] bucketEnd, byte[] masks, int maskBlockLen) {
+
+        int numEntries = 0;
+        for (int bucket = 0; bucket < bucketStart.length; bucket ++) {
+            numEntries += (bucketEnd[bucket] - bucketStart[bucket]) * Time.UNITS_IN_EPOCH;
+        }
+
+        EphemeralIdTable table = new EphemeralIdTable(numEntries);
+        for (int bucket = 0; bucket < bucketStart.length; bucket ++) {
+
+            int firstUnit = (firstEpoch + bucket) * Time.UNITS_IN_EPOCH;
+            for (int slot = bucketStart[bucket]; slot < bucketEnd[bucket]; slot ++) {
+
+                for (int unit = 0; unit < Time.UNITS_IN_EPOCH; unit ++) {
+
+                    int offset = (slot * Time.UNITS_IN_EPOCH + unit) * maskBlockLen;
+                    table.put(key(firstUnit + unit, masks[offset], masks[offset + 1], masks[offset + 2]), slot);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @param absoluteUnit - time / UNIT of the contact unit.
+     * @param ephId - contact ephemeral id.
+     * @return - position of the first candidate, or -1 when no key can match.
+     */
+    public int first(int absoluteUnit, byte[] ephId) {
+
+        if (ephId == null || ephId.length < PREFIX_LEN)
+            return EMPTY;
+
+        long key = key(absoluteUnit, ephId[0], ephId[1], ephId[2]);
+        return find(key, hash(key) & mMask);
+    }
+
+    /**
+     * @param position - position returned by {@link #first} or a previous call.
+     * @return - position of the next candidate, or -1 when there are no more.
+     */
+    public int next(int position, int absoluteUnit, byte[] ephId) {
+
+        long key = key(absoluteUnit, ephId[0], ephId[1], ephId[2]);
+        return find(key, (position + 1) & mMask);
+    }
+
+    /**
+     * @return - index slot of the candidate at a position.
+     */
+    public int getSlot(int position) { return mSlots[position]; }
+
+    public long getSizeInBytes() { return mKeys.length * 12L; }
+
+    private int find(long key, int position) {
+
+        while (mSlots[position] != EMPTY) {
+
+            if (mKeys[position] == key)
+                return position;
+
+            position = (position + 1) & mMask;
+        }
+        return EMPTY;
+    }
+
+    private void put(long key, int slot) {
+
+        int position = hash(key) & mMask;
+        while (mSlots[position] != EMPTY) {
+            position = (position + 1) & mMask;
+        }
+        mKeys[position] = key;
+        mSlots[position] = slot;
+    }
+
+    private static long key(int absoluteUnit, byte b0, byte b1, byte b2) {
+        return ((long) absoluteUnit << 24) | ((b0 & 0xff) << 16) | ((b1 & 0xff) << 8) | (b2 & 0xff);
+    }
+
+    // murmur3 finalizer, the prefix bytes are already random but the units are sequential
+    private static int hash(long key) {
+
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,206 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Time;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary infected key file, read through a memory mapped buffer.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   header   magic "IKEY" | version | startDay | entryCount | keyCount    (5 ints)
+ *   entries  day | epoch | firstKey | keyCount                            (4 ints per entry)
+ *   keys     KEY_LEN bytes per key, the keys of an entry are contiguous
+ * </pre>
+ * An entry holds at least one key.
+ * Nothing is parsed up front, the matching index reads the keys straight from the mapping.
+ */
+public class InfectedKeyFile implements InfectedKeySet {
+
+    public static final int MAGIC = 0x494b4559;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_LEN = 5 * 4;
+    private static final int ENTRY_LEN = 4 * 4;
+
+    private final ByteBuffer mBuffer;
+    private final int mStartDay;
+    private final int mEntryCount;
+    private final int mKeysOffset;
+
+    private InfectedKeyFile(ByteBuffer buffer, int startDay, int entryCount) {
+        mBuffer = buffer;
+        mStartDay = startDay;
+        mEntryCount = entryCount;
+        mKeysOffset = HEADER_LEN + entryCount * ENTRY_LEN;
+    }
+
+    /**
+     * Maps a key file read only.
+     *
+     * @throws IOException - when the file can not be read or is not a valid key file.
+     */
+    public static InfectedKeyFile open(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the channel is closed
+            return wrap(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a key file from a buffer, from its position on.
+     *
+     * @throws IOException - when the buffer does not hold a valid key file.
+     */
+    public static InfectedKeyFile wrap(ByteBuffer buffer) throws IOException {
+
+        ByteBuffer data = buffer.slice();
+        if (data.remaining() < HEADER_LEN || data.getInt(0) != MAGIC)
+            throw new IOException("not an infected key file");
+
+        if (data.getInt(4) != VERSION)
+            throw new IOException("unsupported infected key file version " + data.getInt(4));
+
+        int startDay = data.getInt(8);
+        int entryCount = data.getInt(12);
+        int keyCount = data.getInt(16);
+
+        if (entryCount < 0 || keyCount < 0
+                || (long) HEADER_LEN + (long) entryCount * ENTRY_LEN + (long) keyCount * Constants.KEY_LEN > data.remaining())
+            throw new IOException("truncated infected key file");
+
+        for (int entry = 0; entry < entryCount; entry ++) {
+
+            int offset = HEADER_LEN + entry * ENTRY_LEN;
+            int epoch = data.getInt(offset + 4);
+            int firstKey = data.getInt(offset + 8);
+            int count = data.getInt(offset + 12);
+
+            if (epoch < 0 || epoch >= Time.EPOCHS_IN_DAY || firstKey < 0 || count <= 0 || (long) firstKey + count > keyCount)
+                throw new IOException("corrupt infected key file entry " + entry);
+        }
+        return new InfectedKeyFile(data, startDay, entryCount);
+    }
+
+    /**
+     * Writes a key set in the key file format. The file is written next to its final name
+     * and renamed over it, so a reader never sees a partial file.
+     */
+    public static void write(InfectedKeySet keys, File file) throws IOException {
+
+        // entries without keys are left out, the format has none
+        int entryCount = 0;
+        int keyCount = 0;
+        for (int entry = 0; entry < keys.getEntryCount(); entry ++) {
+
+            if (keys.getKeyCount(entry) > 0) {
+                entryCount ++;
+                keyCount += keys.getKeyCount(entry);
+            }
+        }
+
+        int[] days = new int[entryCount];
+        int[] epochs = new int[entryCount];
+        int[] counts = new int[entryCount];
+        byte[] keyData = new byte[keyCount * Constants.KEY_LEN];
+        int written = 0;
+        int offset = 0;
+        for (int entry = 0; entry < keys.getEntryCount(); entry ++) {
+
+            if (keys.getKeyCount(entry) == 0)
+                continue;
+
+            days[written] = keys.getDay(entry);
+            epochs[written] = keys.getEpoch(entry);
+            counts[written] = keys.getKeyCount(entry);
+            for (int key = 0; key < counts[written]; key ++) {
+                keys.getKey(entry, key, keyData, offset);
+                offset += Constants.KEY_LEN;
+            }
+            written ++;
+        }
+        write(file, keys.getStartDay(), days, epochs, counts, keyData);
+    }
+
+    /**
+     * Writes a key file from its raw parts.
+     *
+     * @param days - day of every entry.
+     * @param epochs - epoch of every entry.
+     * @param counts - number of keys of every entry, at least 1.
+     * @param keyData - the keys of all the entries, in entry order.
+     */
+    public static void write(File file, int startDay, int[] days, int[] epochs, int[] counts, byte[] keyData) throws IOException {
+
+        for (int count : counts) {
+            if (count <= 0)
+                throw new IOException("infected key file entry without keys");
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(startDay);
+            out.writeInt(days.length);
+            out.writeInt(keyData.length / Constants.KEY_LEN);
+
+            int firstKey = 0;
+            for (int entry = 0; entry < days.length; entry ++) {
+
+                out.writeInt(days[entry]);
+                out.writeInt(epochs[entry]);
+                out.writeInt(firstKey);
+                out.writeInt(counts[entry]);
+                firstKey += counts[entry];
+            }
+            out.write(keyData);
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file))
+            throw new IOException("could not replace " + file);
+    }
+
+    @Override
+    public int getStartDay() { return mStartDay; }
+
+    @Override
+    public int getEntryCount() { return mEntryCount; }
+
+    @Override
+    public int getDay(int entry) { return mBuffer.getInt(HEADER_LEN + entry * ENTRY_LEN); }
+
+    @Override
+    public int getEpoch(int entry) { return mBuffer.getInt(HEADER_LEN + entry * ENTRY_LEN + 4); }
+
+    @Override
+    public int getKeyCount(int entry) { return mBuffer.getInt(HEADER_LEN + entry * ENTRY_LEN + 12); }
+
+    @Override
+    public void getKey(int entry, int key, byte[] dst, int dstOffset) {
+
+        int firstKey = mBuffer.getInt(HEADER_LEN + entry * ENTRY_LEN + 8);
+        int offset = mKeysOffset + (firstKey + key) * Constants.KEY_LEN;
+
+        // absolute reads, the buffer position is never touched so concurrent readers are safe
+        for (int i = 0; i < Constants.KEY_LEN; i ++) {
+            dst[dstOffset + i] = mBuffer.get(offset + i);
+        }
+    }
+}
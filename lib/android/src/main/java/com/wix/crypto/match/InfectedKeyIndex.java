@@ -0,0 +1,283 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Crypto;
+import com.wix.crypto.Time;
+import com.wix.crypto.custom.Pair;
+import com.wix.crypto.utilities.BytesUtils;
+import com.wix.crypto.utilities.DerivationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matching index over one download of infected epoch keys.
+ *
+ * Every infected key gets a slot. For each slot the index keeps the epoch MAC key and the
+ * masks of all the units of its epoch, so matching a contact needs no further key derivation.
+ * Slots are grouped by absolute epoch (day * EPOCHS_IN_DAY + epoch) and all the data lives in
+ * flat primitive arrays. The index is immutable and can be reused for as many match runs as
+ * needed, until a new infected key set arrives.
+ */
+public class InfectedKeyIndex {
+
+    private static final int BLOCK_LEN = Constants.MESSAGE_LEN;
+    private static final int MASKS_PER_SLOT = Time.UNITS_IN_EPOCH * BLOCK_LEN;
+
+    private final int mStartDay;
+    private final int mFirstEpoch;
+    // slots of absolute epoch e are [mBucketStart[e - mFirstEpoch], mBucketEnd[e - mFirstEpoch])
+    private final int[] mBucketStart;
+    private final int[] mBucketEnd;
+    private final byte[] mMasks;
+    private final byte[] mMacKeys;
+    private final byte[][] mEpochKeys;
+    private final EphemeralIdFilter mFilter;
+    private final EphemeralIdTable mJoinTable;
+
+    private InfectedKeyIndex(int startDay, int firstEpoch, int[] bucketStart, int[] bucketEnd, byte[] masks, byte[] macKeys, byte[][] epochKeys,
+                             EphemeralIdFilter filter, EphemeralIdTable joinTable) {
+        mStartDay = startDay;
+        mFirstEpoch = firstEpoch;
+        mBucketStart = bucketStart;
+        mBucketEnd = bucketEnd;
+        mMasks = masks;
+        mMacKeys = macKeys;
+        mEpochKeys = epochKeys;
+        mFilter = filter;
+        mJoinTable = joinTable;
+    }
+
+    /**
+     * Builds the index of an infected key database.
+     *
+     * @param infectedKeyDatabase - infected epoch keys by day and epoch.
+     * @return - the index, empty when the database holds no keys.
+     */
+    public static InfectedKeyIndex build(Map<Integer, Map<Integer, ArrayList<byte[]>>> infectedKeyDatabase) {
+        return build(infectedKeyDatabase, 0, false);
+    }
+
+    /**
+     * Builds the index of an infected key database, with an ephemeral id prefilter or hash join table.
+     * The join table already singles out the candidate keys of a contact, so no prefilter is built with it.
+     *
+     * @param infectedKeyDatabase - infected epoch keys by day and epoch.
+     * @param filterBitsPerEntry - bits per key and unit of the prefilter, 0 for no prefilter.
+     * @param hashJoin - build the hash join table, see {@link EphemeralIdTable}.
+     * @return - the index, empty when the database holds no keys.
+     */
+    public static InfectedKeyIndex build(Map<Integer, Map<Integer, ArrayList<byte[]>>> infectedKeyDatabase, int filterBitsPerEntry, boolean hashJoin) {
+        return build(new InfectedKeyMap(infectedKeyDatabase), filterBitsPerEntry, hashJoin);
+    }
+
+    /**
+     * Builds the index of an infected key set, with an ephemeral id prefilter or hash join table.
+     *
+     * @param keys - infected epoch keys, e.g. a mapped {@link InfectedKeyFile}.
+     * @param filterBitsPerEntry - bits per key and unit of the prefilter, 0 for no prefilter.
+     * @param hashJoin - build the hash join table, see {@link EphemeralIdTable}.
+     * @return - the index, empty when the set holds no keys.
+     */
+    public static InfectedKeyIndex build(InfectedKeySet keys, int filterBitsPerEntry, boolean hashJoin) {
+
+        int firstEpoch = Integer.MAX_VALUE;
+        int lastEpoch = Integer.MIN_VALUE;
+        int keyCount = 0;
+
+        for (int entry = 0; entry < keys.getEntryCount(); entry ++) {
+
+            if (keys.getKeyCount(entry) == 0)
+                continue;
+
+            int absoluteEpoch = absoluteEpoch(keys.getDay(entry), keys.getEpoch(entry));
+            firstEpoch = Math.min(firstEpoch, absoluteEpoch);
+            lastEpoch = Math.max(lastEpoch, absoluteEpoch);
+            keyCount += keys.getKeyCount(entry);
+        }
+
+        if (keyCount == 0)
+            return new InfectedKeyIndex(keys.getStartDay(), 0, new int[0], new int[0], new byte[0], new byte[0], new byte[0][], null, null);
+
+        int[] bucketStart = new int[lastEpoch - firstEpoch + 2];
+        for (int entry = 0; entry < keys.getEntryCount(); entry ++) {
+
+            // an empty entry may lie outside the epochs of the keys
+            if (keys.getKeyCount(entry) == 0)
+                continue;
+
+            bucketStart[absoluteEpoch(keys.getDay(entry), keys.getEpoch(entry)) - firstEpoch + 1] += keys.getKeyCount(entry);
+        }
+        for (int i = 1; i < bucketStart.length; i ++) {
+            bucketStart[i] += bucketStart[i - 1];
+        }
+
+        byte[] masks = new byte[keyCount * MASKS_PER_SLOT];
+        byte[] macKeys = new byte[keyCount * Constants.KEY_LEN];
+        byte[][] epochKeys = new byte[keyCount][];
+
+        byte[] unitBlocks = new byte[MASKS_PER_SLOT];
+        for (int unit = 0; unit < Time.UNITS_IN_EPOCH; unit ++) {
+            System.arraycopy(BytesUtils.numToBytes(unit, BLOCK_LEN), 0, unitBlocks, unit * BLOCK_LEN, BLOCK_LEN);
+        }
+
+        // next free slot of every bucket, several entries may share an epoch
+        int[] nextSlot = Arrays.copyOf(bucketStart, bucketStart.length);
+        for (int entry = 0; entry < keys.getEntryCount(); entry ++) {
+
+            if (keys.getKeyCount(entry) == 0)
+                continue;
+
+            int day = keys.getDay(entry);
+            int epoch = keys.getEpoch(entry);
+            int bucket = absoluteEpoch(day, epoch) - firstEpoch;
+
+            for (int key = 0; key < keys.getKeyCount(entry); key ++) {
+
+                int slot = nextSlot[bucket] ++;
+                byte[] epochKey = new byte[Constants.KEY_LEN];
+                keys.getKey(entry, key, epochKey, 0);
+
+                Pair<byte[], byte[]> epochEncAndMac = DerivationUtils.getEpochKeys(epochKey, day, epoch);
+                System.arraycopy(epochEncAndMac.getSecond(), 0, macKeys, slot * Constants.KEY_LEN, Constants.KEY_LEN);
+
+                // all the unit masks of the slot in one pass, encrypted in place
+                Crypto.AES(epochEncAndMac.getFirst(), unitBlocks, 0, Time.UNITS_IN_EPOCH, masks, slot * MASKS_PER_SLOT);
+
+                epochKeys[slot] = epochKey;
+            }
+        }
+
+        int numBuckets = lastEpoch - firstEpoch + 1;
+        int[] start = Arrays.copyOf(bucketStart, numBuckets);
+        int[] end = Arrays.copyOfRange(bucketStart, 1, numBuckets + 1);
+
+        EphemeralIdFilter filter = null;
+        EphemeralIdTable joinTable = null;
+        if (hashJoin)
+            joinTable = EphemeralIdTable.build(firstEpoch, start, end, masks, BLOCK_LEN);
+        else if (filterBitsPerEntry > 0)
+            filter = EphemeralIdFilter.build(firstEpoch, start, end, masks, BLOCK_LEN, filterBitsPerEntry);
+
+        return new InfectedKeyIndex(keys.getStartDay(), firstEpoch, start, end, masks, macKeys, epochKeys, filter, joinTable);
+    }
+
+    /**
+     * Returns a view of this index holding only some of its epochs.
+     * The view shares the key data, the prefilter and the join table of this index,
+     * so join candidates must still be checked against the bucket bounds of the view.
+     *
+     * @param absoluteEpochs - epochs to keep.
+     */
+    public InfectedKeyIndex retainEpochs(Set<Integer> absoluteEpochs) {
+
+        int[] bucketEnd = Arrays.copyOf(mBucketEnd, mBucketEnd.length);
+        for (int bucket = 0; bucket < bucketEnd.length; bucket ++) {
+
+            if (!absoluteEpochs.contains(mFirstEpoch + bucket))
+                bucketEnd[bucket] = mBucketStart[bucket];
+        }
+        return new InfectedKeyIndex(mStartDay, mFirstEpoch, mBucketStart, bucketEnd, mMasks, mMacKeys, mEpochKeys, mFilter, mJoinTable);
+    }
+
+    public static int absoluteEpoch(int day, int epoch) {
+        return day * Time.EPOCHS_IN_DAY + epoch;
+    }
+
+    /**
+     * @param absoluteEpoch - day * EPOCHS_IN_DAY + epoch.
+     * @return - first slot of the keys of that epoch.
+     */
+    public int getBucketStart(int absoluteEpoch) {
+
+        int bucket = absoluteEpoch - mFirstEpoch;
+        if (bucket < 0 || bucket >= mBucketStart.length)
+            return 0;
+
+        return mBucketStart[bucket];
+    }
+
+    /**
+     * @param absoluteEpoch - day * EPOCHS_IN_DAY + epoch.
+     * @return - the slot after the last key of that epoch.
+     */
+    public int getBucketEnd(int absoluteEpoch) {
+
+        int bucket = absoluteEpoch - mFirstEpoch;
+        if (bucket < 0 || bucket >= mBucketEnd.length)
+            return 0;
+
+        return mBucketEnd[bucket];
+    }
+
+    /**
+     * Order independent digest of the keys of an epoch, used to tell whether a bucket changed
+     * between two key downloads.
+     */
+    public int getBucketFingerprint(int absoluteEpoch) {
+
+        int fingerprint = 0;
+        for (int slot = getBucketStart(absoluteEpoch); slot < getBucketEnd(absoluteEpoch); slot ++) {
+            fingerprint += Arrays.hashCode(mEpochKeys[slot]);
+        }
+        return fingerprint;
+    }
+
+    public byte[] getMask(int slot, int unit) {
+
+        int offset = slot * MASKS_PER_SLOT + unit * BLOCK_LEN;
+        return Arrays.copyOfRange(mMasks, offset, offset + BLOCK_LEN);
+    }
+
+    public byte[] getMacKey(int slot) {
+        return Arrays.copyOfRange(mMacKeys, slot * Constants.KEY_LEN, (slot + 1) * Constants.KEY_LEN);
+    }
+
+    public byte[] getEpochKey(int slot) { return mEpochKeys[slot]; }
+
+    // raw key data for the matcher, callers must not modify it
+    byte[] getMaskData() { return mMasks; }
+
+    int getMaskOffset(int slot, int unit) { return slot * MASKS_PER_SLOT + unit * BLOCK_LEN; }
+
+    byte[] getMacKeyData() { return mMacKeys; }
+
+    /**
+     * Check whether an infected key was published for a given epoch.
+     */
+    public boolean containsKey(int day, int epoch, byte[] epochKey) {
+
+        int absoluteEpoch = absoluteEpoch(day, epoch);
+        for (int slot = getBucketStart(absoluteEpoch); slot < getBucketEnd(absoluteEpoch); slot ++) {
+
+            if (Arrays.equals(mEpochKeys[slot], epochKey))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return - the ephemeral id prefilter, null when the index was built without one.
+     */
+    public EphemeralIdFilter getFilter() { return mFilter; }
+
+    /**
+     * @return - the hash join table, null when the index was built without one.
+     */
+    public EphemeralIdTable getJoinTable() { return mJoinTable; }
+
+    public int getStartDay() { return mStartDay; }
+
+    public int getFirstEpoch() { return mFirstEpoch; }
+
+    /**
+     * @return - the epoch after the last epoch of the index.
+     */
+    public int getEndEpoch() { return mFirstEpoch + mBucketStart.length; }
+
+    public int size() { return mEpochKeys.length; }
+
+    public boolean isEmpty() { return mEpochKeys.length == 0; }
+}
@@ -0,0 +1,64 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link InfectedKeySet} over an infected key database parsed from json,
+ * see {@link com.wix.specialble.util.ParseUtils#extractInfectedDbFromJson}.
+ */
+public class InfectedKeyMap implements InfectedKeySet {
+
+    private final int mStartDay;
+    private final List<int[]> mEntries = new ArrayList<>();
+    private final List<ArrayList<byte[]>> mKeys = new ArrayList<>();
+
+    /**
+     * @param infectedKeyDatabase - infected epoch keys by day and epoch.
+     */
+    public InfectedKeyMap(Map<Integer, Map<Integer, ArrayList<byte[]>>> infectedKeyDatabase) {
+
+        int startDay = Constants.None;
+        for (Map.Entry<Integer, Map<Integer, ArrayList<byte[]>>> day : infectedKeyDatabase.entrySet()) {
+
+            if (startDay == Constants.None || day.getKey() < startDay)
+                startDay = day.getKey();
+
+            if (day.getValue() == null)
+                continue;
+
+            for (Map.Entry<Integer, ArrayList<byte[]>> epoch : day.getValue().entrySet()) {
+
+                if (epoch.getValue() == null || epoch.getValue().isEmpty())
+                    continue;
+
+                mEntries.add(new int[] {day.getKey(), epoch.getKey()});
+                mKeys.add(epoch.getValue());
+            }
+        }
+        mStartDay = startDay;
+    }
+
+    @Override
+    public int getStartDay() { return mStartDay; }
+
+    @Override
+    public int getEntryCount() { return mEntries.size(); }
+
+    @Override
+    public int getDay(int entry) { return mEntries.get(entry)[0]; }
+
+    @Override
+    public int getEpoch(int entry) { return mEntries.get(entry)[1]; }
+
+    @Override
+    public int getKeyCount(int entry) { return mKeys.get(entry).size(); }
+
+    @Override
+    public void getKey(int entry, int key, byte[] dst, int dstOffset) {
+        System.arraycopy(mKeys.get(entry).get(key), 0, dst, dstOffset, Constants.KEY_LEN);
+    }
+}
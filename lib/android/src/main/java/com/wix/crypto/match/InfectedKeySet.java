@@ -0,0 +1,34 @@
+package com.wix.crypto.match;
+
+/**
+ * Read access to a set of infected epoch keys, grouped in (day, epoch) entries.
+ *
+ * Lets the matching index be built straight from the storage the keys arrived in, see
+ * {@link InfectedKeyMap} for the parsed json database and {@link InfectedKeyFile} for the
+ * binary key file.
+ */
+public interface InfectedKeySet {
+
+    /**
+     * @return - first day covered by the set, Constants.None when the set covers no day.
+     */
+    int getStartDay();
+
+    int getEntryCount();
+
+    int getDay(int entry);
+
+    int getEpoch(int entry);
+
+    int getKeyCount(int entry);
+
+    /**
+     * Copies a key of an entry.
+     *
+     * @param entry - entry of the key.
+     * @param key - index of the key in its entry.
+     * @param dst - receives the KEY_LEN bytes of the key.
+     * @param dstOffset - offset of the key in dst.
+     */
+    void getKey(int entry, int key, byte[] dst, int dstOffset);
+}
@@ -0,0 +1,378 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.KeyDelta;
+import com.wix.crypto.Time;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The infected keys downloaded so far, built up from the deltas of the server and kept on disk.
+ *
+ * The keys are partitioned by day, one {@link InfectedKeyFile} per day in the store directory, so
+ * a delta only rewrites the days it adds keys to and a day that ages out is dropped by deleting its
+ * file. A key the day already holds is not added again. The partitions are memory mapped, and a
+ * {@link #snapshot()} reads the keys of every day straight from the mappings, one (day, epoch)
+ * block after the other.
+ *
+ * The store remembers the sequence of the last delta it applied, so the next download only holds
+ * the keys published after it, see {@link com.wix.crypto.Server#send_keys(long)}. The sequence is
+ * written after the partitions: when a crash loses it, the same delta is downloaded again and its
+ * keys are skipped as duplicates. A partition that can not be read is deleted and the sequence goes
+ * back to 0, so the next download is a full one.
+ */
+public class InfectedKeyStore {
+
+    public static final int SEQUENCE_MAGIC = 0x49534551;
+    public static final int SEQUENCE_VERSION = 1;
+
+    private static final String DAY_PREFIX = "day_";
+    private static final String DAY_SUFFIX = ".ikey";
+    private static final String SEQUENCE_FILE = "sequence";
+
+    private final File mDir;
+    private final TreeMap<Integer, InfectedKeyFile> mDays = new TreeMap<>();
+    private long mSequence;
+    private int mVersion;
+    private boolean mLoaded;
+
+    /**
+     * @param dir - directory of the store, created on the first write.
+     */
+    public InfectedKeyStore(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * @return - sequence of the last applied delta, 0 when nothing was applied.
+     */
+    public synchronized long getSequence() {
+
+        load();
+        return mSequence;
+    }
+
+    public synchronized int getKeyCount() {
+
+        load();
+        int count = 0;
+        for (InfectedKeyFile day : mDays.values()) {
+            for (int entry = 0; entry < day.getEntryCount(); entry ++) {
+                count += day.getKeyCount(entry);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return - a number that changes whenever the keys of the store change.
+     */
+    public synchronized int getVersion() { return mVersion; }
+
+    /**
+     * Merges a delta into the store. A delta after sequence 0 holds all the keys of the server and
+     * replaces the content of the store.
+     *
+     * @param firstDay - first day kept, earlier days and their keys in the delta are dropped.
+     * @return - false when the delta does not start at the sequence of the store and was not applied,
+     * applying it would miss keys.
+     */
+    public synchronized boolean apply(KeyDelta delta, int firstDay) throws IOException {
+
+        load();
+        if (delta.getAfterSequence() == 0)
+            clear();
+        else if (delta.getAfterSequence() != mSequence)
+            return false;
+
+        dropBefore(firstDay);
+        for (Map.Entry<Integer, Map<Integer, ArrayList<byte[]>>> day : new TreeMap<>(delta.getKeys()).entrySet()) {
+
+            if (day.getKey() >= firstDay)
+                mergeDay(day.getKey(), day.getValue());
+        }
+
+        writeSequence(delta.getSequence());
+        mVersion ++;
+        return true;
+    }
+
+    /**
+     * Drops the days earlier than a day.
+     */
+    public synchronized void dropBefore(int day) throws IOException {
+
+        load();
+        Map<Integer, InfectedKeyFile> expired = mDays.headMap(day);
+        if (expired.isEmpty())
+            return;
+
+        for (int expiredDay : new ArrayList<>(expired.keySet())) {
+
+            File file = getDayFile(expiredDay);
+            if (file.exists() && !file.delete())
+                throw new IOException("could not delete " + file);
+
+            mDays.remove(expiredDay);
+        }
+        mVersion ++;
+    }
+
+    /**
+     * @return - the keys of the store, later deltas do not change them.
+     */
+    public synchronized InfectedKeySet snapshot() {
+
+        load();
+        return new Snapshot(new ArrayList<>(mDays.values()));
+    }
+
+    /**
+     * Forgets every key, the next download starts over from sequence 0.
+     */
+    public synchronized void clear() throws IOException {
+
+        load();
+        writeSequence(0);
+        for (int day : mDays.keySet()) {
+
+            File file = getDayFile(day);
+            if (file.exists() && !file.delete())
+                throw new IOException("could not delete " + file);
+        }
+        mDays.clear();
+        mVersion ++;
+    }
+
+    /**
+     * Maps the partitions and reads the sequence, once.
+     */
+    private void load() {
+
+        if (mLoaded)
+            return;
+
+        mLoaded = true;
+        File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+
+        boolean lost = false;
+        for (File file : files) {
+
+            String name = file.getName();
+            if (!name.startsWith(DAY_PREFIX) || !name.endsWith(DAY_SUFFIX)) {
+
+                // left by an interrupted write
+                if (name.endsWith(".tmp"))
+                    file.delete();
+                continue;
+            }
+
+            try {
+                int day = Integer.parseInt(name.substring(DAY_PREFIX.length(), name.length() - DAY_SUFFIX.length()));
+                mDays.put(day, InfectedKeyFile.open(file));
+            } catch (NumberFormatException | IOException e) {
+                e.printStackTrace();
+                file.delete();
+                lost = true;
+            }
+        }
+
+        mSequence = lost ? 0 : readSequence();
+    }
+
+    /**
+     * Rewrites the partition of a day with the keys it holds and the new ones.
+     */
+    private void mergeDay(int day, Map<Integer, ArrayList<byte[]>> newKeys) throws IOException {
+
+        InfectedKeyFile old = mDays.get(day);
+        int[] oldEntries = new int[Time.EPOCHS_IN_DAY];
+        Arrays.fill(oldEntries, Constants.None);
+        if (old != null) {
+            for (int entry = 0; entry < old.getEntryCount(); entry ++) {
+                oldEntries[old.getEpoch(entry)] = entry;
+            }
+        }
+
+        List<Integer> epochs = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        ByteArrayOutputStream keyData = new ByteArrayOutputStream();
+        boolean added = false;
+
+        byte[] key = new byte[Constants.KEY_LEN];
+        for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+
+            ArrayList<byte[]> epochKeys = newKeys.get(epoch);
+            int oldEntry = oldEntries[epoch];
+            if (oldEntry == Constants.None && (epochKeys == null || epochKeys.isEmpty()))
+                continue;
+
+            Set<ByteBuffer> known = new HashSet<>();
+            int count = 0;
+            if (oldEntry != Constants.None) {
+                for (int k = 0; k < old.getKeyCount(oldEntry); k ++) {
+
+                    old.getKey(oldEntry, k, key, 0);
+                    known.add(ByteBuffer.wrap(key.clone()));
+                    keyData.write(key, 0, Constants.KEY_LEN);
+                    count ++;
+                }
+            }
+
+            if (epochKeys != null) {
+                for (byte[] newKey : epochKeys) {
+
+                    if (newKey.length != Constants.KEY_LEN || !known.add(ByteBuffer.wrap(newKey)))
+                        continue;
+
+                    keyData.write(newKey, 0, Constants.KEY_LEN);
+                    count ++;
+                    added = true;
+                }
+            }
+
+            if (count > 0) {
+                epochs.add(epoch);
+                counts.add(count);
+            }
+        }
+
+        if (!added)
+            return;
+
+        int[] entryDays = new int[epochs.size()];
+        int[] entryEpochs = new int[epochs.size()];
+        int[] entryCounts = new int[epochs.size()];
+        for (int entry = 0; entry < entryDays.length; entry ++) {
+
+            entryDays[entry] = day;
+            entryEpochs[entry] = epochs.get(entry);
+            entryCounts[entry] = counts.get(entry);
+        }
+
+        if (!mDir.isDirectory() && !mDir.mkdirs())
+            throw new IOException("could not create " + mDir);
+
+        File file = getDayFile(day);
+        InfectedKeyFile.write(file, day, entryDays, entryEpochs, entryCounts, keyData.toByteArray());
+        mDays.put(day, InfectedKeyFile.open(file));
+    }
+
+    private File getDayFile(int day) {
+        return new File(mDir, DAY_PREFIX + day + DAY_SUFFIX);
+    }
+
+    private long readSequence() {
+
+        File file = new File(mDir, SEQUENCE_FILE);
+        if (!file.exists())
+            return 0;
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readInt() != SEQUENCE_MAGIC || in.readInt() != SEQUENCE_VERSION)
+                    return 0;
+
+                return in.readLong();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private void writeSequence(long sequence) throws IOException {
+
+        if (!mDir.isDirectory() && !mDir.mkdirs())
+            throw new IOException("could not create " + mDir);
+
+        File file = new File(mDir, SEQUENCE_FILE);
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(fileOut);
+        try {
+            out.writeInt(SEQUENCE_MAGIC);
+            out.writeInt(SEQUENCE_VERSION);
+            out.writeLong(sequence);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file))
+            throw new IOException("could not replace " + file);
+
+        mSequence = sequence;
+    }
+
+    /**
+     * The entries of the day partitions, one partition after the other.
+     */
+    private static class Snapshot implements InfectedKeySet {
+
+        private final List<InfectedKeyFile> mDays;
+        private final int[] mDayOfEntry;
+        private final int[] mFirstEntry;
+
+        Snapshot(List<InfectedKeyFile> days) {
+
+            mDays = days;
+            mFirstEntry = new int[days.size()];
+            int entryCount = 0;
+            for (int day = 0; day < days.size(); day ++) {
+
+                mFirstEntry[day] = entryCount;
+                entryCount += days.get(day).getEntryCount();
+            }
+
+            mDayOfEntry = new int[entryCount];
+            for (int day = 0; day < days.size(); day ++) {
+                Arrays.fill(mDayOfEntry, mFirstEntry[day], mFirstEntry[day] + days.get(day).getEntryCount(), day);
+            }
+        }
+
+        @Override
+        public int getStartDay() { return mDays.isEmpty() ? Constants.None : mDays.get(0).getStartDay(); }
+
+        @Override
+        public int getEntryCount() { return mDayOfEntry.length; }
+
+        @Override
+        public int getDay(int entry) { return file(entry).getDay(local(entry)); }
+
+        @Override
+        public int getEpoch(int entry) { return file(entry).getEpoch(local(entry)); }
+
+        @Override
+        public int getKeyCount(int entry) { return file(entry).getKeyCount(local(entry)); }
+
+        @Override
+        public void getKey(int entry, int key, byte[] dst, int dstOffset) {
+            file(entry).getKey(local(entry), key, dst, dstOffset);
+        }
+
+        private InfectedKeyFile file(int entry) { return mDays.get(mDayOfEntry[entry]); }
+
+        private int local(int entry) { return entry - mFirstEntry[mDayOfEntry[entry]]; }
+    }
+}
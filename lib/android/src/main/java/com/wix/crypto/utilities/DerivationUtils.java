@@ -2,6 +2,7 @@ package com.wix.crypto.utilities;
 
 import com.wix.crypto.Constants;
 import com.wix.crypto.Crypto;
+import com.wix.crypto.Time;
 import com.wix.crypto.custom.Pair;
 
 import java.util.Arrays;
@@ -11,6 +12,18 @@ import java.util.Arrays;
  */
 public class DerivationUtils {
 
+    /**
+     * Bytes per day written by {@link #getDayKeys}: day key, verification key and commitment key.
+     */
+    public static final int DAY_KEYS_LEN = 3 * Constants.KEY_LEN;
+
+    /**
+     * Bytes per epoch written by {@link #getEpochKeysOfDay}: pre, epoch, enc, mac and ver keys.
+     */
+    public static final int EPOCH_KEYS_LEN = 5 * Constants.KEY_LEN;
+
+    private static final int BLOCK_LEN = Constants.MESSAGE_LEN;
+
     public static final byte[] getKeyId(byte[] masterKey) {
 
         byte[] message = Constants.ENCODED_STRINGS.get("id");
@@ -90,12 +103,12 @@ public class DerivationUtils {
         byte[] zeroByteTen = new byte[]    {0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
 
 
-        byte[] epochEnc = Crypto.AES(epochKey, BytesUtils.byteConcatenation(prefix, zeroByteEleven));
-
-        byte[] message = BytesUtils.byteConcatenation(prefix, zeroByteTen);
-        byte[] epochMac = Crypto.AES(epochKey, message);
+        byte[] message = BytesUtils.byteConcatenation(BytesUtils.byteConcatenation(prefix, zeroByteEleven),
+                BytesUtils.byteConcatenation(prefix, zeroByteTen));
+        byte[] epochEncAndMac = Crypto.AES(epochKey, message);
 
-        return new Pair<>(epochEnc, epochMac);
+        return new Pair<>(Arrays.copyOf(epochEncAndMac, Constants.KEY_LEN),
+                Arrays.copyOfRange(epochEncAndMac, Constants.KEY_LEN, 2 * Constants.KEY_LEN));
     }
 
     public static byte[] getKeyForDayI(byte[] dayMasterKey) {
@@ -103,4 +116,118 @@ public class DerivationUtils {
         byte[] dayKey = Crypto.HMAC(dayMasterKey, Constants.ENCODED_STRINGS.get("ddaykey"));
         return Arrays.copyOf(dayKey, Constants.KEY_LEN);
     }
+
+    /**
+     * Derives the keys of consecutive days in one pass, the batch form of {@link #getNextDayMasterKey},
+     * {@link #getKeyForDayI}, {@link #getKeyVerificationForDayI} and {@link #getKeyCommitmentForDayI}.
+     * The commitment keys of all the days are a single AES pass and the message buffers are reused.
+     *
+     * @param firstDay - first day to derive.
+     * @param numDays - number of days to derive.
+     * @param dayMasterKey - master key of the first day.
+     * @param output - receives DAY_KEYS_LEN bytes per day, laid out as DayKey#toBytes.
+     * @return - master key of the day after the last one, or null when the derivation failed.
+     */
+    public static byte[] getDayKeys(int firstDay, int numDays, byte[] dayMasterKey, byte[] keyMasterVerification,
+                                    byte[] keyMasterCommitment, byte[] output, int outputOffset) {
+
+        byte[] dayKeyMessage = Constants.ENCODED_STRINGS.get("ddaykey");
+        byte[] masterMessage = Constants.ENCODED_STRINGS.get("master");
+        byte[] verificationLabel = Constants.ENCODED_STRINGS.get("dverif");
+
+        byte[] verificationMessage = new byte[4 + verificationLabel.length];
+        System.arraycopy(verificationLabel, 0, verificationMessage, 4, verificationLabel.length);
+
+        // day || zeros, one block per day
+        byte[] commitmentMessages = new byte[numDays * BLOCK_LEN];
+        byte[] commitments = new byte[numDays * BLOCK_LEN];
+
+        byte[] masterKey = Arrays.copyOf(dayMasterKey, Constants.KEY_LEN);
+        boolean ok = true;
+        for (int i = 0; i < numDays; i ++) {
+
+            int offset = outputOffset + i * DAY_KEYS_LEN;
+            putDay(firstDay + i, verificationMessage, 0);
+            putDay(firstDay + i, commitmentMessages, i * BLOCK_LEN);
+
+            ok &= Crypto.HMAC(masterKey, 0, Constants.KEY_LEN, dayKeyMessage, 0, dayKeyMessage.length, output, offset, Constants.KEY_LEN);
+            ok &= Crypto.HMAC(keyMasterVerification, 0, keyMasterVerification.length, verificationMessage, 0, verificationMessage.length,
+                    output, offset + Constants.KEY_LEN, Constants.KEY_LEN);
+            ok &= Crypto.HMAC(masterKey, 0, Constants.KEY_LEN, masterMessage, 0, masterMessage.length, masterKey, 0, Constants.KEY_LEN);
+        }
+
+        ok &= Crypto.AES(keyMasterCommitment, commitmentMessages, 0, numDays, commitments, 0);
+        for (int i = 0; i < numDays; i ++) {
+            System.arraycopy(commitments, i * BLOCK_LEN, output, outputOffset + i * DAY_KEYS_LEN + 2 * Constants.KEY_LEN, Constants.KEY_LEN);
+        }
+        return ok ? masterKey : null;
+    }
+
+    /**
+     * Derives the keys of all the epochs of a day in one pass, the batch form of EpochKey's
+     * constructor. The pre keys and the verification keys of the day are one AES pass each.
+     *
+     * @param dayKey - day key, see {@link #getKeyForDayI}.
+     * @param dayVerificationKey - see {@link #getKeyVerificationForDayI}.
+     * @param dayCommitmentKey - see {@link #getKeyCommitmentForDayI}.
+     * @param output - receives EPOCH_KEYS_LEN bytes per epoch, laid out as EpochKey#toBytes.
+     * @return - false when the derivation failed.
+     */
+    public static boolean getEpochKeysOfDay(int day, byte[] dayKey, byte[] dayVerificationKey, byte[] dayCommitmentKey,
+                                            byte[] output, int outputOffset) {
+
+        int epochs = Time.EPOCHS_IN_DAY;
+
+        // day || epoch || zeros, one block per epoch, then the same with the mac flag for every epoch
+        byte[] messages = new byte[2 * epochs * BLOCK_LEN];
+        for (int epoch = 0; epoch < epochs; epoch ++) {
+
+            putDay(day, messages, 2 * epoch * BLOCK_LEN);
+            messages[2 * epoch * BLOCK_LEN + 4] = (byte) epoch;
+            System.arraycopy(messages, 2 * epoch * BLOCK_LEN, messages, (2 * epoch + 1) * BLOCK_LEN, 5);
+            messages[(2 * epoch + 1) * BLOCK_LEN + 5] = 0x01;
+        }
+
+        // the pre and ver messages are the even blocks, pack them for a single pass each
+        byte[] plain = new byte[epochs * BLOCK_LEN];
+        for (int epoch = 0; epoch < epochs; epoch ++) {
+            System.arraycopy(messages, 2 * epoch * BLOCK_LEN, plain, epoch * BLOCK_LEN, BLOCK_LEN);
+        }
+
+        byte[] preKeys = new byte[epochs * BLOCK_LEN];
+        byte[] verKeys = new byte[epochs * BLOCK_LEN];
+        boolean ok = Crypto.AES(dayKey, plain, 0, epochs, preKeys, 0);
+        ok &= Crypto.AES(dayVerificationKey, plain, 0, epochs, verKeys, 0);
+
+        byte[] epochLabel = Constants.ENCODED_STRINGS.get("depoch");
+        byte[] epochMessage = new byte[Constants.KEY_LEN + 5 + epochLabel.length];
+        System.arraycopy(dayCommitmentKey, 0, epochMessage, 0, Constants.KEY_LEN);
+        putDay(day, epochMessage, Constants.KEY_LEN);
+        System.arraycopy(epochLabel, 0, epochMessage, Constants.KEY_LEN + 5, epochLabel.length);
+
+        for (int epoch = 0; epoch < epochs; epoch ++) {
+
+            int offset = outputOffset + epoch * EPOCH_KEYS_LEN;
+            System.arraycopy(preKeys, epoch * BLOCK_LEN, output, offset, Constants.KEY_LEN);
+
+            epochMessage[Constants.KEY_LEN + 4] = (byte) epoch;
+            ok &= Crypto.HMAC(preKeys, epoch * BLOCK_LEN, Constants.KEY_LEN, epochMessage, 0, epochMessage.length,
+                    output, offset + Constants.KEY_LEN, Constants.KEY_LEN);
+
+            // enc and mac blocks, encrypted straight into place
+            ok &= Crypto.AES(output, offset + Constants.KEY_LEN, messages, 2 * epoch * BLOCK_LEN, 2, output, offset + 2 * Constants.KEY_LEN);
+
+            System.arraycopy(verKeys, epoch * BLOCK_LEN, output, offset + 4 * Constants.KEY_LEN, Constants.KEY_LEN);
+        }
+        return ok;
+    }
+
+    // little endian, as BytesUtils.numToBytes
+    private static void putDay(int day, byte[] dst, int offset) {
+
+        dst[offset] = (byte) day;
+        dst[offset + 1] = (byte) (day >> 8);
+        dst[offset + 2] = (byte) (day >> 16);
+        dst[offset + 3] = (byte) (day >> 24);
+    }
 }
@@ -123,6 +123,7 @@ public class BLEForegroundService extends Service {
         if (bleManager != null) {
             bleManager.stopScan();
             bleManager.stopAdvertise();
+            bleManager.flushScans();
         }
         this.handler.removeCallbacksAndMessages(null);
 
@@ -7,6 +7,7 @@ import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.wix.specialble.bt.Device;
 import com.wix.specialble.bt.Scan;
@@ -72,4 +73,33 @@ public class EventToJSDispatcher implements IEventListener {
         WritableMap params = newScan.toWritableMap();
         dispatch("foundScan",params);
     }
+
+    public void sendMatchProgress(int jobId, int scannedContacts, int totalContacts, int matches, long etaMillis) {
+        WritableMap params = new WritableNativeMap();
+        params.putInt("jobId", jobId);
+        params.putInt("scannedContacts", scannedContacts);
+        params.putInt("totalContacts", totalContacts);
+        params.putInt("matches", matches);
+        params.putDouble("etaMillis", etaMillis);
+        dispatch("matchProgress", params);
+    }
+
+    public void sendMatchBatch(int jobId, int day, String results) {
+        WritableMap params = new WritableNativeMap();
+        params.putInt("jobId", jobId);
+        params.putInt("day", day);
+        params.putString("results", results);
+        dispatch("matchBatch", params);
+    }
+
+    public void sendMatchCompleted(int jobId, int totalResults, boolean cancelled, String error) {
+        WritableMap params = new WritableNativeMap();
+        params.putInt("jobId", jobId);
+        params.putInt("totalResults", totalResults);
+        params.putBoolean("cancelled", cancelled);
+        if (error != null) {
+            params.putString("error", error);
+        }
+        dispatch("matchCompleted", params);
+    }
 }
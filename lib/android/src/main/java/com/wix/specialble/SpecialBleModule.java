@@ -34,9 +34,12 @@ import com.google.gson.reflect.TypeToken;
 import com.wix.crypto.Contact;
 import com.wix.crypto.Crypto;
 import com.wix.crypto.CryptoManager;
+import com.wix.crypto.KeyDelta;
 import com.wix.crypto.Match;
+import com.wix.crypto.MatchJob;
 import com.wix.crypto.MatchResponse;
 import com.wix.crypto.User;
+import com.wix.crypto.match.InfectedKeyIndex;
 import com.wix.crypto.utilities.BytesUtils;
 import com.wix.crypto.utilities.DerivationUtils;
 import com.wix.crypto.utilities.Hex;
@@ -44,9 +47,11 @@ import com.wix.specialble.activities.BatteryOptimizationHolderActivity;
 import com.wix.specialble.bt.BLEManager;
 import com.wix.specialble.bt.Device;
 import com.wix.specialble.bt.Scan;
+import com.wix.specialble.bt.ScanSummary;
 import com.wix.specialble.config.Config;
 import com.wix.specialble.db.DBClient;
 import com.wix.specialble.kays.PublicKey;
+import com.wix.specialble.scheduler.TaskScheduler;
 import com.wix.specialble.util.CSVUtil;
 import com.wix.specialble.util.DeviceUtil;
 import com.wix.specialble.util.ParseUtils;
@@ -170,8 +175,19 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void cleanDevicesDB() {
-        DBClient.getInstance(reactContext).clearAllDevices();
+    public void cleanDevicesDB(final Promise promise) {
+        TaskScheduler.getInstance().getMaintenanceLane().executeRequired(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bleManager.clearAllDevices();
+                    promise.resolve(null);
+                } catch (Exception e) {
+                    Log.e(TAG, "cleanDevicesDB: " + e.getMessage(), e);
+                    promise.reject("cleanDevicesDB", e);
+                }
+            }
+        });
     }
 
     @ReactMethod
@@ -185,8 +201,19 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void cleanScansDB() {
-        DBClient.getInstance(reactContext).clearAllScans();
+    public void cleanScansDB(final Promise promise) {
+        TaskScheduler.getInstance().getMaintenanceLane().executeRequired(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bleManager.clearAllScans();
+                    promise.resolve(null);
+                } catch (Exception e) {
+                    Log.e(TAG, "cleanScansDB: " + e.getMessage(), e);
+                    promise.reject("cleanScansDB", e);
+                }
+            }
+        });
     }
 
     @ReactMethod
@@ -210,6 +237,26 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
     }
 
 
+    @ReactMethod
+    public void getAllScanSummaries(Callback callback) {
+        List<ScanSummary> summaries = bleManager.getAllScanSummaries();
+        WritableArray retArray = new WritableNativeArray();
+        for (ScanSummary summary : summaries) {
+            retArray.pushMap(summary.toWritableMap());
+        }
+        callback.invoke(retArray);
+    }
+
+    @ReactMethod
+    public void getScanSummariesByKey(String pubKey, Callback callback) {
+        List<ScanSummary> summaries = bleManager.getScanSummariesByKey(pubKey);
+        WritableArray retArray = new WritableNativeArray();
+        for (ScanSummary summary : summaries) {
+            retArray.pushMap(summary.toWritableMap());
+        }
+        callback.invoke(retArray);
+    }
+
     @ReactMethod
     public void setPublicKeys(ReadableArray pubKeys) {
         ArrayList<PublicKey> pkList = new ArrayList<>();
@@ -241,6 +288,16 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
         configMap.putString("notificationLargeIconPath", config.getLargeNotificationIconPath());
         configMap.putString("notificationSmallIconPath", config.getSmallNotificationIconPath());
         configMap.putBoolean("disableBatteryOptimization", config.getDisableBatteryOptimization());
+        configMap.putInt("matchFilterBitsPerEntry", config.getMatchFilterBitsPerEntry());
+        configMap.putBoolean("matchHashJoin", config.getMatchHashJoin());
+        configMap.putInt("scanFlushSize", config.getScanFlushSize());
+        configMap.putDouble("scanFlushLatency", config.getScanFlushLatency());
+        configMap.putInt("scanQueueCapacity", config.getScanQueueCapacity());
+        configMap.putDouble("deviceFlushInterval", config.getDeviceFlushInterval());
+        configMap.putBoolean("scanAggregation", config.getScanAggregation());
+        configMap.putDouble("scanAggregationWindow", config.getScanAggregationWindow());
+        configMap.putBoolean("keepRawScans", config.getKeepRawScans());
+        configMap.putDouble("scanDedupeInterval", config.getScanDedupeInterval());
         callback.invoke(configMap);
     }
 
@@ -262,71 +319,118 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
         config.setLargeNotificationIconPath(configMap.getString("notificationLargeIconPath"));
         config.setSmallNotificationIconPath(configMap.getString("notificationSmallIconPath"));
         config.setDisableBatteryOptimization(configMap.getBoolean("disableBatteryOptimization"));
+        if (configMap.hasKey("matchFilterBitsPerEntry"))
+            config.setMatchFilterBitsPerEntry(configMap.getInt("matchFilterBitsPerEntry"));
+        if (configMap.hasKey("matchHashJoin"))
+            config.setMatchHashJoin(configMap.getBoolean("matchHashJoin"));
+        if (configMap.hasKey("scanFlushSize"))
+            config.setScanFlushSize(configMap.getInt("scanFlushSize"));
+        if (configMap.hasKey("scanFlushLatency"))
+            config.setScanFlushLatency((long) configMap.getDouble("scanFlushLatency"));
+        if (configMap.hasKey("scanQueueCapacity"))
+            config.setScanQueueCapacity(configMap.getInt("scanQueueCapacity"));
+        if (configMap.hasKey("deviceFlushInterval"))
+            config.setDeviceFlushInterval((long) configMap.getDouble("deviceFlushInterval"));
+        if (configMap.hasKey("scanAggregation"))
+            config.setScanAggregation(configMap.getBoolean("scanAggregation"));
+        if (configMap.hasKey("scanAggregationWindow"))
+            config.setScanAggregationWindow((long) configMap.getDouble("scanAggregationWindow"));
+        if (configMap.hasKey("keepRawScans"))
+            config.setKeepRawScans(configMap.getBoolean("keepRawScans"));
+        if (configMap.hasKey("scanDedupeInterval"))
+            config.setScanDedupeInterval((long) configMap.getDouble("scanDedupeInterval"));
     }
 
     @ReactMethod
     public void exportAdvertiseAsCSV() {
-
-        try {
-            CSVUtil.saveAllAdvertiseAsCSV(reactContext, bleManager.getAllAdvertiseData());
-            shareFile(CSVUtil.getAdvertiseCsvFile(reactContext));
-        }
-        catch (Exception e) {
-            Log.e(TAG, "exportAdvertiseAsCSV" + e.getMessage(), e );
-        }
-
+        TaskScheduler.getInstance().getMaintenanceLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CSVUtil.saveAllAdvertiseAsCSV(reactContext, bleManager.getAllAdvertiseData());
+                    shareFile(CSVUtil.getAdvertiseCsvFile(reactContext));
+                }
+                catch (Exception e) {
+                    Log.e(TAG, "exportAdvertiseAsCSV" + e.getMessage(), e );
+                }
+            }
+        });
     }
 
     @ReactMethod
     public void exportScansDataAsCSV() {
-        try {
-            CSVUtil.saveAllScansDataAsCSV(reactContext, bleManager.getAllScansData());
-            shareFile(CSVUtil.getScansDataCsvFile(reactContext));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
+        TaskScheduler.getInstance().getMaintenanceLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CSVUtil.saveAllScansDataAsCSV(reactContext, bleManager.getAllScansData());
+                    shareFile(CSVUtil.getScansDataCsvFile(reactContext));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
     }
 
     @ReactMethod
     public void exportAllDevicesCsv() {
-        try {
-            CSVUtil.saveAllDevicesAsCSV(reactContext, bleManager.getAllDevices());
-            shareFile(CSVUtil.getDevicesCsvFile(reactContext));
-        } catch (Exception e) {
-            Log.e(TAG, "exportAllDevicesCsv: " + e.getMessage(), e); //handle exception
-        }
+        TaskScheduler.getInstance().getMaintenanceLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CSVUtil.saveAllDevicesAsCSV(reactContext, bleManager.getAllDevices());
+                    shareFile(CSVUtil.getDevicesCsvFile(reactContext));
+                } catch (Exception e) {
+                    Log.e(TAG, "exportAllDevicesCsv: " + e.getMessage(), e); //handle exception
+                }
+            }
+        });
     }
 
     @ReactMethod
     public void exportAllScansCsv() {
-        try {
-            CSVUtil.saveAllScansAsCSV(reactContext, bleManager.getAllScans());
-            shareFile(CSVUtil.getScansCsvFile(reactContext));
-        } catch (Exception e) {
-            Log.e(TAG, "exportAllScansCsv: " + e.getMessage(), e); //handle exception
-        }
+        TaskScheduler.getInstance().getMaintenanceLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CSVUtil.saveAllScansAsCSV(reactContext, bleManager.getAllScans());
+                    shareFile(CSVUtil.getScansCsvFile(reactContext));
+                } catch (Exception e) {
+                    Log.e(TAG, "exportAllScansCsv: " + e.getMessage(), e); //handle exception
+                }
+            }
+        });
     }
 
     @ReactMethod
-    public void exportScansByKeyAsCSV(String key) {
-        try {
-            CSVUtil.saveScansByKeyAsCsv(reactContext, bleManager.getScansByKey(key), key);
-            shareFile(CSVUtil.getScanByKeyCsvFile(reactContext, key));
-        } catch (Exception e) {
-            Log.e(TAG, "exportScansByKeyCsv: " + e.getMessage(), e); //handle exception
-        }
+    public void exportScansByKeyAsCSV(final String key) {
+        TaskScheduler.getInstance().getMaintenanceLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CSVUtil.saveScansByKeyAsCsv(reactContext, bleManager.getScansByKey(key), key);
+                    shareFile(CSVUtil.getScanByKeyCsvFile(reactContext, key));
+                } catch (Exception e) {
+                    Log.e(TAG, "exportScansByKeyCsv: " + e.getMessage(), e); //handle exception
+                }
+            }
+        });
     }
 
     @ReactMethod
     public void exportAllContactsAsCsv() {
-        try {
-            CSVUtil.saveAllContactsAsCSV(reactContext, bleManager.getAllContacts());
-            shareFile(CSVUtil.getContactsCsvFile(reactContext));
-        }
-        catch (Exception e) {
-            Log.e(TAG, "exportAllContactsAsCsv: " + e.getMessage(), e );
-        }
+        TaskScheduler.getInstance().getMaintenanceLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CSVUtil.saveAllContactsAsCSV(reactContext, bleManager.getAllContacts());
+                    shareFile(CSVUtil.getContactsCsvFile(reactContext));
+                }
+                catch (Exception e) {
+                    Log.e(TAG, "exportAllContactsAsCsv: " + e.getMessage(), e );
+                }
+            }
+        });
     }
 
     private void shareFile(File file) {
@@ -352,14 +456,34 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
         }
     }
 
+    @ReactMethod
+    public void getSchedulerMetrics(Callback callback) {
+        WritableMap metrics = TaskScheduler.getInstance().getMetrics();
+        metrics.putInt("pendingScans", bleManager.getPendingScanCount());
+        metrics.putDouble("suppressedScans", bleManager.getSuppressedScanCount());
+        metrics.putDouble("droppedScans", bleManager.getDroppedScanCount());
+        callback.invoke(metrics);
+    }
+
     @ReactMethod
     public void isBatteryOptimizationDeactivated(Promise promise) {
         promise.resolve(DeviceUtil.isBatteryOptimizationDeactivated(reactContext));
     }
 
     @ReactMethod
-    public void deleteDatabase() {
-        bleManager.wipeDatabase();
+    public void deleteDatabase(final Promise promise) {
+        TaskScheduler.getInstance().getMaintenanceLane().executeRequired(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bleManager.wipeDatabase();
+                    promise.resolve(null);
+                } catch (Exception e) {
+                    Log.e(TAG, "deleteDatabase: " + e.getMessage(), e);
+                    promise.reject("deleteDatabase", e);
+                }
+            }
+        });
     }
 
     @ReactMethod
@@ -369,11 +493,64 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
         callback.invoke(ParseUtils.infectedDbToJson(results));
     }
 
+    /**
+     * Same as fetchInfectionDataByConsent, only for the keys published after a sequence.
+     * The callback gets the key delta json, see ParseUtils.keyDeltaToJson.
+     */
+    @ReactMethod
+    public void fetchInfectionDeltaByConsent(double afterSequence, Callback callback)
+    {
+        KeyDelta delta = CryptoManager.getInstance(reactContext).fetchInfectionDataByConsent((long) afterSequence);
+        callback.invoke(ParseUtils.keyDeltaToJson(delta));
+    }
+
+    /**
+     * Merges a key delta json into the infected key store, the callback gets the sequence of the
+     * store, to download the next delta after.
+     */
+    @ReactMethod
+    public void applyInfectedKeyDelta(String delta, Callback callback)
+    {
+        CryptoManager cryptoManager = CryptoManager.getInstance(reactContext);
+        try
+        {
+            cryptoManager.applyInfectedKeyDelta(ParseUtils.extractKeyDeltaFromJson(delta));
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "applyInfectedKeyDelta: " + e.getMessage(), e);
+        }
+        callback.invoke((double) cryptoManager.getInfectedKeyStore().getSequence());
+    }
+
+    /**
+     * Same as startMatchJob, over the infected key store filled by applyInfectedKeyDelta.
+     */
+    @ReactMethod
+    public void startMatchJobFromStore(Callback callback)
+    {
+        MatchJob job = CryptoManager.getInstance(reactContext).startMatchJob(createMatchJobListener());
+        callback.invoke(job.getId());
+    }
+
+    @ReactMethod
+    public void matchInfectedKeyStore(Callback callback)
+    {
+        CryptoManager cryptoManager = CryptoManager.getInstance(reactContext);
+        List<MatchResponse> result = cryptoManager.mySelf.getIncrementalMatcher().findCryptoMatches(cryptoManager.getInfectedKeyIndex());
+        if(result != null && result.size() > 0)
+        {
+            Log.e(TAG, "match: We Found a Match!!");
+        }
+        callback.invoke(ParseUtils.parseResultToJson(result));
+    }
+
     @ReactMethod
     public void match(String epochs, Callback callback)
     {
-        Map<Integer, Map<Integer, ArrayList<byte[]>>> infe = ParseUtils.extractInfectedDbFromJson(epochs, reactContext.getApplicationContext()); //TODO::pass epochs when ready
-        List<MatchResponse> result = CryptoManager.getInstance(reactContext).mySelf.findCryptoMatches(infe);
+        CryptoManager cryptoManager = CryptoManager.getInstance(reactContext);
+        InfectedKeyIndex index = cryptoManager.getInfectedKeyIndex(epochs);
+        List<MatchResponse> result = cryptoManager.mySelf.getIncrementalMatcher().findCryptoMatches(index);
         if(result != null && result.size() > 0)
         {
             Log.e(TAG, "match: We Found a Match!!");
@@ -381,6 +558,100 @@ public class SpecialBleModule extends ReactContextBaseJavaModule {
         callback.invoke(ParseUtils.parseResultToJson(result));
     }
 
+    /**
+     * Starts matching in the background, the job id is passed to the callback right away.
+     * Progress, result batches and completion are sent as matchProgress, matchBatch and matchCompleted events.
+     */
+    @ReactMethod
+    public void startMatchJob(String epochs, Callback callback)
+    {
+        MatchJob job = CryptoManager.getInstance(reactContext).startMatchJob(epochs, createMatchJobListener());
+        callback.invoke(job.getId());
+    }
+
+    /**
+     * Same as startMatchJob, over a binary infected key file written by writeInfectedKeysFile.
+     */
+    @ReactMethod
+    public void startMatchJobFromFile(String path, Callback callback)
+    {
+        MatchJob job = CryptoManager.getInstance(reactContext).startMatchJob(new File(path), createMatchJobListener());
+        callback.invoke(job.getId());
+    }
+
+    /**
+     * Converts an infected keys json to the binary key file format, the callback gets an error message or null.
+     */
+    @ReactMethod
+    public void writeInfectedKeysFile(String epochs, String path, Callback callback)
+    {
+        try
+        {
+            ParseUtils.infectedJsonToFile(epochs, new File(path));
+            callback.invoke((Object) null);
+        }
+        catch (Exception e)
+        {
+            Log.e(TAG, "writeInfectedKeysFile: " + e.getMessage(), e);
+            callback.invoke(e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void matchFile(String path, Callback callback)
+    {
+        CryptoManager cryptoManager = CryptoManager.getInstance(reactContext);
+        List<MatchResponse> result = null;
+        try
+        {
+            result = cryptoManager.mySelf.getIncrementalMatcher().findCryptoMatches(cryptoManager.getInfectedKeyIndex(new File(path)));
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "matchFile: " + e.getMessage(), e);
+        }
+        if(result != null && result.size() > 0)
+        {
+            Log.e(TAG, "match: We Found a Match!!");
+        }
+        callback.invoke(ParseUtils.parseResultToJson(result));
+    }
+
+    private MatchJob.Listener createMatchJobListener()
+    {
+        return new MatchJob.Listener() {
+            @Override
+            public void onProgress(MatchJob job, int scannedContacts, int totalContacts, int matches, long etaMillis) {
+                mEventToJSDispatcher.sendMatchProgress(job.getId(), scannedContacts, totalContacts, matches, etaMillis);
+            }
+
+            @Override
+            public void onBatch(MatchJob job, int day, List<MatchResponse> responses) {
+                mEventToJSDispatcher.sendMatchBatch(job.getId(), day, ParseUtils.parseResultToJson(responses));
+            }
+
+            @Override
+            public void onCompleted(MatchJob job, int totalResponses, boolean cancelled) {
+                if (totalResponses > 0)
+                {
+                    Log.e(TAG, "match: We Found a Match!!");
+                }
+                mEventToJSDispatcher.sendMatchCompleted(job.getId(), totalResponses, cancelled, null);
+            }
+
+            @Override
+            public void onError(MatchJob job, Exception e) {
+                mEventToJSDispatcher.sendMatchCompleted(job.getId(), 0, false, e.getMessage());
+            }
+        };
+    }
+
+    @ReactMethod
+    public void cancelMatchJob(int jobId, Callback callback)
+    {
+        callback.invoke(CryptoManager.getInstance(reactContext).cancelMatchJob(jobId));
+    }
+
     @ReactMethod
     public void writeContactsToDB(String db)
     {
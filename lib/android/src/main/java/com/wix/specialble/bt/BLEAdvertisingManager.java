@@ -6,7 +6,6 @@ import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.content.Context;
-import android.os.AsyncTask;
 import android.os.ParcelUuid;
 import android.util.Log;
 
@@ -14,6 +13,7 @@ import com.wix.crypto.CryptoManager;
 import com.wix.specialble.config.Config;
 import com.wix.specialble.db.DBClient;
 import com.wix.specialble.listeners.IEventListener;
+import com.wix.specialble.scheduler.TaskScheduler;
 import com.wix.specialble.sensor.SensorUtils;
 import com.wix.specialble.util.Constants;
 import java.util.UUID;
@@ -50,7 +50,7 @@ public class BLEAdvertisingManager {
     };
 
     private void insertToDb(final Event event) {
-        AsyncTask.execute(new Runnable() {
+        TaskScheduler.getInstance().getIngestLane().execute(new Runnable() {
             @Override
             public void run() {
                 DBClient.getInstance(mContext).insert(event);
@@ -94,7 +94,7 @@ public class BLEAdvertisingManager {
             dataBuilder.setIncludeTxPowerLevel(true);
 
             int currentTime = (int) (System.currentTimeMillis() / 1000);
-            byte[] key = CryptoManager.getInstance(mContext).mySelf.generateEphemeralId(currentTime, BLEScannerManager.sGeoHash);
+            byte[] key = CryptoManager.getInstance(mContext).getEphemeralIdScheduler().getEphemeralId(currentTime, BLEScannerManager.sGeoHash);
 
             dataBuilder.addServiceData(pUuid, key);
 
@@ -6,6 +6,8 @@ import android.content.Context;
 import android.util.Log;
 
 import com.wix.crypto.Contact;
+import com.wix.crypto.CryptoManager;
+import com.wix.crypto.User;
 import com.wix.specialble.EventToJSDispatcher;
 import com.wix.specialble.config.Config;
 import com.wix.specialble.db.DBClient;
@@ -78,11 +80,45 @@ public class BLEManager implements IEventListener {
     }
 
 
+    /**
+     * Writes the queued scan results and the devices that changed since the last flush.
+     */
+    public void flushScans() {
+        if (bleScanner != null)
+            bleScanner.flush();
+    }
+
+    /**
+     * @return - number of scan results waiting to be written.
+     */
+    public int getPendingScanCount() {
+        return bleScanner != null ? bleScanner.getPendingScanCount() : 0;
+    }
+
+    /**
+     * @return - number of scan results dropped as repeats of an advertisement.
+     */
+    public long getSuppressedScanCount() {
+        return bleScanner != null ? bleScanner.getSuppressedScanCount() : 0;
+    }
+
+    /**
+     * @return - number of scan results dropped because they could not be written fast enough.
+     */
+    public long getDroppedScanCount() {
+        return bleScanner != null ? bleScanner.getDroppedScanCount() : 0;
+    }
+
     public List<Device> getAllDevices() {
+        // the cached devices are newer than the stored ones
+        if (bleScanner != null)
+            bleScanner.getDeviceCache().flush();
         return DBClient.getInstance(context).getAllDevices();
     }
 
     public void clearAllDevices() {
+        if (bleScanner != null)
+            bleScanner.getDeviceCache().clear();
         DBClient.getInstance(context).clearAllDevices();
     }
 
@@ -94,10 +130,33 @@ public class BLEManager implements IEventListener {
         return DBClient.getInstance(context).getScansByKey(pubKey);
     }
 
+    public void clearAllScans() {
+        if (bleScanner != null)
+            bleScanner.clearScanSummaries();
+        DBClient.getInstance(context).clearAllScans();
+    }
+
+    public List<ScanSummary> getAllScanSummaries() {
+        return DBClient.getInstance(context).getAllScanSummaries();
+    }
+
+    public List<ScanSummary> getScanSummariesByKey(String pubKey) {
+        return DBClient.getInstance(context).getScanSummariesByKey(pubKey);
+    }
+
     public List<Contact> getAllContacts() { return DBClient.getInstance(context).getAllContacts(); }
 
     public void wipeDatabase() {
+        if (bleScanner != null) {
+            bleScanner.getDeviceCache().clear();
+            bleScanner.clearScanSummaries();
+        }
         DBClient.getInstance(context).deleteDatabase();
+
+        // the matcher would still return the matches of the wiped contacts
+        User user = CryptoManager.getInstance(context).mySelf;
+        if (user != null)
+            user.getIncrementalMatcher().reset();
     }
 
     public void setEventToJSDispatcher(EventToJSDispatcher eventToJSDispatcher) {
@@ -1,6 +1,5 @@
 package com.wix.specialble.bt;
 
-import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
@@ -9,19 +8,14 @@ import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.hardware.SensorManager;
-import android.location.Location;
-import android.location.LocationManager;
-import android.os.AsyncTask;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
-import androidx.core.app.ActivityCompat;
-import com.wix.crypto.CryptoManager;
-import com.wix.crypto.utilities.BytesUtils;
 import com.wix.specialble.config.Config;
 import com.wix.specialble.db.DBClient;
 import com.wix.specialble.listeners.IEventListener;
+import com.wix.specialble.scheduler.TaskScheduler;
 import com.wix.specialble.sensor.AccelerometerManager;
 import com.wix.specialble.sensor.ProximityManager;
 import com.wix.specialble.sensor.RotationVectorManager;
@@ -34,8 +28,6 @@ import java.util.UUID;
 public class BLEScannerManager {
 
     private static final String SCANNING_STATUS = "scanningStatus";
-    private static final String FOUND_DEVICE = "foundDevice";
-    private static final String FOUND_SCAN = "foundScan";
     private RotationVectorManager mRotationVectorManager;
     private AccelerometerManager mAccelerometerManager;
     private ProximityManager mProximityManager;
@@ -48,6 +40,8 @@ public class BLEScannerManager {
 
     private String TAG = "BLEScannerManager";
     private IEventListener mEventListenerCallback;
+    private ScanWriter mScanWriter;
+    private final ScanDeduplicator mScanDeduplicator;
 
 
     // this is a place holder for Geo-Hash Data
@@ -63,6 +57,8 @@ public class BLEScannerManager {
         bleScanCallback = new SpecialBLEScanCallback();
         dbClient = DBClient.getInstance(context);
         mEventListenerCallback = eventListenerCallback;
+        mScanWriter = new ScanWriter(context, dbClient, eventListenerCallback);
+        mScanDeduplicator = new ScanDeduplicator(mScanWriter);
 
         // declare sensors
         SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
@@ -107,6 +103,8 @@ public class BLEScannerManager {
             if(bluetoothLeScanner != null)
                 bluetoothLeScanner.stopScan(bleScanCallback);
 
+            mScanWriter.flush();
+
             mEventListenerCallback.onEvent(SCANNING_STATUS, false);
         }
     }
@@ -129,12 +127,19 @@ public class BLEScannerManager {
             byte[] byteScannedToken = result.getScanRecord().getServiceData(pUuid);
 
             String deviceName = scanRecord.getDeviceName() != null ? scanRecord.getDeviceName() : "NaN";
+
+            // repeats of an advertisement are dropped before anything is allocated for them
+            long dedupeInterval = Config.getInstance(mContext).getScanDedupeInterval();
+            Object dedupeToken = ScanDeduplicator.tokenOf(byteScannedToken, deviceName);
+            if (!mScanDeduplicator.accept(dedupeToken, result.getRssi(), SystemClock.elapsedRealtime(), dedupeInterval))
+                return;
+
             String ScannedToken = byteScannedToken != null ? new String(byteScannedToken, Charset.forName("UTF-8")) : deviceName;
 
             int tx = scanRecord.getTxPowerLevel();
 
             super.onScanResult(callbackType, result);
-            handleScanResults(result, ScannedToken, tx, byteScannedToken);
+            handleScanResults(result, ScannedToken, tx, byteScannedToken, dedupeToken);
         }
 
         @Override
@@ -143,7 +148,7 @@ public class BLEScannerManager {
             if (errorCode != SCAN_FAILED_ALREADY_STARTED) {
                 mEventListenerCallback.onEvent(SCANNING_STATUS, false);
             }
-            AsyncTask.execute(new Runnable() {
+            TaskScheduler.getInstance().getIngestLane().execute(new Runnable() {
                 @Override
                 public void run() {
                     DBClient.getInstance(mContext).insert(new Event(System.currentTimeMillis(), "none", Constants.ACTION_SCAN, "failure", String.valueOf(errorCode), SensorUtils.getBatteryPercentage(mContext)));
@@ -152,83 +157,51 @@ public class BLEScannerManager {
         }
     }
 
-    private void handleScanResults(final ScanResult result, final String scannedToken, final int tx, final byte[] byteScannedToken) {
-        // handle devices
-        AsyncTask.execute(new Runnable() {
-            @Override
-            public void run() {
-                DBClient.getInstance(mContext).insert(new Event(System.currentTimeMillis(), scannedToken, Constants.ACTION_SCAN, "success", "", SensorUtils.getBatteryPercentage(mContext)));
-
-                Device oldDevice = dbClient.getDeviceByKey(scannedToken); // get device from database
-                Device newDevice;
-
-                if (oldDevice != null) {
-                    newDevice = getNewDevice(result, tx, scannedToken, oldDevice.getFirstTimestamp(), System.currentTimeMillis());
-                    if (hasUpdateRequirements(oldDevice, result)) {
-                        dbClient.updateDevice(newDevice);
-                    }
-                } else {
-                    newDevice = getNewDevice(result, tx, scannedToken, System.currentTimeMillis(), System.currentTimeMillis());
-                    dbClient.addDevice(newDevice);
-                }
-
-                mEventListenerCallback.onEvent(FOUND_DEVICE, newDevice.toWritableMap());
-
-                // handle scans
-                Scan newScan = new Scan(System.currentTimeMillis(),
-                        scannedToken,
-                        result.getDevice().getAddress(),
-                        BLEManager.BLEProtocol.GAP.toString(),
-                        result.getRssi(),
-                        tx, mProximityManager.getEvents()[0], mAccelerometerManager.getEvents(), mRotationVectorManager.getEvents(), SensorUtils.getBatteryPercentage(mContext));
-
-                dbClient.addScan(newScan);
-
-                int currentTime = (int) (System.currentTimeMillis() / 1000);
-
-                byte[] rssi = BytesUtils.numToBytes(result.getRssi(), 4);
-
-                double lat = 0;
-                double lon = 0;
-                try {
-                    LocationManager locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
-                    if (locationManager != null) {
-
-                        if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
-                                ActivityCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-
-                        } else {
-
+    private void handleScanResults(final ScanResult result, final String scannedToken, final int tx, final byte[] byteScannedToken, Object dedupeToken) {
+        // stored in batches on the ingest lane
+        ScanWriter.PendingScan scan = new ScanWriter.PendingScan(scannedToken, byteScannedToken, result.getDevice().getAddress(), result.getRssi(), tx,
+                mProximityManager.getEvents()[0], mAccelerometerManager.getEvents(), mRotationVectorManager.getEvents());
+        mScanWriter.add(scan);
+        mScanDeduplicator.setScan(dedupeToken, result.getRssi(), scan);
+    }
 
-                            Location location = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-                            if (location != null) {
-                                lat = location.getLatitude();
-                                lon = location.getLongitude();
-                            }
+    /**
+     * @return - number of scan results waiting to be written.
+     */
+    public int getPendingScanCount() {
+        return mScanWriter.getQueueDepth();
+    }
 
-                        }
-                    }
-                }
-                catch (Exception e)
-                {
-                    e.printStackTrace();
-                }
+    /**
+     * @return - number of scan results dropped as repeats of an advertisement.
+     */
+    public long getSuppressedScanCount() {
+        return mScanDeduplicator.getSuppressedCount();
+    }
 
-                //TODO:: do we need to make sure our key is exactly 16 byte len as per the spec ?
-                CryptoManager.getInstance(mContext).mySelf.storeContact(byteScannedToken, rssi, currentTime, sGeoHash, lat, lon);
+    /**
+     * @return - number of scan results dropped because the writer fell behind.
+     */
+    public long getDroppedScanCount() {
+        return mScanWriter.getDroppedCount();
+    }
 
-                mEventListenerCallback.onEvent(FOUND_SCAN, newScan.toWritableMap());
-            }
-        });
+    /**
+     * Writes the queued scan results and the dirty devices.
+     */
+    public void flush() {
+        mScanWriter.flush();
     }
 
-    private boolean hasUpdateRequirements(Device oldDevice, ScanResult result) {
-        return (oldDevice.getRssi()>result.getRssi()+3 || oldDevice.getRssi()<result.getRssi()-3);
+    /**
+     * Forgets the summaries of the open scan windows, used when the scans are deleted.
+     */
+    void clearScanSummaries() {
+        mScanWriter.clearSummaries();
     }
 
-    private Device getNewDevice(ScanResult result, int tx, String scannedToken, long firstSeenTime, long lastSeenTime) {
-        return new Device(firstSeenTime, lastSeenTime, scannedToken, result.getDevice().getAddress(),
-                BLEManager.BLEProtocol.GAP.toString(), result.getRssi(), tx);
+    DeviceCache getDeviceCache() {
+        return mScanWriter.getDeviceCache();
     }
 
     private void registerSensors() {
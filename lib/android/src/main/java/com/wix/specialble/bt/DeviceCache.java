@@ -0,0 +1,140 @@
+package com.wix.specialble.bt;
+
+import com.wix.specialble.db.DBClient;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The devices seen while scanning, keyed by public key.
+ *
+ * While the service runs the cache is the source of truth for the devices it holds: a scan result
+ * updates the cached device and marks it dirty, and {@link #flush()} writes the dirty devices to
+ * the database with one upsert. A device is read from the database the first time it is seen, the
+ * devices of a batch of results with one query.
+ *
+ * Ephemeral ids change every few minutes, so a flush also forgets the clean devices that were not
+ * seen since the previous flush.
+ */
+class DeviceCache {
+
+    private final DBClient mDBClient;
+    private final ConcurrentHashMap<String, Device> mDevices = new ConcurrentHashMap<>();
+    private final Set<String> mDirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> mSeen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    DeviceCache(DBClient dbClient) {
+        mDBClient = dbClient;
+    }
+
+    /**
+     * Reads the stored devices of the keys that are not cached yet.
+     */
+    void load(Collection<String> keys) {
+
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            if (!mDevices.containsKey(key))
+                missing.add(key);
+        }
+
+        if (missing.isEmpty())
+            return;
+
+        for (Device device : mDBClient.getDevicesByKeys(missing.toArray(new String[missing.size()]))) {
+            mDevices.putIfAbsent(device.getPublicKey(), device);
+        }
+    }
+
+    /**
+     * @return - the device of a key, null when it was not seen or not loaded.
+     */
+    Device get(String key) {
+
+        Device device = mDevices.get(key);
+        if (device != null)
+            mSeen.add(key);
+        return device;
+    }
+
+    void put(Device device) {
+
+        mDevices.put(device.getPublicKey(), device);
+        mSeen.add(device.getPublicKey());
+        mDirty.add(device.getPublicKey());
+    }
+
+    boolean hasDirty() {
+        return !mDirty.isEmpty();
+    }
+
+    /**
+     * Writes the dirty devices and forgets the ones not seen since the previous flush.
+     *
+     * The scan writer flushes inside its transaction, so the devices are written in a transaction
+     * of their own and never under the lock of the cache: the flushes of other threads wait for the
+     * transaction and a device cannot be overwritten by an older copy.
+     */
+    void flush() {
+
+        mDBClient.getSpecialBLEDB().runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+
+                Device[] dirty = takeDirty();
+                if (dirty.length == 0)
+                    return;
+
+                try {
+                    mDBClient.upsertDevices(dirty);
+                } catch (RuntimeException e) {
+                    for (Device device : dirty) {
+                        mDirty.add(device.getPublicKey());
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return - the dirty devices, which are no longer dirty, after forgetting the devices not seen
+     * since the previous flush.
+     */
+    private synchronized Device[] takeDirty() {
+
+        Set<String> keys = new HashSet<>(mDirty);
+        List<Device> dirty = new ArrayList<>();
+        for (String key : keys) {
+
+            mDirty.remove(key);
+            Device device = mDevices.get(key);
+            if (device != null)
+                dirty.add(device);
+        }
+
+        for (Map.Entry<String, Device> entry : mDevices.entrySet()) {
+
+            // the devices being written stay until the next flush, in case the write fails
+            if (!mSeen.contains(entry.getKey()) && !mDirty.contains(entry.getKey()) && !keys.contains(entry.getKey()))
+                mDevices.remove(entry.getKey(), entry.getValue());
+        }
+        mSeen.clear();
+        return dirty.toArray(new Device[dirty.size()]);
+    }
+
+    /**
+     * Forgets every device without writing it, used when the devices are deleted.
+     */
+    synchronized void clear() {
+
+        mDevices.clear();
+        mDirty.clear();
+        mSeen.clear();
+    }
+}
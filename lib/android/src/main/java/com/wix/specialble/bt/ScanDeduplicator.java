@@ -0,0 +1,128 @@
+package com.wix.specialble.bt;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Drops the repeats of an advertisement before they reach the scan writer.
+ *
+ * A result repeats an earlier one when it has the same token and its rssi falls in the same
+ * {@link #RSSI_BUCKET} dBm bucket, within the dedupe interval. The pairs seen are kept in two time
+ * buckets of one interval each, the current one and the previous one, so a pair is remembered for
+ * one to two intervals and the older bucket is dropped as a whole.
+ *
+ * A repeat is folded into the scan written for its pair, so the scan summaries still count it. Once
+ * the writer took that scan, the repeats of the rest of the interval are folded into a repeat the
+ * writer queues after it, see {@link ScanWriter#addRepeat}.
+ */
+class ScanDeduplicator {
+
+    public static final int RSSI_BUCKET = 4;
+
+    private final ScanWriter mScanWriter;
+    private Map<Key, Seen> mCurrent = new HashMap<>();
+    private Map<Key, Seen> mPrevious = new HashMap<>();
+    private long mCurrentStart;
+    private long mSuppressed;
+
+    ScanDeduplicator(ScanWriter scanWriter) {
+        mScanWriter = scanWriter;
+    }
+
+    /**
+     * @param token - the service data of the advertisement, or the device name when it has none.
+     * @param time - elapsed realtime of the result in milisec.
+     * @param interval - dedupe interval in milisec, 0 forwards every result.
+     * @return - true when the result should be written, then {@link #setScan} is called with its
+     * scan, false for a repeat folded into the scan of its pair.
+     */
+    synchronized boolean accept(Object token, int rssi, long time, long interval) {
+
+        if (interval <= 0)
+            return true;
+
+        if (time - mCurrentStart >= interval) {
+
+            // the previous bucket is older than the interval, the current one becomes the previous
+            if (time - mCurrentStart >= 2 * interval)
+                mCurrent.clear();
+
+            Map<Key, Seen> expired = mPrevious;
+            mPrevious = mCurrent;
+            mCurrent = expired;
+            mCurrent.clear();
+            mCurrentStart = time;
+        }
+
+        Key key = new Key(token, (int) Math.floor(rssi / (double) RSSI_BUCKET));
+        Seen seen = mCurrent.get(key);
+        if (seen == null)
+            seen = mPrevious.get(key);
+
+        if (seen == null || seen.mScan == null) {
+            mCurrent.put(key, new Seen());
+            return true;
+        }
+
+        seen.mScan = mScanWriter.addRepeat(seen.mScan, rssi);
+        mSuppressed ++;
+        return false;
+    }
+
+    /**
+     * Sets the scan queued for the result last accepted with the token and rssi, the repeats of the
+     * pair are folded into it.
+     */
+    synchronized void setScan(Object token, int rssi, ScanWriter.PendingScan scan) {
+
+        Seen seen = mCurrent.get(new Key(token, (int) Math.floor(rssi / (double) RSSI_BUCKET)));
+        if (seen != null)
+            seen.mScan = scan;
+    }
+
+    /**
+     * @return - number of results dropped as repeats.
+     */
+    synchronized long getSuppressedCount() {
+        return mSuppressed;
+    }
+
+    static Object tokenOf(byte[] serviceData, String deviceName) {
+        return serviceData != null ? ByteBuffer.wrap(serviceData) : deviceName;
+    }
+
+    private static class Key {
+
+        private final Object mToken;
+        private final int mRssiBucket;
+
+        Key(Object token, int rssiBucket) {
+            mToken = token;
+            mRssiBucket = rssiBucket;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+            return mRssiBucket == other.mRssiBucket && mToken.equals(other.mToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mToken.hashCode() + mRssiBucket;
+        }
+    }
+
+    /**
+     * The scan the repeats of a pair in the interval are folded into.
+     */
+    private static class Seen {
+
+        private ScanWriter.PendingScan mScan;
+    }
+}
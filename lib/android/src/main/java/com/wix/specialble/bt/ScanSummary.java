@@ -0,0 +1,309 @@
+package com.wix.specialble.bt;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * The scans of one public key in one time window, folded into a single row.
+ *
+ * The sums of the rssi and of the sensor values are kept instead of their means, so the scans of
+ * a window can be added to its row in any number of batches.
+ */
+@Entity (tableName = "scan_summaries", primaryKeys = {"publicKey", "window_start"})
+public class ScanSummary {
+
+    @NonNull
+    private String publicKey = "";
+
+    @ColumnInfo(name = "window_start")
+    private long windowStart = 0;
+
+    @ColumnInfo(name = "first_timestamp")
+    private long firstTimestamp = 0;
+
+    @ColumnInfo(name = "last_timestamp")
+    private long lastTimestamp = 0;
+
+    @ColumnInfo(name = "scan_count")
+    private int scanCount = 0;
+
+    @ColumnInfo(name = "min_rssi")
+    private int minRssi = 0;
+
+    @ColumnInfo(name = "max_rssi")
+    private int maxRssi = 0;
+
+    @ColumnInfo(name = "rssi_sum")
+    private long rssiSum = 0;
+
+    @ColumnInfo(name = "scan_address")
+    private String scanAddress = "";
+
+    @ColumnInfo(name = "tx")
+    private int tx = 0;
+
+    @ColumnInfo(name = "proximity_sum")
+    private double proximitySum;
+
+    @ColumnInfo(name = "acceleration_x_sum")
+    private double accelerationXSum;
+
+    @ColumnInfo(name = "acceleration_y_sum")
+    private double accelerationYSum;
+
+    @ColumnInfo(name = "acceleration_z_sum")
+    private double accelerationZSum;
+
+    @ColumnInfo(name = "rotation_x_sum")
+    private double rotationVectorXSum;
+
+    @ColumnInfo(name = "rotation_y_sum")
+    private double rotationVectorYSum;
+
+    @ColumnInfo(name = "rotation_z_sum")
+    private double rotationVectorZSum;
+
+    @ColumnInfo(name = "rotation_scalar_sum")
+    private double rotationVectorScalarSum;
+
+    @ColumnInfo(name = "battery_level")
+    private int batteryLevel;
+
+    public ScanSummary() {
+    }
+
+    @Ignore
+    public ScanSummary(@NonNull String publicKey, long windowStart) {
+        this.publicKey = publicKey;
+        this.windowStart = windowStart;
+    }
+
+    /**
+     * @return - start of the window of a time, windows are aligned to multiples of their length.
+     */
+    public static long getWindowStart(long timestamp, long windowLength) {
+        return timestamp - timestamp % windowLength;
+    }
+
+    /**
+     * Folds a scan of the key and window into the summary, with the repeats of its advertisement
+     * that were not stored. The repeats share the time and the sensor values of the scan.
+     *
+     * @param count - number of results, the scan and its repeats.
+     * @param rssiSum - sum of the rssi of the results.
+     */
+    public void add(Scan scan, int count, int minRssi, int maxRssi, long rssiSum) {
+
+        if (scanCount == 0 || scan.getTimestamp() < firstTimestamp)
+            firstTimestamp = scan.getTimestamp();
+        if (scanCount == 0 || scan.getTimestamp() >= lastTimestamp) {
+            lastTimestamp = scan.getTimestamp();
+            scanAddress = scan.getScanAddress();
+            tx = scan.getTx();
+            batteryLevel = scan.getBatteryLevel();
+        }
+
+        this.minRssi = scanCount == 0 ? minRssi : Math.min(this.minRssi, minRssi);
+        this.maxRssi = scanCount == 0 ? maxRssi : Math.max(this.maxRssi, maxRssi);
+        this.rssiSum += rssiSum;
+        proximitySum += count * (double) scan.getProximityValue();
+        accelerationXSum += count * (double) scan.getAccelerationX();
+        accelerationYSum += count * (double) scan.getAccelerationY();
+        accelerationZSum += count * (double) scan.getAccelerationZ();
+        rotationVectorXSum += count * (double) scan.getRotationVectorX();
+        rotationVectorYSum += count * (double) scan.getRotationVectorY();
+        rotationVectorZSum += count * (double) scan.getRotationVectorZ();
+        rotationVectorScalarSum += count * (double) scan.getRotationVectorScalar();
+        scanCount += count;
+    }
+
+    public double getMeanRssi() {
+        return scanCount == 0 ? 0 : (double) rssiSum / scanCount;
+    }
+
+    private double mean(double sum) {
+        return scanCount == 0 ? 0 : sum / scanCount;
+    }
+
+    public WritableMap toWritableMap() {
+        WritableMap summaryWritableMap = Arguments.createMap();
+        summaryWritableMap.putString("public_key", publicKey);
+        summaryWritableMap.putDouble("window_start", windowStart);
+        summaryWritableMap.putDouble("first_timestamp", firstTimestamp);
+        summaryWritableMap.putDouble("last_timestamp", lastTimestamp);
+        summaryWritableMap.putInt("scan_count", scanCount);
+        summaryWritableMap.putInt("min_rssi", minRssi);
+        summaryWritableMap.putInt("max_rssi", maxRssi);
+        summaryWritableMap.putDouble("mean_rssi", getMeanRssi());
+        summaryWritableMap.putString("scan_address", scanAddress);
+        summaryWritableMap.putInt("scan_tx", tx);
+        summaryWritableMap.putDouble("proximity", mean(proximitySum));
+        summaryWritableMap.putDouble("acceleration_x", mean(accelerationXSum));
+        summaryWritableMap.putDouble("acceleration_y", mean(accelerationYSum));
+        summaryWritableMap.putDouble("acceleration_z", mean(accelerationZSum));
+        summaryWritableMap.putDouble("rotation_x", mean(rotationVectorXSum));
+        summaryWritableMap.putDouble("rotation_y", mean(rotationVectorYSum));
+        summaryWritableMap.putDouble("rotation_z", mean(rotationVectorZSum));
+        summaryWritableMap.putDouble("rotation_scalar", mean(rotationVectorScalarSum));
+        summaryWritableMap.putDouble("battery", batteryLevel);
+        return summaryWritableMap;
+    }
+
+    @NonNull
+    public String getPublicKey() {
+        return publicKey;
+    }
+
+    public void setPublicKey(@NonNull String publicKey) {
+        this.publicKey = publicKey;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public void setWindowStart(long windowStart) {
+        this.windowStart = windowStart;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public void setFirstTimestamp(long firstTimestamp) {
+        this.firstTimestamp = firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    public void setScanCount(int scanCount) {
+        this.scanCount = scanCount;
+    }
+
+    public int getMinRssi() {
+        return minRssi;
+    }
+
+    public void setMinRssi(int minRssi) {
+        this.minRssi = minRssi;
+    }
+
+    public int getMaxRssi() {
+        return maxRssi;
+    }
+
+    public void setMaxRssi(int maxRssi) {
+        this.maxRssi = maxRssi;
+    }
+
+    public long getRssiSum() {
+        return rssiSum;
+    }
+
+    public void setRssiSum(long rssiSum) {
+        this.rssiSum = rssiSum;
+    }
+
+    public String getScanAddress() {
+        return scanAddress;
+    }
+
+    public void setScanAddress(String scanAddress) {
+        this.scanAddress = scanAddress;
+    }
+
+    public int getTx() {
+        return tx;
+    }
+
+    public void setTx(int tx) {
+        this.tx = tx;
+    }
+
+    public double getProximitySum() {
+        return proximitySum;
+    }
+
+    public void setProximitySum(double proximitySum) {
+        this.proximitySum = proximitySum;
+    }
+
+    public double getAccelerationXSum() {
+        return accelerationXSum;
+    }
+
+    public void setAccelerationXSum(double accelerationXSum) {
+        this.accelerationXSum = accelerationXSum;
+    }
+
+    public double getAccelerationYSum() {
+        return accelerationYSum;
+    }
+
+    public void setAccelerationYSum(double accelerationYSum) {
+        this.accelerationYSum = accelerationYSum;
+    }
+
+    public double getAccelerationZSum() {
+        return accelerationZSum;
+    }
+
+    public void setAccelerationZSum(double accelerationZSum) {
+        this.accelerationZSum = accelerationZSum;
+    }
+
+    public double getRotationVectorXSum() {
+        return rotationVectorXSum;
+    }
+
+    public void setRotationVectorXSum(double rotationVectorXSum) {
+        this.rotationVectorXSum = rotationVectorXSum;
+    }
+
+    public double getRotationVectorYSum() {
+        return rotationVectorYSum;
+    }
+
+    public void setRotationVectorYSum(double rotationVectorYSum) {
+        this.rotationVectorYSum = rotationVectorYSum;
+    }
+
+    public double getRotationVectorZSum() {
+        return rotationVectorZSum;
+    }
+
+    public void setRotationVectorZSum(double rotationVectorZSum) {
+        this.rotationVectorZSum = rotationVectorZSum;
+    }
+
+    public double getRotationVectorScalarSum() {
+        return rotationVectorScalarSum;
+    }
+
+    public void setRotationVectorScalarSum(double rotationVectorScalarSum) {
+        this.rotationVectorScalarSum = rotationVectorScalarSum;
+    }
+
+    public int getBatteryLevel() {
+        return batteryLevel;
+    }
+
+    public void setBatteryLevel(int batteryLevel) {
+        this.batteryLevel = batteryLevel;
+    }
+}
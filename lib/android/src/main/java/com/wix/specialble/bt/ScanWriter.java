@@ -0,0 +1,506 @@
+package com.wix.specialble.bt;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.core.app.ActivityCompat;
+import com.wix.crypto.Contact;
+import com.wix.crypto.CryptoManager;
+import com.wix.crypto.utilities.BytesUtils;
+import com.wix.specialble.config.Config;
+import com.wix.specialble.db.DBClient;
+import com.wix.specialble.listeners.IEventListener;
+import com.wix.specialble.scheduler.TaskScheduler;
+import com.wix.specialble.sensor.SensorUtils;
+import com.wix.specialble.util.Constants;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the scan results to the database behind the scan callback.
+ *
+ * The results are queued and written in batches on the ingest lane of the {@link TaskScheduler}:
+ * a batch is written once the queue holds {@link Config#getScanFlushSize()} results, or when its
+ * oldest result waited {@link Config#getScanFlushLatency()} ms. The events, devices, scans and
+ * contacts of a batch are inserted in one transaction. The battery level and the location are read
+ * once per batch.
+ *
+ * The devices are kept in a {@link DeviceCache}, the dirty ones are written every
+ * {@link Config#getDeviceFlushInterval()} ms, in the transaction of a batch when one is due.
+ *
+ * When {@link Config#getScanAggregation()} is on, the scans of a public key in a window of
+ * {@link Config#getScanAggregationWindow()} ms are folded into one {@link ScanSummary} row, and a
+ * scan row is only stored for every result when {@link Config#getKeepRawScans()} is on too. The
+ * summaries of the open windows are kept in memory and rewritten with each batch.
+ *
+ * The queue holds at most {@link Config#getScanQueueCapacity()} results, when the writer falls
+ * behind the oldest ones are dropped.
+ */
+class ScanWriter {
+
+    private static final String TAG = "ScanWriter";
+    private static final String FOUND_DEVICE = "foundDevice";
+    private static final String FOUND_SCAN = "foundScan";
+
+    private final Context mContext;
+    private final DBClient mDBClient;
+    private final IEventListener mEventListenerCallback;
+    private final DeviceCache mDeviceCache;
+    private final ArrayDeque<PendingScan> mQueue = new ArrayDeque<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, ScanSummary> mSummaries = new HashMap<>();
+    private boolean mDrainQueued;
+    private boolean mFlushDevices;
+    private long mNextDeviceFlush;
+    private long mDropped;
+    private long mDroppedLogged;
+
+    // takes the queued results and writes them, on the ingest lane
+    private final TaskScheduler.Droppable mDrain = new TaskScheduler.Droppable() {
+        @Override
+        public void run() {
+            drain();
+        }
+
+        @Override
+        public void onDropped() {
+            synchronized (ScanWriter.this) {
+                mDrainQueued = false;
+            }
+            mHandler.postDelayed(mTimer, Config.getInstance(mContext).getScanFlushLatency());
+        }
+    };
+
+    // the oldest result waited long enough, or the dirty devices are due
+    private final Runnable mTimer = new Runnable() {
+        @Override
+        public void run() {
+            queueDrain();
+        }
+    };
+
+    ScanWriter(Context context, DBClient dbClient, IEventListener eventListenerCallback) {
+        mContext = context;
+        mDBClient = dbClient;
+        mEventListenerCallback = eventListenerCallback;
+        mDeviceCache = new DeviceCache(dbClient);
+    }
+
+    DeviceCache getDeviceCache() {
+        return mDeviceCache;
+    }
+
+    /**
+     * @return - number of scan results waiting to be written.
+     */
+    synchronized int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return - number of scan results dropped from the full queue since the writer was created.
+     */
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Queues a scan result, called on the scan callback thread.
+     */
+    synchronized void add(PendingScan scan) {
+
+        Config config = Config.getInstance(mContext);
+        int capacity = Math.max(1, config.getScanQueueCapacity());
+        while (mQueue.size() >= capacity) {
+
+            mQueue.pollFirst();
+            mDropped ++;
+        }
+
+        mQueue.addLast(scan);
+        if (mQueue.size() >= config.getScanFlushSize())
+            queueDrain();
+        else if (mQueue.size() == 1 && !mDrainQueued)
+            mHandler.postDelayed(mTimer, config.getScanFlushLatency());
+    }
+
+    /**
+     * Folds a repeat of an advertisement into the scan queued for it. When the scan was already
+     * taken to be written, the repeat is queued as a repeat of it, which only adds to the scan
+     * summaries and holds the next repeats until it is written in turn.
+     *
+     * @return - the scan the next repeats are folded into.
+     */
+    synchronized PendingScan addRepeat(PendingScan scan, int rssi) {
+
+        if (!scan.mTaken) {
+
+            scan.mCount ++;
+            scan.mMinRssi = Math.min(scan.mMinRssi, rssi);
+            scan.mMaxRssi = Math.max(scan.mMaxRssi, rssi);
+            scan.mRssiSum += rssi;
+            return scan;
+        }
+
+        // without summaries a repeat is not stored at all
+        if (!Config.getInstance(mContext).getScanAggregation())
+            return scan;
+
+        PendingScan repeat = new PendingScan(scan, rssi);
+        add(repeat);
+        return repeat;
+    }
+
+    /**
+     * Writes the queued results and the dirty devices without waiting for the flush thresholds.
+     */
+    synchronized void flush() {
+
+        mFlushDevices = true;
+        queueDrain();
+    }
+
+    /**
+     * Forgets the summaries of the open windows, used when the scans are deleted.
+     */
+    void clearSummaries() {
+
+        synchronized (mSummaries) {
+            mSummaries.clear();
+        }
+    }
+
+    private synchronized void queueDrain() {
+
+        mHandler.removeCallbacks(mTimer);
+        if (mDrainQueued)
+            return;
+
+        mDrainQueued = true;
+        TaskScheduler.getInstance().getIngestLane().execute(mDrain);
+    }
+
+    private void drain() {
+
+        List<PendingScan> batch;
+        boolean flushDevices;
+        synchronized (this) {
+
+            mDrainQueued = false;
+            flushDevices = mFlushDevices || SystemClock.elapsedRealtime() >= mNextDeviceFlush;
+            mFlushDevices = false;
+
+            if (mDropped > mDroppedLogged) {
+                Log.e(TAG, "dropped " + (mDropped - mDroppedLogged) + " scans, the writer fell behind");
+                mDroppedLogged = mDropped;
+            }
+
+            batch = new ArrayList<>(mQueue);
+            mQueue.clear();
+            for (PendingScan scan : batch) {
+                scan.mTaken = true;
+            }
+        }
+
+        try {
+            write(batch, flushDevices);
+        } catch (Exception e) {
+            Log.e(TAG, "could not write " + batch.size() + " scans", e);
+        }
+
+        synchronized (this) {
+
+            // results queued meanwhile started their own timer, the devices wait for their interval
+            if (!mDrainQueued && mQueue.isEmpty() && mDeviceCache.hasDirty()) {
+
+                mHandler.removeCallbacks(mTimer);
+                mHandler.postDelayed(mTimer, Math.max(0, mNextDeviceFlush - SystemClock.elapsedRealtime()));
+            }
+        }
+    }
+
+    private void write(final List<PendingScan> batch, final boolean flushDevices) {
+
+        if (batch.isEmpty()) {
+            if (flushDevices)
+                flushDevices();
+            return;
+        }
+
+        int battery = SensorUtils.getBatteryPercentage(mContext);
+        double[] location = getLastLocation();
+
+        // the repeats queued after their scan was written only go to the summaries
+        List<PendingScan> results = new ArrayList<>(batch.size());
+        for (PendingScan scan : batch) {
+            if (!scan.mRepeat)
+                results.add(scan);
+        }
+
+        final Event[] events = new Event[results.size()];
+        final Scan[] scans = new Scan[results.size()];
+        final Contact[] contacts = new Contact[results.size()];
+        final Device[] foundDevices = new Device[results.size()];
+        updateDevices(results, foundDevices);
+        for (int i = 0; i < results.size(); i ++) {
+
+            PendingScan scan = results.get(i);
+            events[i] = new Event(scan.mTimestamp, scan.mScannedToken, Constants.ACTION_SCAN, "success", "", battery);
+            scans[i] = toScan(scan, battery);
+
+            //TODO:: do we need to make sure our key is exactly 16 byte len as per the spec ?
+            contacts[i] = new Contact(scan.mEphemeralId, BytesUtils.numToBytes(scan.mRssi, 4), (int) (scan.mTimestamp / 1000),
+                    BLEScannerManager.sGeoHash, location[0], location[1]);
+        }
+
+        Config config = Config.getInstance(mContext);
+        final boolean aggregate = config.getScanAggregation();
+        final boolean storeScans = !aggregate || config.getKeepRawScans();
+        final ScanSummary[] summaries = aggregate ? summarize(batch, battery, Math.max(1, config.getScanAggregationWindow())) : null;
+
+        mDBClient.getSpecialBLEDB().runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+
+                mDBClient.insertAll(events);
+                if (storeScans)
+                    mDBClient.addScans(scans);
+                if (summaries != null)
+                    mDBClient.upsertScanSummaries(summaries);
+                CryptoManager.getInstance(mContext).mySelf.storeContacts(contacts);
+                if (flushDevices)
+                    flushDevices();
+            }
+        });
+
+        for (int i = 0; i < results.size(); i ++) {
+
+            mEventListenerCallback.onEvent(FOUND_DEVICE, foundDevices[i].toWritableMap());
+            mEventListenerCallback.onEvent(FOUND_SCAN, scans[i].toWritableMap());
+        }
+    }
+
+    /**
+     * Applies the results to the cached devices in order, a device is changed when it is seen for
+     * the first time or when its rssi moved.
+     *
+     * @param foundDevices - filled with the device of each result, as reported to the listener.
+     */
+    private void updateDevices(List<PendingScan> batch, Device[] foundDevices) {
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (PendingScan scan : batch) {
+            keys.add(scan.mScannedToken);
+        }
+        mDeviceCache.load(keys);
+
+        for (int i = 0; i < batch.size(); i ++) {
+
+            PendingScan scan = batch.get(i);
+            Device oldDevice = mDeviceCache.get(scan.mScannedToken);
+
+            Device newDevice;
+            if (oldDevice != null) {
+                newDevice = getNewDevice(scan, oldDevice.getFirstTimestamp(), scan.mTimestamp);
+                if (hasUpdateRequirements(oldDevice, scan.mRssi))
+                    mDeviceCache.put(newDevice);
+            } else {
+                newDevice = getNewDevice(scan, scan.mTimestamp, scan.mTimestamp);
+                mDeviceCache.put(newDevice);
+            }
+            foundDevices[i] = newDevice;
+        }
+    }
+
+    /**
+     * Folds the scans, with the repeats folded into them, into the summaries of their windows,
+     * reading the stored summaries of the keys that have no open window in memory.
+     *
+     * @return - the summaries the scans changed.
+     */
+    private ScanSummary[] summarize(List<PendingScan> batch, int battery, long window) {
+
+        Scan[] scans = new Scan[batch.size()];
+        for (int i = 0; i < batch.size(); i ++) {
+            scans[i] = toScan(batch.get(i), battery);
+        }
+
+        synchronized (mSummaries) {
+
+            long firstWindow = Long.MAX_VALUE;
+            Set<String> missing = new LinkedHashSet<>();
+            for (Scan scan : scans) {
+
+                long windowStart = ScanSummary.getWindowStart(scan.getTimestamp(), window);
+                firstWindow = Math.min(firstWindow, windowStart);
+                if (!mSummaries.containsKey(getSummaryId(scan.getPublicKey(), windowStart)))
+                    missing.add(scan.getPublicKey());
+            }
+
+            if (!missing.isEmpty()) {
+                for (ScanSummary stored : mDBClient.getScanSummariesSince(missing.toArray(new String[missing.size()]), firstWindow)) {
+
+                    String id = getSummaryId(stored.getPublicKey(), stored.getWindowStart());
+                    if (!mSummaries.containsKey(id))
+                        mSummaries.put(id, stored);
+                }
+            }
+
+            Map<String, ScanSummary> changed = new LinkedHashMap<>();
+            for (int i = 0; i < scans.length; i ++) {
+
+                Scan scan = scans[i];
+                PendingScan pending = batch.get(i);
+                long windowStart = ScanSummary.getWindowStart(scan.getTimestamp(), window);
+                String id = getSummaryId(scan.getPublicKey(), windowStart);
+                ScanSummary summary = mSummaries.get(id);
+                if (summary == null) {
+                    summary = new ScanSummary(scan.getPublicKey(), windowStart);
+                    mSummaries.put(id, summary);
+                }
+                summary.add(scan, pending.mCount, pending.mMinRssi, pending.mMaxRssi, pending.mRssiSum);
+                changed.put(id, summary);
+            }
+
+            // results arrive in order, a window that ended before the batch gets no more scans
+            Iterator<ScanSummary> open = mSummaries.values().iterator();
+            while (open.hasNext()) {
+                if (open.next().getWindowStart() + window <= firstWindow)
+                    open.remove();
+            }
+
+            return changed.values().toArray(new ScanSummary[changed.size()]);
+        }
+    }
+
+    private static Scan toScan(PendingScan scan, int battery) {
+        return new Scan(scan.mTimestamp, scan.mScannedToken, scan.mAddress, BLEManager.BLEProtocol.GAP.toString(),
+                scan.mRssi, scan.mTx, scan.mProximity, scan.mAccelerometerValues, scan.mRotationVectorValues, battery);
+    }
+
+    private static String getSummaryId(String publicKey, long windowStart) {
+        return windowStart + "/" + publicKey;
+    }
+
+    private void flushDevices() {
+
+        mDeviceCache.flush();
+        mNextDeviceFlush = SystemClock.elapsedRealtime() + Config.getInstance(mContext).getDeviceFlushInterval();
+    }
+
+    private boolean hasUpdateRequirements(Device oldDevice, int rssi) {
+        return (oldDevice.getRssi()>rssi+3 || oldDevice.getRssi()<rssi-3);
+    }
+
+    private Device getNewDevice(PendingScan scan, long firstSeenTime, long lastSeenTime) {
+        return new Device(firstSeenTime, lastSeenTime, scan.mScannedToken, scan.mAddress,
+                BLEManager.BLEProtocol.GAP.toString(), scan.mRssi, scan.mTx);
+    }
+
+    /**
+     * @return - latitude and longitude of the last known gps location, 0 when there is none.
+     */
+    private double[] getLastLocation() {
+
+        double[] location = new double[2];
+        try {
+            LocationManager locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+            if (locationManager != null) {
+
+                if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED ||
+                        ActivityCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+
+                    Location lastLocation = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+                    if (lastLocation != null) {
+                        location[0] = lastLocation.getLatitude();
+                        location[1] = lastLocation.getLongitude();
+                    }
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        return location;
+    }
+
+    /**
+     * A scan result and the sensor values at the time it was received.
+     */
+    static class PendingScan {
+
+        final long mTimestamp;
+        final String mScannedToken;
+        final byte[] mEphemeralId;
+        final String mAddress;
+        final int mRssi;
+        final int mTx;
+        final float mProximity;
+        final float[] mAccelerometerValues;
+        final float[] mRotationVectorValues;
+
+        // the repeats folded into the scan, guarded by the writer
+        int mCount = 1;
+        int mMinRssi;
+        int mMaxRssi;
+        long mRssiSum;
+        boolean mTaken;
+
+        // repeats of a scan that was already written, they only add to the summaries
+        final boolean mRepeat;
+
+        PendingScan(String scannedToken, byte[] ephemeralId, String address, int rssi, int tx,
+                    float proximity, float[] accelerometerValues, float[] rotationVectorValues) {
+
+            mTimestamp = System.currentTimeMillis();
+            mScannedToken = scannedToken;
+            mEphemeralId = ephemeralId;
+            mAddress = address;
+            mRssi = rssi;
+            mMinRssi = rssi;
+            mMaxRssi = rssi;
+            mRssiSum = rssi;
+            mTx = tx;
+            mProximity = proximity;
+            // the sensor managers hand out the array of their last event, which the next event may reuse
+            mAccelerometerValues = accelerometerValues.clone();
+            mRotationVectorValues = rotationVectorValues.clone();
+            mRepeat = false;
+        }
+
+        /**
+         * A repeat of a scan received after the scan was taken to be written, it shares the
+         * sensor values of the scan.
+         */
+        PendingScan(PendingScan scan, int rssi) {
+
+            mTimestamp = System.currentTimeMillis();
+            mScannedToken = scan.mScannedToken;
+            mEphemeralId = scan.mEphemeralId;
+            mAddress = scan.mAddress;
+            mRssi = rssi;
+            mMinRssi = rssi;
+            mMaxRssi = rssi;
+            mRssiSum = rssi;
+            mTx = scan.mTx;
+            mProximity = scan.mProximity;
+            mAccelerometerValues = scan.mAccelerometerValues;
+            mRotationVectorValues = scan.mRotationVectorValues;
+            mRepeat = true;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.wix.crypto.match.EphemeralIdFilter;
+
 public class Config  {
 
     private static final String PREF_NAME = "configPref";
@@ -24,6 +26,31 @@ public class Config  {
     private static final String PREF_SCAN_MODE = "scanMode";
     private static final String PREF_SCAN_MATCH_MODE = "scanMatchMode";
 
+    // Scan Writing Config - Default
+    private static final int DEFAULT_SCAN_FLUSH_SIZE = 50;
+    private static final long DEFAULT_SCAN_FLUSH_LATENCY = 1000L;
+    private static final int DEFAULT_SCAN_QUEUE_CAPACITY = 2000;
+    // Scan Writing Config - Keys
+    private static final String PREF_SCAN_FLUSH_SIZE = "scanFlushSize";
+    private static final String PREF_SCAN_FLUSH_LATENCY = "scanFlushLatency";
+    private static final String PREF_SCAN_QUEUE_CAPACITY = "scanQueueCapacity";
+    private static final long DEFAULT_DEVICE_FLUSH_INTERVAL = 10 * 1000L;
+    private static final String PREF_DEVICE_FLUSH_INTERVAL = "deviceFlushInterval";
+
+    // Scan Aggregation Config - Default
+    private static final boolean DEFAULT_SCAN_AGGREGATION = false;
+    private static final long DEFAULT_SCAN_AGGREGATION_WINDOW = 60 * 1000L;
+    private static final boolean DEFAULT_KEEP_RAW_SCANS = false;
+    // Scan Aggregation Config - Keys
+    private static final String PREF_SCAN_AGGREGATION = "scanAggregation";
+    private static final String PREF_SCAN_AGGREGATION_WINDOW = "scanAggregationWindow";
+    private static final String PREF_KEEP_RAW_SCANS = "keepRawScans";
+
+    // Scan Dedupe Config - Default
+    private static final long DEFAULT_SCAN_DEDUPE_INTERVAL = 0L;
+    // Scan Dedupe Config - Keys
+    private static final String PREF_SCAN_DEDUPE_INTERVAL = "scanDedupeInterval";
+
 
     // Advertising Config - Default
     public static final long DEFAULT_ADVERTISE_INTERVAL = 3 * 1000L; //5 * 60 * 1000L;
@@ -53,6 +80,13 @@ public class Config  {
     private static final String PREF_SMALL_NOTIFICATION_ICON_PATH = "small_notification_icon_path";
     private static final String PREF_DISABLE_BATTERY_OPTIMIZATION = "disableBatteryOptimization";
 
+    // Matching Config - Default
+    private static final int DEFAULT_MATCH_FILTER_BITS_PER_ENTRY = EphemeralIdFilter.DEFAULT_BITS_PER_ENTRY;
+    private static final boolean DEFAULT_MATCH_HASH_JOIN = false;
+    // Matching Config - Keys
+    private static final String PREF_MATCH_FILTER_BITS_PER_ENTRY = "matchFilterBitsPerEntry";
+    private static final String PREF_MATCH_HASH_JOIN = "matchHashJoin";
+
 
     public static synchronized Config getInstance(Context context) {
         if (instance == null) {
@@ -191,4 +225,117 @@ public class Config  {
     public boolean getDisableBatteryOptimization() {
         return sharedPrefs.getBoolean(PREF_DISABLE_BATTERY_OPTIMIZATION, DEFAULT_DISABLE_BATTERY_OPT);
     }
+
+    /**
+     * @param flushSize - number of queued scan results that are written to the database in one transaction.
+     */
+    public void setScanFlushSize(int flushSize) {
+        sharedPrefs.edit().putInt(PREF_SCAN_FLUSH_SIZE, flushSize).apply();
+    }
+
+    public int getScanFlushSize() {
+        return sharedPrefs.getInt(PREF_SCAN_FLUSH_SIZE, DEFAULT_SCAN_FLUSH_SIZE);
+    }
+
+    /**
+     * @param flushLatency - time in milisec a scan result waits in the queue before a smaller batch is written.
+     */
+    public void setScanFlushLatency(long flushLatency) {
+        sharedPrefs.edit().putLong(PREF_SCAN_FLUSH_LATENCY, flushLatency).apply();
+    }
+
+    public long getScanFlushLatency() {
+        return sharedPrefs.getLong(PREF_SCAN_FLUSH_LATENCY, DEFAULT_SCAN_FLUSH_LATENCY);
+    }
+
+    /**
+     * @param capacity - number of scan results the queue holds, the oldest are dropped when the writer falls behind.
+     */
+    public void setScanQueueCapacity(int capacity) {
+        sharedPrefs.edit().putInt(PREF_SCAN_QUEUE_CAPACITY, capacity).apply();
+    }
+
+    public int getScanQueueCapacity() {
+        return sharedPrefs.getInt(PREF_SCAN_QUEUE_CAPACITY, DEFAULT_SCAN_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param flushInterval - time in milisec between the writes of the devices that changed while scanning.
+     */
+    public void setDeviceFlushInterval(long flushInterval) {
+        sharedPrefs.edit().putLong(PREF_DEVICE_FLUSH_INTERVAL, flushInterval).apply();
+    }
+
+    public long getDeviceFlushInterval() {
+        return sharedPrefs.getLong(PREF_DEVICE_FLUSH_INTERVAL, DEFAULT_DEVICE_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param aggregation - fold the scans of a public key in a time window into one summary row.
+     */
+    public void setScanAggregation(boolean aggregation) {
+        sharedPrefs.edit().putBoolean(PREF_SCAN_AGGREGATION, aggregation).apply();
+    }
+
+    public boolean getScanAggregation() {
+        return sharedPrefs.getBoolean(PREF_SCAN_AGGREGATION, DEFAULT_SCAN_AGGREGATION);
+    }
+
+    /**
+     * @param window - length in milisec of the time windows the scans are summarized in.
+     */
+    public void setScanAggregationWindow(long window) {
+        sharedPrefs.edit().putLong(PREF_SCAN_AGGREGATION_WINDOW, window).apply();
+    }
+
+    public long getScanAggregationWindow() {
+        return sharedPrefs.getLong(PREF_SCAN_AGGREGATION_WINDOW, DEFAULT_SCAN_AGGREGATION_WINDOW);
+    }
+
+    /**
+     * @param keepRawScans - also store a scan row for every advertisement when the scans are aggregated.
+     */
+    public void setKeepRawScans(boolean keepRawScans) {
+        sharedPrefs.edit().putBoolean(PREF_KEEP_RAW_SCANS, keepRawScans).apply();
+    }
+
+    public boolean getKeepRawScans() {
+        return sharedPrefs.getBoolean(PREF_KEEP_RAW_SCANS, DEFAULT_KEEP_RAW_SCANS);
+    }
+
+    /**
+     * @param interval - time in milisec in which a repeat of an advertisement, with the same token and a close rssi,
+     *                 is dropped. 0 keeps every advertisement.
+     */
+    public void setScanDedupeInterval(long interval) {
+        sharedPrefs.edit().putLong(PREF_SCAN_DEDUPE_INTERVAL, interval).apply();
+    }
+
+    public long getScanDedupeInterval() {
+        return sharedPrefs.getLong(PREF_SCAN_DEDUPE_INTERVAL, DEFAULT_SCAN_DEDUPE_INTERVAL);
+    }
+
+    /**
+     * @param bitsPerEntry - bits per infected key and unit of the match prefilter, 0 disables it.
+     */
+    public void setMatchFilterBitsPerEntry(int bitsPerEntry) {
+        sharedPrefs.edit().putInt(PREF_MATCH_FILTER_BITS_PER_ENTRY, bitsPerEntry).apply();
+    }
+
+    public int getMatchFilterBitsPerEntry() {
+        return sharedPrefs.getInt(PREF_MATCH_FILTER_BITS_PER_ENTRY, DEFAULT_MATCH_FILTER_BITS_PER_ENTRY);
+    }
+
+    /**
+     * @param hashJoin - match contacts through the hash join table instead of scanning the keys of each epoch,
+     *                 the prefilter is only used when this is off. The table takes 300 to 600 bytes per infected
+     *                 key, around 48 MB for 100k keys, so it is off by default.
+     */
+    public void setMatchHashJoin(boolean hashJoin) {
+        sharedPrefs.edit().putBoolean(PREF_MATCH_HASH_JOIN, hashJoin).apply();
+    }
+
+    public boolean getMatchHashJoin() {
+        return sharedPrefs.getBoolean(PREF_MATCH_HASH_JOIN, DEFAULT_MATCH_HASH_JOIN);
+    }
 }
@@ -41,6 +41,21 @@ public interface ContactDao
     @Query("SELECT * FROM Contacts order by id asc")
     Cursor getCursorAll();
 
+    @Query("SELECT * FROM Contacts order by timestamp asc, id asc")
+    Cursor getCursorAllByTime();
+
+    @Query("SELECT * FROM Contacts where id > :afterId and id <= :maxId order by timestamp asc, id asc")
+    Cursor getCursorAfter(int afterId, int maxId);
+
+    @Query("SELECT MAX(id) FROM Contacts")
+    int getMaxContactId();
+
+    @Query("SELECT * FROM Contacts where id <= :maxId and timestamp >= :from and timestamp < :to order by timestamp asc, id asc")
+    Cursor getCursorInRange(int maxId, int from, int to);
+
+    @Query("SELECT COUNT(*) FROM Contacts where id <= :maxId and timestamp >= :from and timestamp < :to")
+    int countContactsInRange(int maxId, int from, int to);
+
     @Query("DELETE FROM Contacts where timestamp < :history")
     public void deleteContactHistory(int history);
 
@@ -9,8 +9,11 @@ import com.wix.crypto.Contact;
 import com.wix.specialble.bt.Device;
 import com.wix.specialble.bt.Event;
 import com.wix.specialble.bt.Scan;
+import com.wix.specialble.bt.ScanSummary;
 import com.wix.specialble.kays.PublicKey;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -22,10 +25,22 @@ public class DBClient {
     private PublicKeysDatabase publicKeysDB;
     private static final String TAG = "DBClient";
 
+    // sqlite allows up to 999 variables in a query
+    private static final int MAX_KEYS_IN_QUERY = 500;
+
+    /**
+     * A query on a set of keys, run by {@link #queryInChunks} on at most MAX_KEYS_IN_QUERY at a time.
+     */
+    private interface KeyQuery<T> {
+        List<T> query(String[] keys);
+    }
+
 
     private DBClient(Context context) {
         this.context = context;
-        bleDevicesDB = Room.databaseBuilder(context, SpecialBLEDatabase.class, "BLEDevices").build();
+        bleDevicesDB = Room.databaseBuilder(context, SpecialBLEDatabase.class, "BLEDevices")
+                .addMigrations(SpecialBLEDatabase.MIGRATION_6_7)
+                .build();
         publicKeysDB = Room.databaseBuilder(context, PublicKeysDatabase.class, "PublicKeys").build();
     }
 
@@ -59,6 +74,22 @@ public class DBClient {
         bleDevicesDB.deviceDao().insert(newDevice);
     }
 
+    /**
+     * @param pks - any number of keys, they are queried in chunks.
+     */
+    public List<Device> getDevicesByKeys(String[] pks) {
+        return queryInChunks(pks, new KeyQuery<Device>() {
+            @Override
+            public List<Device> query(String[] keys) {
+                return bleDevicesDB.deviceDao().getDeviceByKeys(keys);
+            }
+        });
+    }
+
+    public void upsertDevices(Device... devices) {
+        bleDevicesDB.deviceDao().upsertAll(devices);
+    }
+
     public List<Device> getAllDevices() {
         return bleDevicesDB.deviceDao().getAllBLEDevices();
     }
@@ -82,6 +113,10 @@ public class DBClient {
         bleDevicesDB.scanDao().insert(newScan);
     }
 
+    public void addScans(Scan... scans) {
+        bleDevicesDB.scanDao().insertAll(scans);
+    }
+
 
     public List<Scan> getAllScans() {
        return bleDevicesDB.scanDao().getAllBLEScans();
@@ -89,6 +124,34 @@ public class DBClient {
 
     public void clearAllScans() {
         bleDevicesDB.scanDao().clearAll();
+        bleDevicesDB.scanSummaryDao().clearAll();
+    }
+
+    /*******************
+     *  Scan Summaries  *
+     *******************/
+    public List<ScanSummary> getAllScanSummaries() {
+        return bleDevicesDB.scanSummaryDao().getAllScanSummaries();
+    }
+
+    public List<ScanSummary> getScanSummariesByKey(String pk) {
+        return bleDevicesDB.scanSummaryDao().getScanSummariesByKey(pk);
+    }
+
+    /**
+     * @param pks - any number of keys, they are queried in chunks.
+     */
+    public List<ScanSummary> getScanSummariesSince(String[] pks, final long from) {
+        return queryInChunks(pks, new KeyQuery<ScanSummary>() {
+            @Override
+            public List<ScanSummary> query(String[] keys) {
+                return bleDevicesDB.scanSummaryDao().getScanSummariesSince(keys, from);
+            }
+        });
+    }
+
+    public void upsertScanSummaries(ScanSummary... summaries) {
+        bleDevicesDB.scanSummaryDao().upsertAll(summaries);
     }
 
     /**************
@@ -101,12 +164,42 @@ public class DBClient {
         bleDevicesDB.contactDao().insert(contact);
     }
 
+    public void storeContacts(Contact... contacts)
+    {
+        bleDevicesDB.contactDao().insertAll(contacts);
+    }
+
 
     public Cursor getCursorAll()
     {
         return bleDevicesDB.contactDao().getCursorAll();
     }
 
+    public Cursor getCursorAllByTime()
+    {
+        return bleDevicesDB.contactDao().getCursorAllByTime();
+    }
+
+    public Cursor getCursorAfter(int afterId, int maxId)
+    {
+        return bleDevicesDB.contactDao().getCursorAfter(afterId, maxId);
+    }
+
+    public int getMaxContactId()
+    {
+        return bleDevicesDB.contactDao().getMaxContactId();
+    }
+
+    public Cursor getCursorInRange(int maxId, int from, int to)
+    {
+        return bleDevicesDB.contactDao().getCursorInRange(maxId, from, to);
+    }
+
+    public int countContactsInRange(int maxId, int from, int to)
+    {
+        return bleDevicesDB.contactDao().countContactsInRange(maxId, from, to);
+    }
+
     public void delete(Contact contact)
     {
         bleDevicesDB.contactDao().delete(contact);
@@ -126,6 +219,7 @@ public class DBClient {
         bleDevicesDB.contactDao().clearAll();
         bleDevicesDB.deviceDao().clearAll();
         bleDevicesDB.scanDao().clearAll();
+        bleDevicesDB.scanSummaryDao().clearAll();
     }
 
     /***********
@@ -145,4 +239,16 @@ public class DBClient {
     public void delete(Event event) { bleDevicesDB.eventDao().delete(event); }
 
     public void clearAllEvents() { bleDevicesDB.eventDao().clearAll(); }
+
+    private static <T> List<T> queryInChunks(String[] keys, KeyQuery<T> query) {
+
+        if (keys.length <= MAX_KEYS_IN_QUERY)
+            return query.query(keys);
+
+        List<T> results = new ArrayList<>();
+        for (int from = 0; from < keys.length; from += MAX_KEYS_IN_QUERY) {
+            results.addAll(query.query(Arrays.copyOfRange(keys, from, Math.min(keys.length, from + MAX_KEYS_IN_QUERY))));
+        }
+        return results;
+    }
 }
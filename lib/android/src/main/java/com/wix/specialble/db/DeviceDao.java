@@ -3,6 +3,7 @@ package com.wix.specialble.db;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 import androidx.room.Update;
 
@@ -28,6 +29,9 @@ public interface DeviceDao {
     @Update
     void update(Device device);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(Device... devices);
+
     @Insert
     void insert(Device device);
 
@@ -0,0 +1,30 @@
+package com.wix.specialble.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.wix.specialble.bt.ScanSummary;
+
+import java.util.List;
+
+
+@Dao
+public interface ScanSummaryDao {
+
+    @Query("SELECT * FROM scan_summaries ORDER BY window_start asc")
+    List<ScanSummary> getAllScanSummaries();
+
+    @Query("SELECT * FROM scan_summaries WHERE publicKey = :publicKey ORDER BY window_start desc")
+    List<ScanSummary> getScanSummariesByKey(String publicKey);
+
+    @Query("SELECT * FROM scan_summaries WHERE window_start >= :from AND publicKey IN (:publicKeys)")
+    List<ScanSummary> getScanSummariesSince(String[] publicKeys, long from);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(ScanSummary... summaries);
+
+    @Query("DELETE FROM scan_summaries")
+    public void clearAll();
+}
@@ -1,17 +1,35 @@
 package com.wix.specialble.db;
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.wix.crypto.Contact;
 import com.wix.specialble.bt.Device;
 import com.wix.specialble.bt.Event;
 import com.wix.specialble.bt.Scan;
+import com.wix.specialble.bt.ScanSummary;
 
-@Database(entities = {Device.class, Scan.class, Contact.class, Event.class}, version = 6, exportSchema = true)
+@Database(entities = {Device.class, Scan.class, Contact.class, Event.class, ScanSummary.class}, version = 7, exportSchema = true)
 public abstract class SpecialBLEDatabase extends RoomDatabase {
     public abstract DeviceDao deviceDao();
     public abstract ScanDao scanDao();
     public abstract ContactDao contactDao();
     public abstract EventDao eventDao();
-}
+    public abstract ScanSummaryDao scanSummaryDao();
 
+    // adds the scan_summaries table
+    public static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `scan_summaries` (`publicKey` TEXT NOT NULL, `window_start` INTEGER NOT NULL, "
+                    + "`first_timestamp` INTEGER NOT NULL, `last_timestamp` INTEGER NOT NULL, `scan_count` INTEGER NOT NULL, "
+                    + "`min_rssi` INTEGER NOT NULL, `max_rssi` INTEGER NOT NULL, `rssi_sum` INTEGER NOT NULL, `scan_address` TEXT, "
+                    + "`tx` INTEGER NOT NULL, `proximity_sum` REAL NOT NULL, `acceleration_x_sum` REAL NOT NULL, "
+                    + "`acceleration_y_sum` REAL NOT NULL, `acceleration_z_sum` REAL NOT NULL, `rotation_x_sum` REAL NOT NULL, "
+                    + "`rotation_y_sum` REAL NOT NULL, `rotation_z_sum` REAL NOT NULL, `rotation_scalar_sum` REAL NOT NULL, "
+                    + "`battery_level` INTEGER NOT NULL, PRIMARY KEY(`publicKey`, `window_start`))");
+        }
+    };
+}
@@ -0,0 +1,242 @@
+package com.wix.specialble.scheduler;
+
+import android.os.Process;
+import android.util.Log;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The background work of the service, in two lanes of their own instead of the pool of AsyncTask,
+ * which is shared with the rest of the app.
+ *
+ * The ingest lane stores what the scanner and the advertiser receive, on a thread of default
+ * priority. The maintenance lane runs the purges and the exports on a background priority thread.
+ * Each lane runs its tasks one after the other from a bounded queue, when the queue is full the
+ * oldest task is dropped. A task queued with {@link Lane#executeRequired} is never dropped, the
+ * wipes of the user data must run.
+ */
+public class TaskScheduler {
+
+    public static final int INGEST_CAPACITY = 256;
+    public static final int MAINTENANCE_CAPACITY = 32;
+
+    private static final String TAG = "TaskScheduler";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static TaskScheduler sInstance;
+
+    private final Lane mIngestLane;
+    private final Lane mMaintenanceLane;
+
+    /**
+     * A task that wants to know when it is dropped from a full lane.
+     */
+    public interface Droppable extends Runnable {
+        void onDropped();
+    }
+
+    public static synchronized TaskScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TaskScheduler();
+        }
+        return sInstance;
+    }
+
+    private TaskScheduler() {
+        mIngestLane = new Lane("ingest", INGEST_CAPACITY, Process.THREAD_PRIORITY_DEFAULT);
+        mMaintenanceLane = new Lane("maintenance", MAINTENANCE_CAPACITY, Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    public Lane getIngestLane() {
+        return mIngestLane;
+    }
+
+    public Lane getMaintenanceLane() {
+        return mMaintenanceLane;
+    }
+
+    /**
+     * @return - the metrics of each lane, by lane name.
+     */
+    public WritableMap getMetrics() {
+
+        WritableMap metrics = Arguments.createMap();
+        metrics.putMap(mIngestLane.getName(), mIngestLane.getMetrics());
+        metrics.putMap(mMaintenanceLane.getName(), mMaintenanceLane.getMetrics());
+        return metrics;
+    }
+
+    /**
+     * A single thread running the tasks of a bounded queue in order.
+     */
+    public static class Lane {
+
+        private final String mName;
+        private final ThreadPoolExecutor mExecutor;
+        private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+        private final AtomicLong mCompleted = new AtomicLong();
+        private final AtomicLong mDropped = new AtomicLong();
+
+        Lane(final String name, int capacity, final int threadPriority) {
+
+            mName = name;
+            mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(capacity),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(threadPriority);
+                                    runnable.run();
+                                }
+                            }, TAG + "-" + name);
+                        }
+                    },
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+
+                            if (executor.isShutdown())
+                                return;
+
+                            Runnable oldest = pollDroppable(executor.getQueue());
+                            if (oldest != null) {
+                                drop(oldest);
+                                executor.execute(task);
+                            } else if (((Task) task).mRequired) {
+                                queueRequired(task);
+                            } else {
+                                drop(task);
+                            }
+                        }
+                    });
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Queues a task, dropping the oldest queued one when the lane is full.
+         */
+        public void execute(Runnable task) {
+            execute(new Task(task, false));
+        }
+
+        /**
+         * Queues a task that is never dropped, when the lane is full of such tasks the caller waits
+         * for room in the queue.
+         */
+        public void executeRequired(Runnable task) {
+            execute(new Task(task, true));
+        }
+
+        private void execute(Task task) {
+
+            mExecutor.execute(task);
+
+            int depth = mExecutor.getQueue().size();
+            int max;
+            while (depth > (max = mMaxQueueDepth.get()) && !mMaxQueueDepth.compareAndSet(max, depth)) {
+                // retry
+            }
+        }
+
+        public int getQueueDepth() {
+            return mExecutor.getQueue().size();
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth.get();
+        }
+
+        public long getCompletedCount() {
+            return mCompleted.get();
+        }
+
+        public long getDroppedCount() {
+            return mDropped.get();
+        }
+
+        WritableMap getMetrics() {
+
+            WritableMap metrics = Arguments.createMap();
+            metrics.putInt("queueDepth", getQueueDepth());
+            metrics.putInt("maxQueueDepth", getMaxQueueDepth());
+            metrics.putDouble("completed", getCompletedCount());
+            metrics.putDouble("dropped", getDroppedCount());
+            return metrics;
+        }
+
+        /**
+         * @return - the oldest queued task that may be dropped, removed from the queue, null when
+         * every queued task is required.
+         */
+        private Runnable pollDroppable(BlockingQueue<Runnable> queue) {
+
+            for (Runnable task : queue) {
+                if (!((Task) task).mRequired && queue.remove(task))
+                    return task;
+            }
+            return null;
+        }
+
+        private void queueRequired(Runnable task) {
+
+            try {
+                mExecutor.getQueue().put(task);
+                mExecutor.prestartCoreThread();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.e(TAG, mName + " lane could not queue a required task", e);
+            }
+        }
+
+        private void drop(Runnable dropped) {
+
+            mDropped.incrementAndGet();
+            Log.e(TAG, mName + " lane is full, dropped a task");
+
+            Runnable task = ((Task) dropped).mTask;
+            if (task instanceof Droppable)
+                ((Droppable) task).onDropped();
+        }
+
+        /**
+         * Counts the task once it ran, an exception is logged and does not stop the lane.
+         */
+        private class Task implements Runnable {
+
+            private final Runnable mTask;
+            private final boolean mRequired;
+
+            Task(Runnable task, boolean required) {
+                mTask = task;
+                mRequired = required;
+            }
+
+            @Override
+            public void run() {
+
+                try {
+                    mTask.run();
+                } catch (Exception e) {
+                    Log.e(TAG, mName + " task failed", e);
+                } finally {
+                    mCompleted.incrementAndGet();
+                }
+            }
+        }
+    }
+}
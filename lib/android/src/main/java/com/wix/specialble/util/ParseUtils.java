@@ -5,22 +5,30 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationManager;
+import android.util.JsonReader;
 
 import androidx.core.app.ActivityCompat;
 
+import com.wix.crypto.Constants;
 import com.wix.crypto.Contact;
+import com.wix.crypto.KeyDelta;
 import com.wix.crypto.Match;
 import com.wix.crypto.MatchResponse;
+import com.wix.crypto.match.InfectedKeyFile;
 import com.wix.crypto.utilities.BytesUtils;
 import com.wix.crypto.utilities.Hex;
 import com.wix.specialble.R;
 import com.wix.specialble.db.DBClient;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -38,6 +46,12 @@ public class ParseUtils {
 
     public static final String INFECTED = "days";
     public static final String START_DAY = "startDay";
+    public static final String AFTER_SEQUENCE = "afterSequence";
+    public static final String SEQUENCE = "sequence";
+    public static final String BUCKETS = "buckets";
+    public static final String DAY = "day";
+    public static final String EPOCH = "epoch";
+    public static final String KEYS = "keys";
 
     public static String infectedDbToJson(Map<Integer, Map<Integer, ArrayList<byte[]>>> infectedDb) {
         JSONObject root = new JSONObject();
@@ -86,6 +100,80 @@ public class ParseUtils {
         return root.toString();
     }
 
+    /**
+     * Serializes a key delta. Only the (day, epoch) buckets that have keys are written, so the
+     * size follows the number of new keys, not the length of the key window:
+     * <pre>
+     *   {"afterSequence": 41, "sequence": 42, "buckets": [{"day": 18390, "epoch": 5, "keys": ["0a1b...", ...]}, ...]}
+     * </pre>
+     */
+    public static String keyDeltaToJson(KeyDelta delta) {
+        JSONObject root = new JSONObject();
+        JSONArray buckets = new JSONArray();
+
+        try {
+            root.put(AFTER_SEQUENCE, delta.getAfterSequence());
+            root.put(SEQUENCE, delta.getSequence());
+            for (Map.Entry<Integer, Map<Integer, ArrayList<byte[]>>> day : delta.getKeys().entrySet()) {
+                for (Map.Entry<Integer, ArrayList<byte[]>> epoch : day.getValue().entrySet()) {
+
+                    JSONArray keys = new JSONArray();
+                    for (byte[] key : epoch.getValue()) {
+                        keys.put(Hex.toHexString(key, null));
+                    }
+
+                    JSONObject bucket = new JSONObject();
+                    bucket.put(DAY, day.getKey());
+                    bucket.put(EPOCH, epoch.getKey());
+                    bucket.put(KEYS, keys);
+                    buckets.put(bucket);
+                }
+            }
+            root.put(BUCKETS, buckets);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return root.toString();
+    }
+
+    /**
+     * Reads a key delta written by {@link #keyDeltaToJson}.
+     *
+     * @throws IOException - when the json is not a valid key delta.
+     */
+    public static KeyDelta extractKeyDeltaFromJson(String delta) throws IOException {
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> keys = new HashMap<>();
+        try {
+            JSONObject root = new JSONObject(delta);
+            JSONArray buckets = root.getJSONArray(BUCKETS);
+
+            for (int i = 0; i < buckets.length(); i++) {
+                JSONObject bucket = buckets.getJSONObject(i);
+                int day = bucket.getInt(DAY);
+                int epoch = bucket.getInt(EPOCH);
+                if (epoch < 0 || epoch >= NUM_OF_EPOCHS)
+                    throw new IOException("bad epoch " + epoch);
+
+                JSONArray bucketKeys = bucket.getJSONArray(KEYS);
+                ArrayList<byte[]> epochKeys = new ArrayList<>(bucketKeys.length());
+                for (int k = 0; k < bucketKeys.length(); k++) {
+                    byte[] key = Hex.hexStringToByteArray(bucketKeys.getString(k));
+                    if (key.length != Constants.KEY_LEN)
+                        throw new IOException("bad infected key length " + key.length);
+
+                    epochKeys.add(key);
+                }
+
+                if (!keys.containsKey(day))
+                    keys.put(day, new HashMap<Integer, ArrayList<byte[]>>());
+                keys.get(day).put(epoch, epochKeys);
+            }
+            return new KeyDelta(root.getLong(AFTER_SEQUENCE), root.getLong(SEQUENCE), keys);
+        } catch (JSONException e) {
+            throw new IOException("bad key delta json", e);
+        }
+    }
+
     public static Map<Integer, Map<Integer, ArrayList<byte[]>>> extractInfectedDbFromJson(String epochs, Context applicationContext) {
         Map<Integer, Map<Integer, ArrayList<byte[]>>> infectedDb = new HashMap<>();
         try {
@@ -120,6 +208,78 @@ public class ParseUtils {
         return infectedDb;
     }
 
+    /**
+     * Converts an infected keys json, as received from the server, to the binary key file format
+     * (see {@link InfectedKeyFile}). The json is streamed, only the raw keys are kept in memory.
+     *
+     * @param epochs - infected keys json.
+     * @param file - key file to write, replaced when it exists.
+     */
+    public static void infectedJsonToFile(String epochs, File file) throws IOException {
+
+        int startDay = Constants.None;
+        List<int[]> entries = new ArrayList<>(); // day index, epoch, key count
+        ByteArrayOutputStream keys = new ByteArrayOutputStream();
+
+        JsonReader reader = new JsonReader(new StringReader(epochs));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+
+                String name = reader.nextName();
+                if (START_DAY.equals(name)) {
+                    startDay = reader.nextInt();
+                }
+                else if (INFECTED.equals(name)) {
+
+                    reader.beginArray();
+                    for (int day = 0; reader.hasNext(); day++) {
+
+                        reader.beginArray();
+                        for (int epoch = 0; reader.hasNext(); epoch++) {
+
+                            int count = 0;
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                byte[] key = Hex.hexStringToByteArray(reader.nextString());
+                                if (key.length != Constants.KEY_LEN)
+                                    throw new IOException("bad infected key length " + key.length);
+
+                                keys.write(key, 0, key.length);
+                                count++;
+                            }
+                            reader.endArray();
+
+                            if (count > 0)
+                                entries.add(new int[] {day, epoch, count});
+                        }
+                        reader.endArray();
+                    }
+                    reader.endArray();
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        if (startDay == Constants.None)
+            throw new IOException("infected keys json has no " + START_DAY);
+
+        int[] days = new int[entries.size()];
+        int[] epochIndexes = new int[entries.size()];
+        int[] counts = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            days[i] = startDay + entries.get(i)[0];
+            epochIndexes[i] = entries.get(i)[1];
+            counts[i] = entries.get(i)[2];
+        }
+        InfectedKeyFile.write(file, startDay, days, epochIndexes, counts, keys.toByteArray());
+    }
+
     public static String loadJSONFromAsset(Context ctx) {
         String json = null;
         try {
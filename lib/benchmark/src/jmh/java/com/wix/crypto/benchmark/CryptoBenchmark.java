@@ -0,0 +1,83 @@
+package com.wix.crypto.benchmark;
+
+import com.wix.crypto.Crypto;
+import com.wix.crypto.Time;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The AES and HMAC primitives every key derivation and match goes through.
+ *
+ * The uncached benchmarks look up the Cipher and the Mac on every call, as Crypto did before it kept
+ * one instance per thread, and are the baseline of the cached ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CryptoBenchmark {
+
+    private byte[] mKey;
+    private byte[] mBlock;
+    private byte[] mEpochBlocks;
+    private byte[] mOutput;
+    private byte[] mMessage;
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(1);
+        mKey = Fixtures.randomBytes(random, 16);
+        mBlock = Fixtures.randomBytes(random, 16);
+        mEpochBlocks = Fixtures.randomBytes(random, 16 * Time.EPOCHS_IN_DAY);
+        mOutput = new byte[mEpochBlocks.length];
+        mMessage = Fixtures.randomBytes(random, 32);
+    }
+
+    @Benchmark
+    public byte[] aesBlock() {
+        return Crypto.AES(mKey, mBlock);
+    }
+
+    @Benchmark
+    public byte[] aesBlockUncached() throws GeneralSecurityException {
+
+        Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mKey, "AES"));
+        return cipher.doFinal(mBlock);
+    }
+
+    /**
+     * The blocks of a day of epochs in one pass, as the batch derivation does.
+     */
+    @Benchmark
+    public boolean aesEpochBlocks() {
+        return Crypto.AES(mKey, mEpochBlocks, 0, Time.EPOCHS_IN_DAY, mOutput, 0);
+    }
+
+    @Benchmark
+    public byte[] hmac() {
+        return Crypto.HMAC(mKey, mMessage);
+    }
+
+    @Benchmark
+    public byte[] hmacUncached() throws GeneralSecurityException {
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(mKey, "HmacSHA256"));
+        return mac.doFinal(mMessage);
+    }
+}
@@ -0,0 +1,70 @@
+package com.wix.crypto.benchmark;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Crypto;
+import com.wix.crypto.Time;
+import com.wix.crypto.key.EpochKey;
+import com.wix.crypto.match.EphemeralIdMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ephemeral id, as advertised, and the check of a contact's id against one infected key and unit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EphemeralIdBenchmark {
+
+    private static final int EPOCH = 5;
+    private static final int UNIT = 7;
+
+    private byte[] mKeys;
+    private byte[] mGeoHash;
+    private int mTime;
+    private byte[] mMask;
+    private byte[] mMacKey;
+    private byte[] mEphemeralId;
+    private byte[] mOtherEphemeralId;
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(1);
+        mKeys = Fixtures.epochKeys(random, Fixtures.randomBytes(random, Constants.KEY_LEN), Fixtures.START_DAY, EPOCH);
+        mGeoHash = Fixtures.randomBytes(random, Constants.GEOHASH_LEN);
+        mTime = Fixtures.START_DAY * Time.DAY + EPOCH * Time.EPOCH + UNIT * Time.UNIT;
+
+        byte[] block = new byte[Constants.MESSAGE_LEN];
+        block[0] = UNIT;
+        mMask = Crypto.AES(Arrays.copyOfRange(mKeys, EpochKey.ENC_KEY_OFFSET, EpochKey.ENC_KEY_OFFSET + Constants.KEY_LEN), block);
+        mMacKey = Arrays.copyOfRange(mKeys, EpochKey.MAC_KEY_OFFSET, EpochKey.MAC_KEY_OFFSET + Constants.KEY_LEN);
+        mEphemeralId = EpochKey.generateEphemeralId(mKeys, 0, mTime, mGeoHash);
+        mOtherEphemeralId = Fixtures.randomBytes(random, Constants.MESSAGE_LEN);
+    }
+
+    @Benchmark
+    public byte[] generateEphemeralId() {
+        return EpochKey.generateEphemeralId(mKeys, 0, mTime, mGeoHash);
+    }
+
+    @Benchmark
+    public int isMatch() {
+        return EphemeralIdMatcher.match(mMask, mMacKey, mEphemeralId);
+    }
+
+    @Benchmark
+    public int isMatchOther() {
+        return EphemeralIdMatcher.match(mMask, mMacKey, mOtherEphemeralId);
+    }
+}
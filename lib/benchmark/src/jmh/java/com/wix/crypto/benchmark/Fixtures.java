@@ -0,0 +1,70 @@
+package com.wix.crypto.benchmark;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Contact;
+import com.wix.crypto.ContactCursor;
+import com.wix.crypto.custom.Pair;
+import com.wix.crypto.key.EpochKey;
+import com.wix.crypto.utilities.DerivationUtils;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic keys and contacts of the benchmarks, from a seeded random so every run sees the same data.
+ */
+final class Fixtures {
+
+    /**
+     * A day of 2020, the synthetic data covers it and the NUM_OF_DAYS days after it.
+     */
+    static final int START_DAY = 18390;
+
+    private Fixtures() {}
+
+    static byte[] randomBytes(Random random, int length) {
+
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return - the keys of an epoch, laid out as {@link EpochKey#toBytes}, around an infected epoch key.
+     */
+    static byte[] epochKeys(Random random, byte[] epochKey, int day, int epoch) {
+
+        Pair<byte[], byte[]> encAndMac = DerivationUtils.getEpochKeys(epochKey, day, epoch);
+        byte[] keys = randomBytes(random, EpochKey.BYTES);
+        System.arraycopy(epochKey, 0, keys, EpochKey.EPOCH_KEY_OFFSET, Constants.KEY_LEN);
+        System.arraycopy(encAndMac.getFirst(), 0, keys, EpochKey.ENC_KEY_OFFSET, Constants.KEY_LEN);
+        System.arraycopy(encAndMac.getSecond(), 0, keys, EpochKey.MAC_KEY_OFFSET, Constants.KEY_LEN);
+        return keys;
+    }
+
+    static Contact contact(Random random, byte[] ephemeralId, int time) {
+        return new Contact(ephemeralId, randomBytes(random, 4), time, randomBytes(random, Constants.GEOHASH_LEN), 0, 0);
+    }
+
+    /**
+     * Contacts of a list, as the contacts table cursor would return them.
+     */
+    static class ListContactCursor implements ContactCursor {
+
+        private final List<Contact> mContacts;
+        private int mPosition = -1;
+
+        ListContactCursor(List<Contact> contacts) {
+            mContacts = contacts;
+        }
+
+        @Override
+        public boolean moveToNext() { return ++ mPosition < mContacts.size(); }
+
+        @Override
+        public Contact getContact() { return mContacts.get(mPosition); }
+
+        @Override
+        public void close() {}
+    }
+}
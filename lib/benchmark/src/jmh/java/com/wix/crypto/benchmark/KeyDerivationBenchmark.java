@@ -0,0 +1,149 @@
+package com.wix.crypto.benchmark;
+
+import com.wix.crypto.Time;
+import com.wix.crypto.key.DayKey;
+import com.wix.crypto.key.DayKeyStore;
+import com.wix.crypto.key.EpochKey;
+import com.wix.crypto.key.EpochKeyProvider;
+import com.wix.crypto.key.EpochKeyStore;
+import com.wix.crypto.custom.Pair;
+import com.wix.crypto.utilities.DerivationUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derivation of the user's own keys: a single epoch key, the keys of a day, the catch up over
+ * several days one key at a time and in batches, and loading the stored day keys at startup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyDerivationBenchmark {
+
+    @Param({"14", "30"})
+    public int days;
+
+    private byte[] mMasterKey;
+    private byte[] mMasterVerification;
+    private byte[] mMasterCommitment;
+    private DayKey mDayKey;
+    private byte[] mEpochKey;
+    private byte[] mOutput;
+
+    private File mDayKeyFile;
+    private File mEpochKeyFile;
+
+    @Setup
+    public void setup() throws IOException {
+
+        Random random = new Random(1);
+        mMasterKey = Fixtures.randomBytes(random, 16);
+        mMasterVerification = Fixtures.randomBytes(random, 16);
+        mMasterCommitment = Fixtures.randomBytes(random, 16);
+        mDayKey = new DayKey(Fixtures.START_DAY, mMasterKey, mMasterVerification, mMasterCommitment);
+        mEpochKey = new EpochKey(Fixtures.START_DAY, 5, mDayKey).getEpochKey();
+        mOutput = new byte[Math.max(days * DerivationUtils.DAY_KEYS_LEN, Time.EPOCHS_IN_DAY * DerivationUtils.EPOCH_KEYS_LEN)];
+
+        List<DayKey> dayKeys = new ArrayList<>();
+        byte[] masterKey = mMasterKey;
+        for (int day = Fixtures.START_DAY; day < Fixtures.START_DAY + days; day ++) {
+
+            dayKeys.add(new DayKey(day, masterKey, mMasterVerification, mMasterCommitment));
+            masterKey = DerivationUtils.getNextDayMasterKey(masterKey, false);
+        }
+
+        mDayKeyFile = File.createTempFile("dkey", ".bin");
+        mEpochKeyFile = File.createTempFile("ekey", ".bin");
+        mDayKeyFile.delete();
+        mEpochKeyFile.delete();
+        new DayKeyStore(mDayKeyFile).append(dayKeys);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        mDayKeyFile.delete();
+        mEpochKeyFile.delete();
+    }
+
+    @Benchmark
+    public EpochKey epochKey() {
+        return new EpochKey(Fixtures.START_DAY, 5, mDayKey);
+    }
+
+    @Benchmark
+    public Pair<byte[], byte[]> epochEncAndMacKeys() {
+        return DerivationUtils.getEpochKeys(mEpochKey, Fixtures.START_DAY, 5);
+    }
+
+    @Benchmark
+    public boolean epochKeysOfDay() {
+        return DerivationUtils.getEpochKeysOfDay(Fixtures.START_DAY, mDayKey.getDayKey(), mDayKey.getDayVerificationKey(),
+                mDayKey.getDayCommitKey(), mOutput, 0);
+    }
+
+    /**
+     * Every key of the days, one day key and one epoch key at a time.
+     */
+    @Benchmark
+    public EpochKey catchUpOneByOne() {
+
+        EpochKey epochKey = null;
+        byte[] masterKey = mMasterKey;
+        for (int day = Fixtures.START_DAY; day < Fixtures.START_DAY + days; day ++) {
+
+            DayKey dayKey = new DayKey(day, masterKey, mMasterVerification, mMasterCommitment);
+            for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+                epochKey = new EpochKey(day, epoch, dayKey);
+            }
+            masterKey = DerivationUtils.getNextDayMasterKey(masterKey, false);
+        }
+        return epochKey;
+    }
+
+    /**
+     * Every key of the days, the day keys in one pass and the epoch keys a day at a time.
+     */
+    @Benchmark
+    public boolean catchUpBatch() {
+
+        byte[] dayKeys = new byte[days * DerivationUtils.DAY_KEYS_LEN];
+        if (DerivationUtils.getDayKeys(Fixtures.START_DAY, days, mMasterKey, mMasterVerification, mMasterCommitment, dayKeys, 0) == null)
+            return false;
+
+        boolean ok = true;
+        for (int day = 0; day < days; day ++) {
+
+            DayKey dayKey = DayKey.fromBytes(Fixtures.START_DAY + day, dayKeys, day * DerivationUtils.DAY_KEYS_LEN);
+            ok &= DerivationUtils.getEpochKeysOfDay(Fixtures.START_DAY + day, dayKey.getDayKey(), dayKey.getDayVerificationKey(),
+                    dayKey.getDayCommitKey(), mOutput, 0);
+        }
+        return ok;
+    }
+
+    /**
+     * Startup: the stored day keys are read and the key of the current epoch is derived.
+     */
+    @Benchmark
+    public EpochKey loadKeys() throws IOException {
+
+        EpochKeyProvider provider = new EpochKeyProvider(new DayKeyStore(mDayKeyFile), new EpochKeyStore(mEpochKeyFile));
+        provider.load();
+        return provider.get(new Time(Fixtures.START_DAY + days - 1, 12));
+    }
+}
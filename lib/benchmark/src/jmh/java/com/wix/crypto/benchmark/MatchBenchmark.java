@@ -0,0 +1,161 @@
+package com.wix.crypto.benchmark;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Contact;
+import com.wix.crypto.ContactMatcher;
+import com.wix.crypto.MatchResponse;
+import com.wix.crypto.Time;
+import com.wix.crypto.key.EpochKey;
+import com.wix.crypto.match.EphemeralIdFilter;
+import com.wix.crypto.match.InfectedKeyIndex;
+import com.wix.crypto.match.InfectedKeyMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching the stored contacts against a download of infected keys, end to end.
+ *
+ * The infected keys are spread over the NUM_OF_DAYS + 1 days of a download, and so are the
+ * contacts. Out of every MATCH_RATE contacts, ENCOUNTER_CONTACTS in a row are an encounter with an
+ * infected user, a unit apart and carrying the ids of one of the infected keys, the others have
+ * random ids.
+ *
+ * The index is built in each match mode: the hash join of the infected keys, the scan of the keys
+ * behind the prefilter, and the plain nested loop over the keys of the contact's epoch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class MatchBenchmark {
+
+    private static final int DAYS = Constants.NUM_OF_DAYS + 1;
+    private static final int MATCH_RATE = 100;
+    private static final int ENCOUNTER_CONTACTS = 4;
+
+    public static final String HASH_JOIN = "hashJoin";
+    public static final String PREFILTER = "prefilter";
+    public static final String NESTED_LOOP = "nestedLoop";
+
+    @Param({"1000", "10000", "100000"})
+    public int contacts;
+
+    @Param({"100", "10000", "100000"})
+    public int infectedKeys;
+
+    @Param({HASH_JOIN, PREFILTER, NESTED_LOOP})
+    public String mode;
+
+    private InfectedKeyMap mInfectedKeys;
+    private InfectedKeyIndex mIndex;
+    private List<Contact> mContacts;
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(42);
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> infectedKeyDatabase = new HashMap<>();
+        List<int[]> times = new ArrayList<>();
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < infectedKeys; i ++) {
+
+            int day = Fixtures.START_DAY + random.nextInt(DAYS);
+            int epoch = random.nextInt(Time.EPOCHS_IN_DAY);
+            byte[] key = Fixtures.randomBytes(random, Constants.KEY_LEN);
+
+            if (!infectedKeyDatabase.containsKey(day))
+                infectedKeyDatabase.put(day, new HashMap<Integer, ArrayList<byte[]>>());
+            if (!infectedKeyDatabase.get(day).containsKey(epoch))
+                infectedKeyDatabase.get(day).put(epoch, new ArrayList<byte[]>());
+            infectedKeyDatabase.get(day).get(epoch).add(key);
+
+            times.add(new int[] {day, epoch});
+            keys.add(key);
+        }
+        mInfectedKeys = new InfectedKeyMap(infectedKeyDatabase);
+        mIndex = buildIndex();
+
+        mContacts = new ArrayList<>(contacts);
+        byte[] encounterKeys = null;
+        byte[] encounterGeoHash = null;
+        int encounterTime = 0;
+        for (int i = 0; i < contacts; i ++) {
+
+            Contact contact;
+            if (i % MATCH_RATE == 0) {
+
+                int key = random.nextInt(keys.size());
+                int day = times.get(key)[0];
+                int epoch = times.get(key)[1];
+                encounterKeys = Fixtures.epochKeys(random, keys.get(key), day, epoch);
+                encounterGeoHash = Fixtures.randomBytes(random, Constants.GEOHASH_LEN);
+                encounterTime = day * Time.DAY + epoch * Time.EPOCH + random.nextInt(Time.EPOCH - ENCOUNTER_CONTACTS * Time.UNIT);
+            }
+
+            if (i % MATCH_RATE < ENCOUNTER_CONTACTS) {
+
+                int time = encounterTime + (i % MATCH_RATE) * Time.UNIT;
+                contact = Fixtures.contact(random, EpochKey.generateEphemeralId(encounterKeys, 0, time, encounterGeoHash), time);
+            }
+            else {
+
+                int time = Fixtures.START_DAY * Time.DAY + random.nextInt(DAYS * Time.DAY);
+                contact = Fixtures.contact(random, Fixtures.randomBytes(random, Constants.MESSAGE_LEN), time);
+            }
+            contact.setId(i + 1);
+            mContacts.add(contact);
+        }
+
+        // the contacts table cursor of a parallel match is ordered by time
+        Collections.sort(mContacts, new Comparator<Contact>() {
+            @Override
+            public int compare(Contact a, Contact b) {
+                return Integer.compare(a.getTimestamp(), b.getTimestamp());
+            }
+        });
+    }
+
+    @Benchmark
+    public InfectedKeyIndex buildIndex() {
+
+        switch (mode) {
+            case HASH_JOIN:
+                return InfectedKeyIndex.build(mInfectedKeys, 0, true);
+            case PREFILTER:
+                return InfectedKeyIndex.build(mInfectedKeys, EphemeralIdFilter.DEFAULT_BITS_PER_ENTRY, false);
+            case NESTED_LOOP:
+                return InfectedKeyIndex.build(mInfectedKeys, 0, false);
+            default:
+                throw new IllegalArgumentException("unknown match mode " + mode);
+        }
+    }
+
+    @Benchmark
+    public List<MatchResponse> findCryptoMatches() {
+        return ContactMatcher.findCryptoMatches(mIndex, new Fixtures.ListContactCursor(mContacts), false);
+    }
+
+    @Benchmark
+    public List<MatchResponse> findCryptoMatchesParallel() {
+        return ContactMatcher.findCryptoMatches(mIndex, new Fixtures.ListContactCursor(mContacts), true);
+    }
+}
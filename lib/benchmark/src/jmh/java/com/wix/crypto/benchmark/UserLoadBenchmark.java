@@ -0,0 +1,103 @@
+package com.wix.crypto.benchmark;
+
+import com.wix.crypto.Time;
+import com.wix.crypto.UserHeader;
+import com.wix.crypto.key.DayKey;
+import com.wix.crypto.key.EpochKey;
+import com.wix.crypto.utilities.Hex;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What reading the saved user costs on the thread that starts the app.
+ *
+ * Older versions saved the epoch keys of the user in the user json, as hex strings, and read them
+ * all at startup. User.deserialize now only reads the ids and the current day through
+ * {@link UserHeader#parse} and leaves the keys to the key loader thread, which decodes them with
+ * {@link UserHeader#parseLegacyEpochKeys}. The json of an older version still holds the keys until
+ * the loader moves them to the key store, after that the json is the header only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserLoadBenchmark {
+
+    /**
+     * The days of keys a user keeps.
+     */
+    static final int LEGACY_DAYS = 14;
+
+    private String mLegacyJson;
+    private String mHeaderJson;
+
+    @Setup
+    public void setup() throws JSONException {
+
+        Random random = new Random(1);
+        byte[] masterKey = Fixtures.randomBytes(random, 16);
+        DayKey dayKey = new DayKey(Fixtures.START_DAY, masterKey, Fixtures.randomBytes(random, 16), Fixtures.randomBytes(random, 16));
+
+        JSONObject header = new JSONObject();
+        header.put("mUserId", Hex.toHexString(Fixtures.randomBytes(random, 16)));
+        header.put("mKeyId", Hex.toHexString(Fixtures.randomBytes(random, 16)));
+        header.put("mKeyMasterCommitment", Hex.toHexString(Fixtures.randomBytes(random, 16)));
+        header.put("mKeyMasterVerification", Hex.toHexString(Fixtures.randomBytes(random, 16)));
+        header.put("mCurrentDay", Fixtures.START_DAY + LEGACY_DAYS - 1);
+        header.put("mCurrentDayMasterKey", Hex.toHexString(masterKey));
+        mHeaderJson = header.toString();
+
+        // the keys of an older version, one day key stands in for the days since they are not checked
+        JSONArray epochKeys = new JSONArray();
+        for (int day = Fixtures.START_DAY; day < Fixtures.START_DAY + LEGACY_DAYS; day ++) {
+            for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+
+                JSONObject curEpoch = new JSONObject();
+                curEpoch.put("Time", new Time(day, epoch).toJson());
+                curEpoch.put("EpochKey", new EpochKey(day, epoch, dayKey).toJson());
+                epochKeys.put(curEpoch);
+            }
+        }
+
+        JSONObject legacy = new JSONObject(mHeaderJson);
+        legacy.put("mEpochKeys", epochKeys);
+        mLegacyJson = legacy.toString();
+    }
+
+    /**
+     * Before: the json of an older version with every key decoded on the calling thread, as the
+     * old deserialize did.
+     */
+    @Benchmark
+    public Map<Time, EpochKey> legacyFullLoad() throws JSONException {
+        return UserHeader.parseLegacyEpochKeys(UserHeader.parse(mLegacyJson).getLegacyEpochKeys());
+    }
+
+    /**
+     * After, on the first start of the new version: the same json, the keys are left to the loader.
+     */
+    @Benchmark
+    public UserHeader legacyHeaderLoad() throws JSONException {
+        return UserHeader.parse(mLegacyJson);
+    }
+
+    /**
+     * After, on every later start: the json without the keys.
+     */
+    @Benchmark
+    public UserHeader headerLoad() throws JSONException {
+        return UserHeader.parse(mHeaderJson);
+    }
+}
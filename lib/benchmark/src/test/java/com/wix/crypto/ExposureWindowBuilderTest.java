@@ -0,0 +1,213 @@
+package com.wix.crypto;
+
+import com.wix.crypto.utilities.Hex;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ExposureWindowBuilder gives the ranges of the double loop it replaced, kept here as the
+ * reference, on dense matches of keys of the contact epoch ("High") and of the epoch before it
+ * ("Low"). The matches are of one infected user whose clock is behind, so their infected times
+ * follow their contact times, the order the double loop relied on.
+ */
+public class ExposureWindowBuilderTest {
+
+    private static final int START_DAY = 18000;
+    private static final int EPOCHS = 6;
+
+    @Test
+    public void sameRangesAsTheDoubleLoop() {
+
+        int lowRanges = 0;
+        for (int seed = 0; seed < 20; seed ++) {
+
+            Fixture fixture = new Fixture(new Random(seed));
+            List<MatchResponse> expected = fixture.pairByDoubleLoop(START_DAY);
+            assertTrue("seed " + seed + " has no ranges", !expected.isEmpty());
+            assertEquals("seed " + seed, describe(expected), describe(ExposureWindowBuilder.build(new ArrayList<>(fixture.mMatches), START_DAY)));
+
+            for (MatchResponse range : expected) {
+                if ("Low".equals(range.getContactIntegrityLevel()))
+                    lowRanges ++;
+            }
+        }
+        assertTrue("the fixtures have no Low ranges", lowRanges > 0);
+    }
+
+    @Test
+    public void contactsBeforeTheStartDayOnlyPairOnTheSameKey() {
+
+        Fixture fixture = new Fixture(new Random(100));
+        int startDay = START_DAY + 1;
+        assertEquals(describe(fixture.pairByDoubleLoop(startDay)), describe(ExposureWindowBuilder.build(new ArrayList<>(fixture.mMatches), startDay)));
+    }
+
+    private static List<String> describe(List<MatchResponse> ranges) {
+
+        List<String> described = new ArrayList<>();
+        for (MatchResponse range : ranges) {
+            described.add(range.getStartContactTimestamp() + "-" + range.getEndContactTimestamp() + " " + range.getContactIntegrityLevel()
+                    + " " + range.getVerifiedEphemerals() + " " + range.getLat() + " " + range.getLon());
+        }
+        return described;
+    }
+
+    /**
+     * Matches of one infected user over a few epochs around midnight, a contact every 30 to 150
+     * seconds with a gap of 5 to 20 minutes after a third of them. The clock of the user
+     * is up to 15 minutes behind, the contacts of the first minutes of an epoch are made with the
+     * key of the epoch before.
+     */
+    private static class Fixture {
+
+        private final List<Match> mMatches = new ArrayList<>();
+        private final Map<ByteBuffer, Integer> mKeyEpochs = new HashMap<>();
+
+        Fixture(Random random) {
+
+            int firstEpoch = START_DAY * Time.EPOCHS_IN_DAY - EPOCHS / 2;
+            byte[][] keys = new byte[EPOCHS][];
+            for (int i = 0; i < EPOCHS; i ++) {
+
+                keys[i] = bytes(random, Constants.KEY_LEN);
+                mKeyEpochs.put(ByteBuffer.wrap(keys[i]), firstEpoch + i);
+            }
+
+            int drift = random.nextInt(900);
+            int time = (firstEpoch + 1) * Time.EPOCH;
+            int end = (firstEpoch + EPOCHS) * Time.EPOCH;
+            while ((time += random.nextInt(3) == 0 ? 300 + random.nextInt(900) : 30 + random.nextInt(120)) < end) {
+
+                int keyEpoch = (time - drift) / Time.EPOCH;
+                int unit = (time - drift) % Time.EPOCH / Time.UNIT;
+
+                Contact contact = new Contact(bytes(random, Constants.MESSAGE_LEN), new byte[4], time, new byte[5], random.nextDouble(), random.nextDouble());
+                Time keyTime = new Time(keyEpoch / Time.EPOCHS_IN_DAY, keyEpoch % Time.EPOCHS_IN_DAY);
+                mMatches.add(new Match(contact, new byte[5], new byte[4], keyTime, unit, keys[keyEpoch - firstEpoch]));
+            }
+        }
+
+        private boolean containsKey(int day, int epoch, byte[] epochKey) {
+
+            Integer keyEpoch = mKeyEpochs.get(ByteBuffer.wrap(epochKey));
+            return keyEpoch != null && keyEpoch == day * Time.EPOCHS_IN_DAY + epoch;
+        }
+
+        /**
+         * The pairing of User.findCryptoMatches before ExposureWindowBuilder.
+         */
+        List<MatchResponse> pairByDoubleLoop(int startDay) {
+
+            List<Match> matches = new ArrayList<>(mMatches);
+            Collections.sort(matches, new Comparator<Match>() {
+                @Override
+                public int compare(Match o1, Match o2) {
+                    return o1.getInfectedTime() - o2.getInfectedTime();
+                }
+            });
+
+            List<MatchResponse> timeRangeMatch = new ArrayList<>();
+
+            for(int i = matches.size() - 1; i >= 1; i --) {
+
+                for(int j = i - 1; j >= 0; j --) {
+
+                    long matchesTimeDifference = matches.get(i).getContact().getTimestamp() - matches.get(j).getContact().getTimestamp();
+
+                    if(matchesTimeDifference > ExposureWindowBuilder.MAX_TIME_FOR_MATCH) { break; }
+
+                    if(matchesTimeDifference >= ExposureWindowBuilder.MIN_TIME_FOR_MATCH)
+                    {
+                        if(Arrays.equals(matches.get(i).getmEpochKey(), matches.get(j).getmEpochKey()) )
+                        {
+                            createMatchResponse(matches.get(i), matches.get(j), "High", timeRangeMatch);
+                        }
+                        else
+                        {
+                            int currentContactTimestamp = matches.get(i).getContact().getTimestamp();
+                            Time contactTime = new Time(currentContactTimestamp, Constants.None);
+                            int contactDay = contactTime.getDay() - startDay;
+                            int contactHour = contactTime.getEpoch();
+
+                            if ( contactDay < 0 ) { continue; }
+                            else { contactDay = contactTime.getDay(); }
+
+                            if(contactHour == 0) {
+                                contactHour = 23;
+                                contactDay -=1 ;
+
+                                if ( contactDay < 0 ) { continue; }
+                            }
+                            else { contactHour -= 1; }
+
+                            if(containsKey(contactDay, contactHour, matches.get(j).getmEpochKey()))
+                            {
+                                createMatchResponse(matches.get(i), matches.get(j), "Low", timeRangeMatch);
+                            }
+                        }
+                    }
+                }
+            }
+            return timeRangeMatch;
+        }
+
+        private static void createMatchResponse(Match anchor, Match compareable, String contactIntegrityLevel, List<MatchResponse> responseMatches) {
+
+            if(responseMatches.isEmpty())
+            {
+                List<String> verifiedEphemerals  = new ArrayList<>();
+                verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
+                verifiedEphemerals.add(Hex.toHexString(anchor.getContact().getEphemeral_id()));
+
+                responseMatches.add(new MatchResponse(compareable.getContact().getTimestamp(),
+                        anchor.getContact().getTimestamp(), verifiedEphemerals,
+                        anchor.getContact().getLat(), anchor.getContact().getLon(),
+                        contactIntegrityLevel));
+            }
+            else
+            {
+                MatchResponse lastSavedMatch = responseMatches.remove(responseMatches.size() - 1);
+                if(lastSavedMatch.getStartContactTimestamp() - compareable.getContact().getTimestamp() <= ExposureWindowBuilder.MAX_TIME_FOR_MATCH) {
+
+                    List<String> verifiedEphemerals = new ArrayList<>();
+                    verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
+                    verifiedEphemerals.add(lastSavedMatch.getVerifiedEphemerals().get(1));
+                    responseMatches.add(new MatchResponse(compareable.getContact().getTimestamp(), lastSavedMatch.getEndContactTimestamp(),
+                            verifiedEphemerals, lastSavedMatch.getLat(), lastSavedMatch.getLon(),
+                            lastSavedMatch.getContactIntegrityLevel()));
+                }
+                else {
+                    responseMatches.add(lastSavedMatch);
+                    List<String> verifiedEphemerals  = new ArrayList<>();
+                    verifiedEphemerals.add(Hex.toHexString(compareable.getContact().getEphemeral_id()));
+                    verifiedEphemerals.add(Hex.toHexString(anchor.getContact().getEphemeral_id()));
+
+                    responseMatches.add(new MatchResponse(compareable.getContact().getTimestamp(),
+                            anchor.getContact().getTimestamp(), verifiedEphemerals,
+                            anchor.getContact().getLat(), anchor.getContact().getLon(),
+                            contactIntegrityLevel));
+                }
+            }
+        }
+
+        private static byte[] bytes(Random random, int length) {
+
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            return bytes;
+        }
+    }
+}
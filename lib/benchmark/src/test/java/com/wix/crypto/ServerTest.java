@@ -0,0 +1,139 @@
+package com.wix.crypto;
+
+import com.wix.crypto.custom.Triplet;
+import com.wix.crypto.key.UserKey;
+import com.wix.crypto.match.InfectedKeyStore;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ServerTest {
+
+    private static final int DAY = 18000;
+
+    @Test
+    public void deltasHoldTheLaterPublishes() {
+
+        Random random = new Random(1);
+        Server server = new Server();
+        server.receive_user_key(userKey(random, DAY, 3));
+
+        KeyDelta first = server.send_keys(0);
+        assertEquals(0, first.getAfterSequence());
+        assertEquals(1, first.getSequence());
+        assertEquals(3, first.getKeyCount());
+
+        server.receive_user_key(userKey(random, DAY, 2));
+        KeyDelta second = server.send_keys(first.getSequence());
+        assertEquals(1, second.getAfterSequence());
+        assertEquals(2, second.getSequence());
+        assertEquals(2, second.getKeyCount());
+
+        assertEquals(5, server.send_keys(0).getKeyCount());
+        assertEquals(0, server.send_keys(second.getSequence()).getKeyCount());
+        assertEquals(2, server.send_keys(second.getSequence()).getSequence());
+    }
+
+    @Test
+    public void uploadedAgainIsIgnored() {
+
+        UserKey userKey = userKey(new Random(2), DAY, 4);
+        Server server = new Server();
+        server.receive_user_key(userKey);
+        server.publish();
+
+        server.receive_user_key(userKey);
+        server.publish();
+        assertEquals(1, server.getSequence());
+        assertEquals(4, server.send_keys(0).getKeyCount());
+        assertEquals(4, count(server.send_keys()));
+    }
+
+    @Test
+    public void snapshotChangesDoNotReachTheDeltas() {
+
+        Random random = new Random(4);
+        Server server = new Server();
+        server.receive_user_key(userKey(random, DAY, 2));
+        server.send_keys().get(DAY).get(0).clear();
+
+        server.receive_user_key(userKey(random, DAY, 2));
+        server.publish();
+        assertEquals(4, server.send_keys(0).getKeyCount());
+        assertEquals(2, server.send_keys(1).getKeyCount());
+        assertEquals(4, count(server.send_keys()));
+    }
+
+    @Test
+    public void storeFollowsTheServer() throws IOException {
+
+        Random random = new Random(3);
+        Server server = new Server();
+        File dir = Files.createTempDirectory("ikeys").toFile();
+        try {
+            InfectedKeyStore store = new InfectedKeyStore(dir);
+
+            server.receive_user_key(userKey(random, DAY, 3));
+            assertTrue(store.apply(server.send_keys(store.getSequence()), DAY));
+
+            server.receive_user_key(userKey(random, DAY + 1, 2));
+            KeyDelta skipped = server.send_keys(store.getSequence());
+            server.receive_user_key(userKey(random, DAY + 1, 2));
+            KeyDelta later = server.send_keys(skipped.getSequence());
+
+            // applying the later delta first would lose the keys of the skipped one
+            assertFalse(store.apply(later, DAY));
+            assertTrue(store.apply(skipped, DAY));
+            assertTrue(store.apply(later, DAY));
+
+            assertEquals(server.getSequence(), store.getSequence());
+            assertEquals(7, store.getKeyCount());
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * @return - an upload of the first epochs of a day, with random pre keys.
+     */
+    private static UserKey userKey(Random random, int day, int epochs) {
+
+        List<Triplet<Integer, Integer, byte[]>> preEpoch = new ArrayList<>();
+        for (int epoch = 0; epoch < epochs; epoch ++) {
+            preEpoch.add(new Triplet<>(day, epoch, bytes(random)));
+        }
+        return new UserKey(bytes(random), bytes(random), preEpoch, bytes(random));
+    }
+
+    private static byte[] bytes(Random random) {
+
+        byte[] bytes = new byte[Constants.KEY_LEN];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int count(Map<Integer, Map<Integer, ArrayList<byte[]>>> keys) {
+
+        int count = 0;
+        for (Map<Integer, ArrayList<byte[]>> day : keys.values()) {
+            for (ArrayList<byte[]> epoch : day.values()) {
+                count += epoch.size();
+            }
+        }
+        return count;
+    }
+}
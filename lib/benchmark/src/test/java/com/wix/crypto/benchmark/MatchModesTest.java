@@ -0,0 +1,53 @@
+package com.wix.crypto.benchmark;
+
+import com.wix.crypto.MatchResponse;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every match mode of the benchmark finds the same matches, sequential and parallel.
+ */
+public class MatchModesTest {
+
+    private static final String[] MODES = {MatchBenchmark.HASH_JOIN, MatchBenchmark.PREFILTER, MatchBenchmark.NESTED_LOOP};
+
+    @Test
+    public void modesFindTheSameMatches() {
+
+        List<String> expected = null;
+        for (String mode : MODES) {
+
+            MatchBenchmark benchmark = new MatchBenchmark();
+            benchmark.contacts = 10000;
+            benchmark.infectedKeys = 10000;
+            benchmark.mode = mode;
+            benchmark.setup();
+
+            List<String> matches = describe(benchmark.findCryptoMatches());
+            if (expected == null) {
+                expected = matches;
+                assertTrue("the fixture has no encounters", !expected.isEmpty());
+            }
+            assertEquals(mode, expected, matches);
+            assertEquals(mode + " parallel", expected, describe(benchmark.findCryptoMatchesParallel()));
+        }
+    }
+
+    private static List<String> describe(List<MatchResponse> matches) {
+
+        List<String> described = new ArrayList<>();
+        for (MatchResponse match : matches) {
+            described.add(match.getStartContactTimestamp() + "-" + match.getEndContactTimestamp() + " "
+                    + match.getContactIntegrityLevel() + " " + match.getVerifiedEphemerals() + " " + match.getLat() + " " + match.getLon());
+        }
+        Collections.sort(described);
+        return described;
+    }
+}
@@ -0,0 +1,136 @@
+package com.wix.crypto.key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DayKeyStoreTest {
+
+    private static final int DAY = 18000;
+
+    private File mFile;
+    private DayKeyStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("dkey", ".bin");
+        mFile.delete();
+        mStore = new DayKeyStore(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+
+        mStore.append(dayKeys(DAY, DAY + 3));
+        mStore.append(dayKeys(DAY + 3, DAY + 5));
+
+        Map<Integer, DayKey> dayKeys = new HashMap<>();
+        Map<Integer, Integer> deletedEpochs = new HashMap<>();
+        new DayKeyStore(mFile).load(dayKeys, deletedEpochs);
+
+        assertDays(DAY, DAY + 5, dayKeys);
+        assertTrue(deletedEpochs.isEmpty());
+    }
+
+    @Test
+    public void truncatedTrailingRecordIsIgnored() throws IOException {
+
+        mStore.append(dayKeys(DAY, DAY + 3));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        Map<Integer, DayKey> dayKeys = new HashMap<>();
+        mStore.load(dayKeys, new HashMap<Integer, Integer>());
+        assertDays(DAY, DAY + 2, dayKeys);
+
+        // the next append takes the place of the partial record
+        mStore.append(dayKeys(DAY + 2, DAY + 4));
+        dayKeys.clear();
+        mStore.load(dayKeys, new HashMap<Integer, Integer>());
+        assertDays(DAY, DAY + 4, dayKeys);
+    }
+
+    @Test
+    public void setDeletedEpochs() throws IOException {
+
+        mStore.append(dayKeys(DAY, DAY + 3));
+        assertTrue(mStore.setDeletedEpochs(DAY + 1, 0x30));
+        assertFalse(mStore.setDeletedEpochs(DAY + 3, 0x30));
+
+        Map<Integer, DayKey> dayKeys = new HashMap<>();
+        Map<Integer, Integer> deletedEpochs = new HashMap<>();
+        mStore.load(dayKeys, deletedEpochs);
+
+        assertDays(DAY, DAY + 3, dayKeys);
+        assertEquals(1, deletedEpochs.size());
+        assertEquals(0x30, (int) deletedEpochs.get(DAY + 1));
+    }
+
+    @Test
+    public void truncateBefore() throws IOException {
+
+        mStore.append(dayKeys(DAY, DAY + 4));
+        mStore.truncateBefore(DAY + 2);
+
+        Map<Integer, DayKey> dayKeys = new HashMap<>();
+        mStore.load(dayKeys, new HashMap<Integer, Integer>());
+        assertDays(DAY + 2, DAY + 4, dayKeys);
+
+        // the records moved, the deleted epochs are still found by day
+        assertTrue(mStore.setDeletedEpochs(DAY + 3, 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherVersionIsRefused() throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.writeInt(DayKeyStore.MAGIC);
+        raf.writeInt(DayKeyStore.VERSION + 1);
+        raf.close();
+
+        mStore.load(new HashMap<Integer, DayKey>(), new HashMap<Integer, Integer>());
+    }
+
+    private static List<DayKey> dayKeys(int from, int to) {
+
+        List<DayKey> dayKeys = new ArrayList<>();
+        for (int day = from; day < to; day ++) {
+            dayKeys.add(EpochKeyStoreTest.dayKey(day));
+        }
+        return dayKeys;
+    }
+
+    private static void assertDays(int from, int to, Map<Integer, DayKey> dayKeys) {
+
+        assertEquals(to - from, dayKeys.size());
+        for (int day = from; day < to; day ++) {
+            assertArrayEquals(bytes(EpochKeyStoreTest.dayKey(day)), bytes(dayKeys.get(day)));
+        }
+    }
+
+    private static byte[] bytes(DayKey dayKey) {
+
+        byte[] bytes = new byte[DayKey.BYTES];
+        dayKey.toBytes(bytes, 0);
+        return bytes;
+    }
+}
@@ -0,0 +1,130 @@
+package com.wix.crypto.key;
+
+import com.wix.crypto.Time;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class EpochKeyStoreTest {
+
+    private static final int DAY = 18000;
+
+    private File mFile;
+    private EpochKeyStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("ekey", ".bin");
+        mFile.delete();
+        mStore = new EpochKeyStore(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+
+        Map<Time, EpochKey> epochKeys = epochKeys(DAY, 0, 24);
+        mStore.append(epochKeys(DAY, 0, 12));
+        mStore.append(epochKeys(DAY, 12, 24));
+
+        assertKeys(epochKeys, new EpochKeyStore(mFile).load());
+    }
+
+    @Test
+    public void truncatedTrailingRecordIsIgnored() throws IOException {
+
+        mStore.append(epochKeys(DAY, 0, 3));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        assertKeys(epochKeys(DAY, 0, 2), mStore.load());
+
+        // the next append takes the place of the partial record
+        mStore.append(epochKeys(DAY, 2, 4));
+        assertKeys(epochKeys(DAY, 0, 4), mStore.load());
+    }
+
+    @Test
+    public void truncateBefore() throws IOException {
+
+        mStore.append(epochKeys(DAY, 0, 6));
+        mStore.truncateBefore(new Time(DAY, 4));
+
+        assertKeys(epochKeys(DAY, 4, 6), mStore.load());
+    }
+
+    @Test
+    public void writeReplacesTheKeys() throws IOException {
+
+        mStore.append(epochKeys(DAY, 0, 6));
+        mStore.write(epochKeys(DAY + 1, 0, 2));
+
+        assertKeys(epochKeys(DAY + 1, 0, 2), mStore.load());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRefused() throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.writeInt(DayKeyStore.MAGIC);
+        raf.writeInt(DayKeyStore.VERSION);
+        raf.close();
+
+        mStore.load();
+    }
+
+    /**
+     * @return - the keys of epochs [from, to) of a day, derived from a day key seeded by the day.
+     */
+    static Map<Time, EpochKey> epochKeys(int day, int from, int to) {
+
+        DayKey dayKey = dayKey(day);
+        Map<Time, EpochKey> epochKeys = new TreeMap<>();
+        for (int epoch = from; epoch < to; epoch ++) {
+            epochKeys.put(new Time(day, epoch), new EpochKey(day, epoch, dayKey));
+        }
+        return epochKeys;
+    }
+
+    static DayKey dayKey(int day) {
+
+        Random random = new Random(day);
+        byte[][] keys = new byte[3][16];
+        for (byte[] key : keys) {
+            random.nextBytes(key);
+        }
+        return new DayKey(day, keys[0], keys[1], keys[2]);
+    }
+
+    static void assertKeys(Map<Time, EpochKey> expected, Map<Time, EpochKey> actual) {
+
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for (Time time : expected.keySet()) {
+            assertArrayEquals(String.valueOf(time.getAbsoluteEpoch()), bytes(expected.get(time)), bytes(actual.get(time)));
+        }
+    }
+
+    static byte[] bytes(EpochKey epochKey) {
+
+        byte[] bytes = new byte[EpochKey.BYTES];
+        epochKey.toBytes(bytes, 0);
+        return bytes;
+    }
+}
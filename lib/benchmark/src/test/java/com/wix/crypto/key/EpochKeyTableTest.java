@@ -0,0 +1,81 @@
+package com.wix.crypto.key;
+
+import com.wix.crypto.Time;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EpochKeyTableTest {
+
+    private static final int DAY = 18000;
+
+    @Test
+    public void putAndGet() {
+
+        Map<Time, EpochKey> epochKeys = EpochKeyStoreTest.epochKeys(DAY, 0, Time.EPOCHS_IN_DAY);
+        EpochKeyTable table = table(epochKeys, Time.EPOCHS_IN_DAY);
+
+        EpochKeyStoreTest.assertKeys(epochKeys, table.toMap());
+        for (Map.Entry<Time, EpochKey> epochKey : epochKeys.entrySet()) {
+
+            int absoluteEpoch = epochKey.getKey().getAbsoluteEpoch();
+            assertArrayEquals(EpochKeyStoreTest.bytes(epochKey.getValue()), EpochKeyStoreTest.bytes(table.get(absoluteEpoch)));
+
+            byte[] copy = new byte[EpochKey.BYTES + 1];
+            assertTrue(table.copy(absoluteEpoch, copy, 1));
+            byte[] expected = new byte[EpochKey.BYTES + 1];
+            epochKey.getValue().toBytes(expected, 1);
+            assertArrayEquals(expected, copy);
+        }
+        assertFalse(table.contains(new Time(DAY + 1, 0).getAbsoluteEpoch()));
+        assertNull(table.get(new Time(DAY - 1, 0).getAbsoluteEpoch()));
+    }
+
+    @Test
+    public void growsToFitTheEpochs() {
+
+        Map<Time, EpochKey> epochKeys = EpochKeyStoreTest.epochKeys(DAY, 0, Time.EPOCHS_IN_DAY);
+        epochKeys.putAll(EpochKeyStoreTest.epochKeys(DAY + 1, 0, Time.EPOCHS_IN_DAY));
+
+        EpochKeyStoreTest.assertKeys(epochKeys, table(epochKeys, 4).toMap());
+    }
+
+    @Test
+    public void removeBefore() {
+
+        Map<Time, EpochKey> epochKeys = EpochKeyStoreTest.epochKeys(DAY, 0, Time.EPOCHS_IN_DAY);
+        EpochKeyTable table = table(epochKeys, Time.EPOCHS_IN_DAY);
+
+        int first = new Time(DAY, 20).getAbsoluteEpoch();
+        assertTrue(table.hasEpochsBefore(first));
+        table.removeBefore(first);
+        assertFalse(table.hasEpochsBefore(first));
+        EpochKeyStoreTest.assertKeys(EpochKeyStoreTest.epochKeys(DAY, 20, Time.EPOCHS_IN_DAY), table.toMap());
+
+        // a dropped epoch is not stored again, later ones reuse the freed slots
+        table.put(first - 1, epochKeys.get(new Time(DAY, 19)));
+        assertFalse(table.contains(first - 1));
+
+        Map<Time, EpochKey> next = EpochKeyStoreTest.epochKeys(DAY + 1, 0, 20);
+        for (Map.Entry<Time, EpochKey> epochKey : next.entrySet()) {
+            table.put(epochKey.getKey().getAbsoluteEpoch(), epochKey.getValue());
+        }
+        next.putAll(EpochKeyStoreTest.epochKeys(DAY, 20, Time.EPOCHS_IN_DAY));
+        EpochKeyStoreTest.assertKeys(next, table.toMap());
+    }
+
+    private static EpochKeyTable table(Map<Time, EpochKey> epochKeys, int capacity) {
+
+        EpochKeyTable table = new EpochKeyTable(capacity);
+        for (Map.Entry<Time, EpochKey> epochKey : epochKeys.entrySet()) {
+            table.put(epochKey.getKey().getAbsoluteEpoch(), epochKey.getValue());
+        }
+        return table;
+    }
+}
@@ -0,0 +1,123 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.Constants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class InfectedKeyFileTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("ikey", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> keys = keys(new Random(1), 3, 5);
+        InfectedKeyMap map = new InfectedKeyMap(keys);
+        InfectedKeyFile.write(map, mFile);
+
+        InfectedKeyFile file = InfectedKeyFile.open(mFile);
+        assertEquals(map.getStartDay(), file.getStartDay());
+        assertEquals(toMap(map), toMap(file));
+    }
+
+    @Test
+    public void emptyEntriesAreLeftOut() throws IOException {
+
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> keys = keys(new Random(2), 1, 2);
+        keys.get(100).put(7, new ArrayList<byte[]>());
+        InfectedKeyFile.write(new InfectedKeyMap(keys), mFile);
+
+        InfectedKeyFile file = InfectedKeyFile.open(mFile);
+        for (int entry = 0; entry < file.getEntryCount(); entry ++) {
+            assertEquals(true, file.getKeyCount(entry) > 0);
+        }
+        assertEquals(2, file.getEntryCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void entryWithoutKeysIsRefused() throws IOException {
+        InfectedKeyFile.write(mFile, 100, new int[] {100}, new int[] {3}, new int[] {0}, new byte[0]);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFileIsRefused() throws IOException {
+
+        InfectedKeyFile.write(new InfectedKeyMap(keys(new Random(3), 2, 3)), mFile);
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        InfectedKeyFile.open(mFile);
+    }
+
+    /**
+     * @return - keysPerEpoch random keys in epochs 0, 1, ... of days 100, 101, ...
+     */
+    static Map<Integer, Map<Integer, ArrayList<byte[]>>> keys(Random random, int days, int keysPerEpoch) {
+
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> keys = new HashMap<>();
+        for (int day = 100; day < 100 + days; day ++) {
+
+            Map<Integer, ArrayList<byte[]>> dayKeys = new HashMap<>();
+            for (int epoch = 0; epoch < 2; epoch ++) {
+
+                ArrayList<byte[]> epochKeys = new ArrayList<>();
+                for (int i = 0; i < keysPerEpoch; i ++) {
+
+                    byte[] key = new byte[Constants.KEY_LEN];
+                    random.nextBytes(key);
+                    epochKeys.add(key);
+                }
+                dayKeys.put(epoch, epochKeys);
+            }
+            keys.put(day, dayKeys);
+        }
+        return keys;
+    }
+
+    /**
+     * @return - the keys of a set as "day/epoch" to the hex of every key, in order.
+     */
+    static Map<String, String> toMap(InfectedKeySet keys) {
+
+        Map<String, String> map = new HashMap<>();
+        byte[] key = new byte[Constants.KEY_LEN];
+        for (int entry = 0; entry < keys.getEntryCount(); entry ++) {
+
+            StringBuilder hex = new StringBuilder();
+            for (int k = 0; k < keys.getKeyCount(entry); k ++) {
+
+                keys.getKey(entry, k, key, 0);
+                for (byte b : key) {
+                    hex.append(String.format("%02x", b));
+                }
+                hex.append(' ');
+            }
+            map.put(keys.getDay(entry) + "/" + keys.getEpoch(entry), hex.toString());
+        }
+        return map;
+    }
+}
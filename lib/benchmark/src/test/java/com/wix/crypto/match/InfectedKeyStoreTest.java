@@ -0,0 +1,117 @@
+package com.wix.crypto.match;
+
+import com.wix.crypto.KeyDelta;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InfectedKeyStoreTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("ikeys").toFile();
+    }
+
+    @After
+    public void tearDown() {
+
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void keysSurviveReopening() throws IOException {
+
+        Map<Integer, Map<Integer, ArrayList<byte[]>>> keys = InfectedKeyFileTest.keys(new Random(1), 2, 3);
+        InfectedKeyStore store = new InfectedKeyStore(mDir);
+        assertTrue(store.apply(new KeyDelta(0, 1, keys), 0));
+
+        InfectedKeyStore reopened = new InfectedKeyStore(mDir);
+        assertEquals(1, reopened.getSequence());
+        assertEquals(12, reopened.getKeyCount());
+        assertEquals(InfectedKeyFileTest.toMap(new InfectedKeyMap(keys)), InfectedKeyFileTest.toMap(reopened.snapshot()));
+    }
+
+    @Test
+    public void outOfOrderDeltaIsRefused() throws IOException {
+
+        Random random = new Random(2);
+        InfectedKeyStore store = new InfectedKeyStore(mDir);
+        store.apply(new KeyDelta(0, 1, InfectedKeyFileTest.keys(random, 1, 2)), 0);
+
+        assertFalse(store.apply(new KeyDelta(2, 3, InfectedKeyFileTest.keys(random, 1, 2)), 0));
+        assertEquals(1, store.getSequence());
+        assertEquals(4, store.getKeyCount());
+    }
+
+    @Test
+    public void replayedDeltaIsDeduped() throws IOException {
+
+        Random random = new Random(3);
+        InfectedKeyStore store = new InfectedKeyStore(mDir);
+        store.apply(new KeyDelta(0, 1, InfectedKeyFileTest.keys(random, 1, 2)), 0);
+        byte[] sequence = Files.readAllBytes(new File(mDir, "sequence").toPath());
+
+        KeyDelta delta = new KeyDelta(1, 2, InfectedKeyFileTest.keys(random, 2, 2));
+        assertTrue(store.apply(delta, 0));
+        assertEquals(12, store.getKeyCount());
+
+        // a crash after the partitions were written and before the sequence was
+        Files.write(new File(mDir, "sequence").toPath(), sequence);
+        InfectedKeyStore reopened = new InfectedKeyStore(mDir);
+        assertEquals(1, reopened.getSequence());
+
+        assertTrue(reopened.apply(delta, 0));
+        assertEquals(2, reopened.getSequence());
+        assertEquals(12, reopened.getKeyCount());
+    }
+
+    @Test
+    public void truncatedPartitionRestartsTheDownload() throws IOException {
+
+        InfectedKeyStore store = new InfectedKeyStore(mDir);
+        store.apply(new KeyDelta(0, 1, InfectedKeyFileTest.keys(new Random(4), 2, 2)), 0);
+
+        RandomAccessFile raf = new RandomAccessFile(new File(mDir, "day_100.ikey"), "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        InfectedKeyStore reopened = new InfectedKeyStore(mDir);
+        assertEquals(0, reopened.getSequence());
+        assertFalse(new File(mDir, "day_100.ikey").exists());
+        assertEquals(4, reopened.getKeyCount());
+    }
+
+    @Test
+    public void earlyDaysAreDropped() throws IOException {
+
+        InfectedKeyStore store = new InfectedKeyStore(mDir);
+        store.apply(new KeyDelta(0, 1, InfectedKeyFileTest.keys(new Random(5), 3, 1)), 101);
+        assertEquals(4, store.getKeyCount());
+
+        store.apply(new KeyDelta(1, 2, Collections.<Integer, Map<Integer, ArrayList<byte[]>>>emptyMap()), 102);
+        assertEquals(2, store.getSequence());
+        assertEquals(2, store.getKeyCount());
+    }
+}
@@ -0,0 +1,84 @@
+package com.wix.crypto.utilities;
+
+import com.wix.crypto.Constants;
+import com.wix.crypto.Time;
+import com.wix.crypto.key.DayKey;
+import com.wix.crypto.key.EpochKey;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The batch derivations give the keys of the one key at a time derivations. The keys uploaded for
+ * the server come from the batch ones and the advertised ids from the others, so matching depends
+ * on them agreeing.
+ */
+public class DerivationUtilsTest {
+
+    private static final int DAY = 18000;
+    private static final int DAYS = 5;
+
+    @Test
+    public void dayKeysFollowTheMasterKeyChain() {
+
+        Random random = new Random(1);
+        byte[] masterKey = bytes(random);
+        byte[] verification = bytes(random);
+        byte[] commitment = bytes(random);
+
+        byte[] dayKeys = new byte[3 + DAYS * DayKey.BYTES];
+        byte[] nextMasterKey = DerivationUtils.getDayKeys(DAY, DAYS, masterKey, verification, commitment, dayKeys, 3);
+        assertNotNull(nextMasterKey);
+
+        byte[] chainKey = masterKey;
+        for (int i = 0; i < DAYS; i ++) {
+
+            byte[] expected = new byte[DayKey.BYTES];
+            new DayKey(DAY + i, chainKey, verification, commitment).toBytes(expected, 0);
+
+            byte[] actual = new byte[DayKey.BYTES];
+            DayKey.fromBytes(DAY + i, dayKeys, 3 + i * DayKey.BYTES).toBytes(actual, 0);
+            assertArrayEquals("day " + i, expected, actual);
+
+            chainKey = DerivationUtils.getNextDayMasterKey(chainKey, false);
+        }
+        assertArrayEquals(chainKey, nextMasterKey);
+    }
+
+    @Test
+    public void epochKeysOfDayMatchEpochKey() {
+
+        Random random = new Random(2);
+        DayKey dayKey = new DayKey(DAY, bytes(random), bytes(random), bytes(random));
+
+        EpochKey[] epochKeys = dayKey.getEpochKeys();
+        for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+            assertArrayEquals("epoch " + epoch, bytes(new EpochKey(DAY, epoch, dayKey)), bytes(epochKeys[epoch]));
+        }
+
+        byte[] keys = new byte[1 + Time.EPOCHS_IN_DAY * EpochKey.BYTES];
+        assertTrue(DerivationUtils.getEpochKeysOfDay(DAY, dayKey.getDayKey(), dayKey.getDayVerificationKey(), dayKey.getDayCommitKey(), keys, 1));
+        for (int epoch = 0; epoch < Time.EPOCHS_IN_DAY; epoch ++) {
+            assertArrayEquals("epoch " + epoch, bytes(epochKeys[epoch]), bytes(EpochKey.fromBytes(keys, 1 + epoch * EpochKey.BYTES)));
+        }
+    }
+
+    private static byte[] bytes(Random random) {
+
+        byte[] bytes = new byte[Constants.KEY_LEN];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] bytes(EpochKey epochKey) {
+
+        byte[] bytes = new byte[EpochKey.BYTES];
+        epochKey.toBytes(bytes, 0);
+        return bytes;
+    }
+}
@@ -34,10 +34,11 @@ RCT_EXPORT_METHOD(stopBLEService) {
     [[SpecialBleManager sharedManager] stopBLEServicesWithEmitter:self];
 }
 
-RCT_EXPORT_METHOD(deleteDatabase) {
+RCT_EXPORT_METHOD(deleteDatabase:(RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRejectBlock)reject) {
     [DBClient clearAllDevices];
     [DBClient clearAllScans];
     [DBClient clearAllContacts];
+    resolve(nil);
 }
 
 RCT_EXPORT_METHOD(match:(NSString *)jsonString callback:(RCTResponseSenderBlock)callback) {
@@ -109,8 +110,9 @@ RCT_EXPORT_METHOD(getAllDevices:(RCTResponseSenderBlock)callback) {
     callback(@[[NSNull null], array]);
 }
 
-RCT_EXPORT_METHOD(cleanDevicesDB) {
+RCT_EXPORT_METHOD(cleanDevicesDB:(RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRejectBlock)reject) {
     [DBClient clearAllDevices];
+    resolve(nil);
 }
 
 RCT_EXPORT_METHOD(addDemoDevice) {
@@ -153,8 +155,9 @@ RCT_EXPORT_METHOD(getAllScans:(RCTResponseSenderBlock)callback) {
     callback([DBClient getAllScans]);
 }
 
-RCT_EXPORT_METHOD(cleanScansDB) {
+RCT_EXPORT_METHOD(cleanScansDB:(RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRejectBlock)reject) {
     [DBClient clearAllScans];
+    resolve(nil);
 }
 
 @end